@@ -1,5 +1,6 @@
 plugins {
     java
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "com.aibuilder"
@@ -22,8 +23,88 @@ dependencies {
     // OkHttp for calling AI APIs
     implementation("com.squareup.okhttp3:okhttp:4.12.0")
 
+    // HdrHistogram for allocation-free latency percentiles
+    implementation("org.hdrhistogram:HdrHistogram:2.2.2")
+
     // Gson for JSON parsing (included in Paper runtime, but declared for compilation)
     compileOnly("com.google.code.gson:gson:2.11.0")
+
+    // Benchmarks run outside the server, so they need the API (and its Gson) at runtime
+    jmh("io.papermc.paper:paper-api:1.21.11-R0.1-SNAPSHOT")
+
+    // Tests likewise, plus a local HTTP server to stream canned responses from
+    testImplementation("io.papermc.paper:paper-api:1.21.11-R0.1-SNAPSHOT")
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.12.0")
+    testImplementation(platform("org.junit:junit-bom:5.11.3"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
+// ./gradlew jmh runs the benchmarks in src/jmh and writes build/results/jmh/results.json.
+// -PjmhIncludes=Parse runs only the benchmarks matching a regex.
+jmh {
+    // Adds gc.alloc.rate.norm (bytes per op) next to each score, for comparing allocation too
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    (findProperty("jmhIncludes") as String?)?.let { includes.set(listOf(it)) }
+}
+
+// Compare the last JMH run with an earlier results.json (kept e.g. as benchmarks/<version>.json):
+// ./gradlew jmhCompare -Pbaseline=benchmarks/1.0.json [-Pthreshold=0.10]
+// Fails if any benchmark got slower, or allocates more per operation (gc.alloc.rate.norm, from the
+// gc profiler), than the baseline by more than the threshold.
+tasks.register("jmhCompare") {
+    group = "verification"
+    description = "Compares JMH results with a baseline and fails on regressions"
+    val current = layout.buildDirectory.file("results/jmh/results.json").get().asFile
+    val baseline = file(findProperty("baseline") as String? ?: "benchmarks/baseline.json")
+    val threshold = (findProperty("threshold") as String? ?: "0.10").toDouble()
+    doLast {
+        val alloc = "gc.alloc.rate.norm"
+        // benchmark(params) [metric] -> score and whether higher is better
+        fun scores(results: File): Map<String, Pair<Double, Boolean>> {
+            @Suppress("UNCHECKED_CAST")
+            val runs = groovy.json.JsonSlurper().parse(results) as List<Map<String, Any?>>
+            return runs.flatMap { run ->
+                @Suppress("UNCHECKED_CAST")
+                val params = (run["params"] as Map<String, Any?>?).orEmpty().toSortedMap()
+                    .entries.joinToString(",") { "${it.key}=${it.value}" }
+                val name = "${run["benchmark"]}($params)"
+                @Suppress("UNCHECKED_CAST")
+                val metric = run["primaryMetric"] as Map<String, Any?>
+                @Suppress("UNCHECKED_CAST")
+                val secondary = (run["secondaryMetrics"] as Map<String, Map<String, Any?>>?).orEmpty()
+                // Older JMH versions prefix the profiler's metric names with a middle dot
+                val bytes = secondary.entries.firstOrNull { it.key.trimStart('\u00b7') == alloc }?.value
+                listOfNotNull(
+                    name to Pair((metric["score"] as Number).toDouble(), run["mode"] == "thrpt"),
+                    bytes?.let { "$name $alloc" to Pair((it["score"] as Number).toDouble(), false) })
+            }.toMap()
+        }
+        if (!current.exists()) throw GradleException("No JMH results at $current, run ./gradlew jmh first")
+        if (!baseline.exists()) throw GradleException("No baseline at $baseline")
+        val before = scores(baseline)
+        val regressions = mutableListOf<String>()
+        for ((name, now) in scores(current)) {
+            val was = before[name] ?: continue
+            // A few bytes per operation either way is noise, not a regression
+            if (name.endsWith(alloc) && maxOf(was.first, now.first) < 64.0) continue
+            // Positive means slower, whichever way the mode counts
+            val change = if (now.second) (was.first - now.first) / was.first else (now.first - was.first) / was.first
+            val line = String.format("%-90s %12.3f -> %12.3f  %+6.1f%%", name, was.first, now.first, change * 100)
+            println(line)
+            if (change > threshold) regressions += line
+        }
+        if (regressions.isNotEmpty()) {
+            throw GradleException("${regressions.size} benchmarks regressed by more than " +
+                    "${(threshold * 100).toInt()}%:\n" + regressions.joinToString("\n"))
+        }
+    }
 }
 
 tasks.jar {
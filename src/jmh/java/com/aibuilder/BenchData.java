@@ -0,0 +1,88 @@
+package com.aibuilder;
+
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic build data shaped like real AI answers: blocks laid out in layers over a
+ * square footprint, materials in a house-like mix (mostly solid blocks, some glass, stairs,
+ * torches and air), and about one block in twenty overwriting an earlier one, as the AI does
+ * when it carves doors and windows.
+ */
+final class BenchData {
+
+    private static final String[] MATERIALS = {
+            "oak_planks", "oak_planks", "oak_planks", "cobblestone", "cobblestone", "stone_bricks",
+            "oak_log", "spruce_planks", "bricks", "glass_pane", "oak_stairs", "oak_fence",
+            "torch", "white_wool", "air", "smooth_stone"
+    };
+    // Layers a build is spread over; the footprint grows with the block count
+    private static final int HEIGHT = 64;
+
+    private BenchData() {
+    }
+
+    /** One block of an {@code n}-block build: {x, y, z, material index}. */
+    private static int[] block(int i, int n) {
+        int side = Math.max(1, (int) Math.ceil(Math.sqrt((double) n / HEIGHT)));
+        int j = i % 20 == 19 ? i - 7 : i;
+        int x = j % side - side / 2;
+        int z = (j / side) % side - side / 2;
+        int y = j / (side * side);
+        int material = Math.floorMod(x * 31 + y * 17 + z * 7, MATERIALS.length);
+        return new int[]{x, y, z, material};
+    }
+
+    /** The message content the AI would send for an {@code n}-block build. */
+    static String content(int n) {
+        StringBuilder out = new StringBuilder(n * 56 + 128);
+        out.append("{\"action\": \"build\", \"description\": \"Benchmark structure of ").append(n)
+                .append(" blocks\", \"blocks\": [\n");
+        for (int i = 0; i < n; i++) {
+            int[] b = block(i, n);
+            out.append("  {\"x\": ").append(b[0]).append(", \"y\": ").append(b[1]).append(", \"z\": ")
+                    .append(b[2]).append(", \"material\": \"").append(MATERIALS[b[3]]).append("\"}")
+                    .append(i + 1 < n ? ",\n" : "\n");
+        }
+        return out.append("]}").toString();
+    }
+
+    /** A whole chat-completions response body carrying {@code content}. */
+    static String completion(String content) {
+        return "{\"id\": \"chatcmpl-bench\", \"object\": \"chat.completion\", \"model\": \"bench\", " +
+                "\"choices\": [{\"index\": 0, \"message\": {\"role\": \"assistant\", \"content\": " +
+                new JsonPrimitive(content) + "}, \"finish_reason\": \"stop\"}], " +
+                "\"usage\": {\"prompt_tokens\": 1200, \"completion_tokens\": " + content.length() / 4 +
+                ", \"prompt_tokens_details\": {\"cached_tokens\": 1024}}}";
+    }
+
+    /** {@code content} cut into stream deltas of about {@code size} characters. */
+    static List<String> deltas(String content, int size) {
+        List<String> deltas = new ArrayList<>(content.length() / size + 1);
+        for (int i = 0; i < content.length(); i += size) {
+            deltas.add(content.substring(i, Math.min(content.length(), i + size)));
+        }
+        return deltas;
+    }
+
+    /** The same build as {@link #content}, already parsed. */
+    static BlockList blocks(int n) {
+        BlockList blocks = new BlockList(n);
+        for (int i = 0; i < n; i++) {
+            int[] b = block(i, n);
+            blocks.add(b[0], b[1], b[2], MATERIALS[b[3]]);
+        }
+        return blocks;
+    }
+
+    /** Material names in the order the blocks of an {@code n}-block build use them. */
+    static String[] materialNames(int n) {
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = MATERIALS[block(i, n)[3]];
+        }
+        return names;
+    }
+}
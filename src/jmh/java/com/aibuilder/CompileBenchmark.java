@@ -0,0 +1,35 @@
+package com.aibuilder;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PlanCompiler#compile}, the step between a parsed answer and a build: resolve
+ * materials, clip, radix sort bottom-up and drop overwritten positions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompileBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int blocks;
+
+    private BlockList parsed;
+
+    @Setup
+    public void setup() {
+        InMemoryWorld.installServer();
+        parsed = BenchData.blocks(blocks);
+    }
+
+    @Benchmark
+    public PlanCompiler.Result compile() {
+        return PlanCompiler.compile(parsed, List.of(), blocks, 256);
+    }
+}
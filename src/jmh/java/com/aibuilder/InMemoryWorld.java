@@ -0,0 +1,194 @@
+package com.aibuilder;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A small in-memory world for benchmarks: block states in one array, with {@link World},
+ * {@link Chunk} and {@link Block} as proxies over it. It answers only the calls the placement
+ * backends make; anything else returns null, zero or false.
+ *
+ * {@link #installServer} stands in for the server as well, so {@link Material#createBlockData()}
+ * (and with it {@link MaterialPalette}) works outside Minecraft. Each material gets one shared
+ * {@link BlockData}.
+ */
+final class InMemoryWorld {
+
+    static final int MIN_Y = -64;
+    static final int MAX_Y = 320;
+    // Blocks along x and z, centred on 0
+    static final int SIZE = 128;
+
+    private static final int HALF = SIZE / 2;
+    private static final Map<Material, BlockData> DATA = new EnumMap<>(Material.class);
+    private static boolean installed = false;
+
+    private final BlockData[] blocks = new BlockData[SIZE * SIZE * (MAX_Y - MIN_Y)];
+    private final World world;
+    private final Constructor<?> blockProxy;
+    private final Constructor<?> chunkProxy;
+
+    InMemoryWorld() {
+        installServer();
+        world = proxy(World.class, this::world);
+        blockProxy = proxyConstructor(Block.class);
+        chunkProxy = proxyConstructor(Chunk.class);
+    }
+
+    World world() {
+        return world;
+    }
+
+    Location origin() {
+        return new Location(world, 0, 0, 0);
+    }
+
+    /** Set every block to {@code material}. */
+    void fill(Material material) {
+        Arrays.fill(blocks, material.isAir() ? null : blockData(material));
+    }
+
+    /**
+     * Make {@link Bukkit#createBlockData(Material)} work without a server. Sets Bukkit's server
+     * field directly, since {@code Bukkit.setServer} wants more of the server than this provides.
+     */
+    static synchronized void installServer() {
+        if (installed) {
+            return;
+        }
+        Logger logger = Logger.getLogger("AIBuilder-bench");
+        Server server = proxy(Server.class, (self, method, args) -> switch (method.getName()) {
+            case "createBlockData" -> args != null && args.length == 1 && args[0] instanceof Material m
+                    ? blockData(m) : null;
+            case "getLogger" -> logger;
+            case "isPrimaryThread" -> true;
+            default -> objectMethod(self, method, args);
+        });
+        try {
+            Field field = Bukkit.class.getDeclaredField("server");
+            field.setAccessible(true);
+            field.set(null, server);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't install the benchmark server", e);
+        }
+        installed = true;
+    }
+
+    static synchronized BlockData blockData(Material material) {
+        return DATA.computeIfAbsent(material, m -> proxy(BlockData.class, (self, method, args) ->
+                switch (method.getName()) {
+                    case "getMaterial" -> m;
+                    case "clone" -> self;
+                    case "getAsString" -> m.getKey().asString();
+                    case "matches" -> self == args[0];
+                    default -> objectMethod(self, method, args);
+                }));
+    }
+
+    private Object world(Object self, Method method, Object[] args) {
+        return switch (method.getName()) {
+            case "getMinHeight" -> MIN_Y;
+            case "getMaxHeight" -> MAX_Y;
+            case "getName" -> "bench";
+            case "getChunkAt" -> args.length == 2 && args[0] instanceof Integer cx
+                    ? chunk(cx, (Integer) args[1]) : null;
+            case "getBlockAt" -> args.length == 1 && args[0] instanceof Location loc
+                    ? block(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ())
+                    : block((Integer) args[0], (Integer) args[1], (Integer) args[2]);
+            default -> objectMethod(self, method, args);
+        };
+    }
+
+    private Chunk chunk(int cx, int cz) {
+        return (Chunk) newProxy(chunkProxy, (self, method, args) -> switch (method.getName()) {
+            case "getX" -> cx;
+            case "getZ" -> cz;
+            case "getWorld" -> world;
+            case "getBlock" -> block(cx * 16 + (Integer) args[0], (Integer) args[1], cz * 16 + (Integer) args[2]);
+            default -> objectMethod(self, method, args);
+        });
+    }
+
+    private Block block(int x, int y, int z) {
+        if (x < -HALF || x >= HALF || z < -HALF || z >= HALF || y < MIN_Y || y >= MAX_Y) {
+            throw new IllegalArgumentException("Outside the benchmark world: " + x + "," + y + "," + z);
+        }
+        int index = ((y - MIN_Y) * SIZE + (z + HALF)) * SIZE + (x + HALF);
+        return (Block) newProxy(blockProxy, (self, method, args) -> switch (method.getName()) {
+            case "getBlockData" -> blocks[index] != null ? blocks[index] : blockData(Material.AIR);
+            case "getType" -> blocks[index] != null ? blocks[index].getMaterial() : Material.AIR;
+            case "setBlockData" -> {
+                blocks[index] = (BlockData) args[0];
+                yield null;
+            }
+            case "getX" -> x;
+            case "getY" -> y;
+            case "getZ" -> z;
+            case "getWorld" -> world;
+            case "getLocation" -> new Location(world, x, y, z);
+            default -> objectMethod(self, method, args);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(InMemoryWorld.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    // Blocks and chunks are made per lookup like the server's own, so skip Proxy's class lookup
+    private static Constructor<?> proxyConstructor(Class<?> type) {
+        try {
+            return proxy(type, (self, method, args) -> null).getClass().getConstructor(InvocationHandler.class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object newProxy(Constructor<?> constructor, InvocationHandler handler) {
+        try {
+            return constructor.newInstance(handler);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Identity equals/hashCode/toString, and a zero value for anything else. */
+    private static Object objectMethod(Object self, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals" -> {
+                return args != null && self == args[0];
+            }
+            case "hashCode" -> {
+                return System.identityHashCode(self);
+            }
+            case "toString" -> {
+                return "bench " + method.getDeclaringClass().getSimpleName();
+            }
+            default -> {
+                Class<?> type = method.getReturnType();
+                if (!type.isPrimitive() || type == void.class) {
+                    return null;
+                }
+                // The zero value of a primitive type, boxed
+                return Array.get(Array.newInstance(type, 1), 0);
+            }
+        }
+    }
+}
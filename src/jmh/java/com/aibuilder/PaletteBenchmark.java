@@ -0,0 +1,59 @@
+package com.aibuilder;
+
+import org.bukkit.Material;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Material lookups for a 10k-block build: {@link Material#matchMaterial} for every block (how
+ * builds used to resolve names), against a {@link MaterialPalette} that resolves each distinct
+ * name once, both warm and built fresh as every build does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PaletteBenchmark {
+
+    private static final int BLOCKS = 10_000;
+
+    private String[] names;
+    private MaterialPalette palette;
+
+    @Setup
+    public void setup() {
+        InMemoryWorld.installServer();
+        names = BenchData.materialNames(BLOCKS);
+        palette = new MaterialPalette();
+        for (String name : names) {
+            palette.resolve(name);
+        }
+    }
+
+    @Benchmark
+    public void matchMaterial(Blackhole blackhole) {
+        for (String name : names) {
+            blackhole.consume(Material.matchMaterial(name));
+        }
+    }
+
+    @Benchmark
+    public void palette(Blackhole blackhole) {
+        for (String name : names) {
+            blackhole.consume(palette.resolve(name));
+        }
+    }
+
+    @Benchmark
+    public MaterialPalette freshPalette() {
+        MaterialPalette fresh = new MaterialPalette();
+        for (String name : names) {
+            fresh.resolve(name);
+        }
+        return fresh;
+    }
+}
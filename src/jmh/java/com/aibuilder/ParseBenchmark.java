@@ -0,0 +1,72 @@
+package com.aibuilder;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing an AI answer of 1k, 10k and 50k blocks: the non-streamed {@link ResponseParser}
+ * path, the streamed {@link BlockStreamParser} path, and the Gson tree parse the plugin used
+ * before either, for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int blocks;
+
+    private String body;
+    private List<String> deltas;
+
+    @Setup
+    public void setup() {
+        String content = BenchData.content(blocks);
+        body = BenchData.completion(content);
+        // About what one SSE content delta carries
+        deltas = BenchData.deltas(content, 24);
+    }
+
+    @Benchmark
+    public AIResponse completion() throws IOException {
+        return ResponseParser.parseCompletion(new StringReader(body), usage -> { });
+    }
+
+    @Benchmark
+    public int stream(Blackhole blackhole) {
+        BlockStreamParser parser = new BlockStreamParser((x, y, z, material) -> {
+            blackhole.consume(x ^ y ^ z);
+            blackhole.consume(material);
+        }, blackhole::consume);
+        for (String delta : deltas) {
+            parser.feed(delta);
+        }
+        return parser.blockCount();
+    }
+
+    @Benchmark
+    public List<BlockPlacement> tree() {
+        JsonObject root = JsonParser.parseString(body).getAsJsonObject();
+        String content = root.getAsJsonArray("choices").get(0).getAsJsonObject()
+                .getAsJsonObject("message").get("content").getAsString();
+        List<BlockPlacement> placements = new ArrayList<>();
+        for (JsonElement element : JsonParser.parseString(content).getAsJsonObject().getAsJsonArray("blocks")) {
+            JsonObject block = element.getAsJsonObject();
+            placements.add(new BlockPlacement(block.get("x").getAsInt(), block.get("y").getAsInt(),
+                    block.get("z").getAsInt(), block.get("material").getAsString()));
+        }
+        return placements;
+    }
+}
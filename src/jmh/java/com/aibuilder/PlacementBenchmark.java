@@ -0,0 +1,64 @@
+package com.aibuilder;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * The build loop's placement work for a whole compiled plan, handed to a
+ * {@link PlacementBackend} in the same 32-block steps {@link BuildEngine} uses, against an
+ * {@link InMemoryWorld}. The world's proxies cost more per call than the server's blocks, so
+ * compare backends with each other and across versions, not with live numbers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlacementBenchmark {
+
+    private static final int STEP_BLOCKS = 32;
+
+    @Param({"chunk", "per-block"})
+    public String backendName;
+
+    @Param({"10000", "50000"})
+    public int blocks;
+
+    private InMemoryWorld world;
+    private Location origin;
+    private BuildPlan plan;
+    private PlacementBackend backend;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        world = new InMemoryWorld();
+        origin = world.origin();
+        plan = PlanCompiler.compile(BenchData.blocks(blocks), List.of(), blocks, InMemoryWorld.SIZE / 2 - 1).plan();
+        // Failed and unchanged writes, if any, go to metrics and a logger of the benchmark's own
+        Metrics metrics = new Metrics();
+        Logger logger = Logger.getLogger(PlacementBenchmark.class.getName());
+        backend = "per-block".equals(backendName)
+                ? new PerBlockBackend(metrics, logger) : new ChunkBatchBackend(metrics, logger);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearWorld() {
+        // Stone, which no benchmark block uses, so every write (air included) changes a block
+        world.fill(Material.STONE);
+    }
+
+    @Benchmark
+    public BuildPlan place() {
+        BuildPlan journal = new BuildPlan();
+        for (int from = 0; from < plan.size(); from += STEP_BLOCKS) {
+            backend.place(origin, plan, from, Math.min(plan.size(), from + STEP_BLOCKS), journal);
+        }
+        return journal;
+    }
+}
@@ -0,0 +1,96 @@
+package com.aibuilder;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * A chat model that {@link AIService} talks to. Backends own the transport and wire format;
+ * the service owns the prompt, the parsing of the model's answer, and everything after.
+ *
+ * Both methods block and are called on request threads (see {@link RequestLimiter}).
+ * Cancelling {@code ticket} must make them return promptly, usually with an {@link IOException}.
+ */
+public interface AIBackend {
+
+    /**
+     * Receives a streamed answer as it arrives.
+     */
+    interface StreamListener {
+        /** A piece of the message content. */
+        void onContent(String delta);
+
+        void onFinish(String finishReason);
+
+        void onUsage(TokenUsage usage);
+
+        /** True once the consumer no longer wants the rest of the stream. */
+        boolean isCancelled();
+    }
+
+    /**
+     * The backend answered with an HTTP error.
+     */
+    class HttpException extends IOException {
+        private final int code;
+
+        public HttpException(int code, String body) {
+            super("HTTP " + code + " - " + body);
+            this.code = code;
+        }
+
+        public int code() {
+            return code;
+        }
+    }
+
+    /**
+     * The backend has been failing and is not being called for now (circuit breaker open).
+     */
+    class UnavailableException extends IOException {
+        private final long retryInMillis;
+
+        public UnavailableException(long retryInMillis) {
+            super("AI backend unavailable, retry in " + retryInMillis + " ms");
+            this.retryInMillis = retryInMillis;
+        }
+
+        public long retryInMillis() {
+            return retryInMillis;
+        }
+    }
+
+    /**
+     * The backend can't be used as configured (e.g. no API key).
+     */
+    class NotConfiguredException extends IOException {
+        public NotConfiguredException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Get the complete answer. Returns the message content, or null if the response had none.
+     */
+    String complete(Prompt prompt, RequestLimiter.Ticket ticket, Consumer<TokenUsage> onUsage) throws IOException;
+
+    /**
+     * Stream the answer into {@code listener}, returning when the stream ends.
+     */
+    void stream(Prompt prompt, RequestLimiter.Ticket ticket, StreamListener listener) throws IOException;
+
+    /** Short name used in logs and config. */
+    String name();
+
+    /**
+     * Create the backend selected by {@code ai-backend} in config.yml.
+     */
+    static AIBackend fromConfig(AIBuilderPlugin plugin) {
+        String mode = plugin.getConfig().getString("ai-backend", "openai");
+        return switch (mode.toLowerCase()) {
+            case "mock" -> new MockBackend(plugin);
+            case "compatible" -> OpenAIBackend.compatible(plugin,
+                    plugin.getConfig().getString("compatible-base-url", "http://localhost:8080/v1"));
+            default -> OpenAIBackend.openAI(plugin);
+        };
+    }
+}
@@ -2,11 +2,24 @@ package com.aibuilder;
 
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.util.concurrent.Executor;
+
 public class AIBuilderPlugin extends JavaPlugin {
 
     private AIService aiService;
     private BuildEngine buildEngine;
     private ConversationManager conversationManager;
+    private PlanCompiler planCompiler;
+    private StructureCache structureCache;
+    private RequestLimiter requestLimiter;
+    private RequestCoalescer requestCoalescer;
+    private UndoHistory undoHistory;
+    private TemplateStore templateStore;
+    private PreviewManager previewManager;
+    private SiteSurvey siteSurvey;
+    private Metrics metrics;
+    private Scheduling scheduling;
+    private MetricsServer metricsServer;
 
     @Override
     public void onEnable() {
@@ -28,9 +41,23 @@ public class AIBuilderPlugin extends JavaPlugin {
         }
 
         // Initialize services
+        this.scheduling = new Scheduling(this);
+        this.metrics = new Metrics();
+        this.requestLimiter = new RequestLimiter(this);
+        this.requestCoalescer = new RequestCoalescer(this);
         this.aiService = new AIService(this);
         this.buildEngine = new BuildEngine(this);
         this.conversationManager = new ConversationManager(this);
+        Executor async = scheduling.async();
+        this.planCompiler = new PlanCompiler(async, metrics);
+        this.structureCache = new StructureCache(this, async);
+        structureCache.pruneAsync();
+        this.undoHistory = new UndoHistory(this, async);
+        this.templateStore = new TemplateStore(this, async);
+        this.previewManager = new PreviewManager(this);
+        this.siteSurvey = new SiteSurvey(this, async);
+        this.metricsServer = MetricsServer.start(this);
+        buildEngine.resumeSaved();
 
         // Register commands
         AICommand aiCommand = new AICommand(this);
@@ -42,14 +69,25 @@ public class AIBuilderPlugin extends JavaPlugin {
 
         // Register chat listener
         getServer().getPluginManager().registerEvents(new ChatListener(this), this);
+        getServer().getPluginManager().registerEvents(new PlayerQuitListener(this), this);
+        getServer().getPluginManager().registerEvents(new BlockChangeListener(this), this);
 
         getLogger().info("AIBuilder enabled! Use /ai <message> or say 'AI, build me a house'");
     }
 
     @Override
     public void onDisable() {
+        if (previewManager != null) {
+            previewManager.shutdown();
+        }
         if (buildEngine != null) {
-            buildEngine.cancelAllBuilds();
+            buildEngine.shutdown();
+        }
+        if (requestLimiter != null) {
+            requestLimiter.shutdown();
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
         }
         getLogger().info("AIBuilder disabled.");
     }
@@ -57,4 +95,14 @@ public class AIBuilderPlugin extends JavaPlugin {
     public AIService getAIService() { return aiService; }
     public BuildEngine getBuildEngine() { return buildEngine; }
     public ConversationManager getConversationManager() { return conversationManager; }
+    public PlanCompiler getPlanCompiler() { return planCompiler; }
+    public StructureCache getStructureCache() { return structureCache; }
+    public RequestLimiter getRequestLimiter() { return requestLimiter; }
+    public RequestCoalescer getRequestCoalescer() { return requestCoalescer; }
+    public UndoHistory getUndoHistory() { return undoHistory; }
+    public TemplateStore getTemplateStore() { return templateStore; }
+    public PreviewManager getPreviewManager() { return previewManager; }
+    public SiteSurvey getSiteSurvey() { return siteSurvey; }
+    public Metrics getMetrics() { return metrics; }
+    public Scheduling getScheduling() { return scheduling; }
 }
@@ -3,6 +3,9 @@ package com.aibuilder;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 import net.kyori.adventure.text.format.TextDecoration;
+import org.bukkit.Location;
+import org.bukkit.block.structure.Mirror;
+import org.bukkit.block.structure.StructureRotation;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -11,8 +14,13 @@ import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class AICommand implements CommandExecutor, TabCompleter {
 
@@ -33,82 +41,598 @@ public class AICommand implements CommandExecutor, TabCompleter {
         if (args.length == 0) {
             player.sendMessage(Component.text("Usage: /ai <message>", NamedTextColor.YELLOW));
             player.sendMessage(Component.text("Example: /ai build me a cozy wooden house", NamedTextColor.GRAY));
-            player.sendMessage(Component.text("Use '/ai cancel' to stop a build, '/ai clear' to reset conversation.",
+            player.sendMessage(Component.text("Use '/ai cancel' to stop a build, '/ai undo' / '/ai redo' to take " +
+                    "it back or put it back, '/ai clear' to reset conversation.", NamedTextColor.GRAY));
+            player.sendMessage(Component.text("'/ai save <name>' keeps your last build as a template, " +
+                    "'/ai place <name> [90|180|270] [x|z]' places it again, '/ai templates' lists them.",
+                    NamedTextColor.GRAY));
+            player.sendMessage(Component.text("'/ai large <request>' plans a big build in parts and builds " +
+                    "them all at once. '/ai status' shows how far your build is, '/ai stats' timings and counters.",
+                    NamedTextColor.GRAY));
+            player.sendMessage(Component.text("'/ai preview' shows your builds only to you until you " +
+                    "'/ai confirm' them; '/ai rotate [90|180|270]' and '/ai shift <x> <y> <z>' move the preview.",
                     NamedTextColor.GRAY));
             return true;
         }
 
+        // Template commands. "place" only counts when a template has that name, so
+        // "/ai place a tower here" still goes to the AI
+        String sub = args[0].toLowerCase(Locale.ROOT);
+        if (sub.equals("templates") && args.length <= 2) {
+            listTemplates(player, args.length == 2 ? args[1] : "");
+            return true;
+        }
+        if (sub.equals("save") && args.length == 2) {
+            saveTemplate(player, args[1].toLowerCase(Locale.ROOT));
+            return true;
+        }
+        if (sub.equals("place") && args.length >= 2 && args.length <= 4 &&
+                plugin.getTemplateStore().info(args[1].toLowerCase(Locale.ROOT)) != null) {
+            placeTemplate(player, args[1].toLowerCase(Locale.ROOT), Arrays.copyOfRange(args, 2, args.length));
+            return true;
+        }
+
+        if (sub.equals("stats") && args.length == 1) {
+            showStats(player);
+            return true;
+        }
+        if (sub.equals("status") && args.length == 1) {
+            showStatus(player);
+            return true;
+        }
+        if (handlePreviewCommand(player, sub, args)) {
+            return true;
+        }
+        if (sub.equals("large") && args.length >= 2) {
+            handleLargeRequest(player, String.join(" ", Arrays.copyOfRange(args, 1, args.length)));
+            return true;
+        }
+
         String message = String.join(" ", args);
 
         // Handle special subcommands
         if (message.equalsIgnoreCase("cancel")) {
-            if (plugin.getBuildEngine().isBuilding(player.getUniqueId())) {
+            boolean requestCancelled = plugin.getRequestLimiter().cancel(player.getUniqueId());
+            if (plugin.getPreviewManager().discard(player)) {
+                player.sendMessage(Component.text("Preview dropped.", NamedTextColor.YELLOW));
+            } else if (plugin.getBuildEngine().isBuilding(player.getUniqueId())) {
                 plugin.getBuildEngine().cancelBuild(player.getUniqueId());
                 player.sendMessage(Component.text("Build cancelled.", NamedTextColor.YELLOW));
+            } else if (requestCancelled) {
+                player.sendMessage(Component.text("Request cancelled.", NamedTextColor.YELLOW));
             } else {
                 player.sendMessage(Component.text("No active build to cancel.", NamedTextColor.GRAY));
             }
             return true;
         }
 
+        if (message.equalsIgnoreCase("undo") || message.equalsIgnoreCase("redo")) {
+            plugin.getBuildEngine().undo(player, message.equalsIgnoreCase("redo"));
+            return true;
+        }
+
         if (message.equalsIgnoreCase("clear")) {
+            plugin.getRequestLimiter().cancel(player.getUniqueId());
             plugin.getConversationManager().clearConversation(player.getUniqueId());
             player.sendMessage(Component.text("Conversation cleared.", NamedTextColor.YELLOW));
             return true;
         }
 
         // Process the AI request
-        handleAIRequest(player, message);
+        handleAIRequest(player, message, System.nanoTime(), false);
         return true;
     }
 
-    void handleAIRequest(Player player, String message) {
+    /**
+     * Send a player's message to the AI. {@code receivedAt} ({@link System#nanoTime}) is when it
+     * was heard, and {@code chat} whether it came from the chat trigger; both only feed metrics.
+     */
+    void handleAIRequest(Player player, String message, long receivedAt, boolean chat) {
         ConversationManager convo = plugin.getConversationManager();
+        RequestLimiter limiter = plugin.getRequestLimiter();
+
+        if (limiter.hasOpenRequest(player.getUniqueId())) {
+            sendAlreadyWaiting(player);
+            return;
+        }
+        if (limiter.isFull()) {
+            player.sendMessage(Component.text("The AI is busy right now (" + limiter.queued() +
+                    " requests waiting). Try again in a moment.", NamedTextColor.YELLOW));
+            return;
+        }
 
         // Add user message to history
         convo.addMessage(player.getUniqueId(), ConversationMessage.user(message));
+        plugin.getMetrics().requestStarted(player.getUniqueId(), receivedAt, chat);
+
+        Location location = player.getLocation();
+        String biome = location.getBlock().getBiome().getKey().value();
+        Prompt base = plugin.getAIService().prompt(convo.getHistory(player.getUniqueId()), location);
+
+        // Survey the site first: the build is fitted to it, so it is part of what makes two requests the same
+        plugin.getSiteSurvey().describe(location).thenAccept(site -> plugin.getScheduling().onPlayer(player, () -> {
+            // Same conversation, model, biome and site: the same build, whether it is cached or being asked for
+            String key = StructureCache.key(base.history(), plugin.getConfig().getString("openai-model", "gpt-4o"),
+                    biome, site.fingerprint());
+            Prompt prompt = plugin.getAIService().withSurroundings(base, site.description());
+            StructureCache cache = plugin.getStructureCache();
+            if (!cache.isEnabled()) {
+                requestFromAI(player, convo, prompt, key, null);
+                return;
+            }
+            cache.lookup(key).thenAccept(cached -> plugin.getScheduling().onPlayer(player, () -> {
+                if (cached != null) {
+                    buildFromCache(player, convo, cached);
+                } else {
+                    requestFromAI(player, convo, prompt, key, key);
+                }
+            }));
+        }));
+    }
+
+    /**
+     * Build a compiled plan where the player stands, or only show it to them first if they have
+     * preview mode on.
+     */
+    private void startBuild(Player player, BuildPlan plan, String description) {
+        if (plugin.getPreviewManager().isEnabled(player.getUniqueId())) {
+            plugin.getPreviewManager().show(player, player.getLocation(), plan, description);
+        } else {
+            plugin.getBuildEngine().build(player, player.getLocation(), plan, description);
+        }
+    }
 
-        player.sendMessage(Component.text("AI is thinking...", NamedTextColor.AQUA)
+    /**
+     * {@code /ai preview}, {@code confirm}, {@code rotate} and {@code shift}. Rotate and shift only
+     * count while there is a preview, so "/ai rotate the tower" still goes to the AI. Returns true
+     * if the command was one of these.
+     */
+    private boolean handlePreviewCommand(Player player, String sub, String[] args) {
+        PreviewManager previews = plugin.getPreviewManager();
+        if (sub.equals("preview") && args.length == 1) {
+            boolean on = previews.toggle(player.getUniqueId());
+            player.sendMessage(Component.text(on
+                    ? "Preview on: your builds are shown only to you until you /ai confirm them."
+                    : "Preview off: builds are placed right away again.", NamedTextColor.YELLOW));
+            return true;
+        }
+        if (sub.equals("confirm") && args.length == 1) {
+            if (!previews.confirm(player)) {
+                player.sendMessage(Component.text("Nothing to confirm. Turn on /ai preview first.",
+                        NamedTextColor.GRAY));
+            }
+            return true;
+        }
+        if (!previews.hasPreview(player.getUniqueId())) {
+            return false;
+        }
+        if (sub.equals("rotate") && args.length <= 2) {
+            StructureRotation rotation = switch (args.length == 2 ? args[1] : "90") {
+                case "90" -> StructureRotation.CLOCKWISE_90;
+                case "180" -> StructureRotation.CLOCKWISE_180;
+                case "270" -> StructureRotation.COUNTERCLOCKWISE_90;
+                default -> null;
+            };
+            if (rotation == null) {
+                player.sendMessage(Component.text("Usage: /ai rotate [90|180|270]", NamedTextColor.YELLOW));
+            } else {
+                previews.rotate(player, rotation);
+            }
+            return true;
+        }
+        if (sub.equals("shift") && args.length == 4) {
+            try {
+                previews.shift(player, Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                        Integer.parseInt(args[3]));
+            } catch (NumberFormatException e) {
+                player.sendMessage(Component.text("Usage: /ai shift <x> <y> <z>", NamedTextColor.YELLOW));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A large build: the AI lays it out as regions, then builds them in parallel (see
+     * {@link LargeBuild}). Never cached.
+     */
+    private void handleLargeRequest(Player player, String message) {
+        RequestLimiter limiter = plugin.getRequestLimiter();
+        if (limiter.hasOpenRequest(player.getUniqueId())) {
+            sendAlreadyWaiting(player);
+            return;
+        }
+        if (limiter.isFull()) {
+            player.sendMessage(Component.text("The AI is busy right now (" + limiter.queued() +
+                    " requests waiting). Try again in a moment.", NamedTextColor.YELLOW));
+            return;
+        }
+
+        plugin.getConversationManager().addMessage(player.getUniqueId(), ConversationMessage.user(message));
+        plugin.getMetrics().requestStarted(player.getUniqueId(), System.nanoTime(), false);
+        RequestLimiter.Ticket ticket = limiter.open(player.getUniqueId());
+        if (ticket == null) {
+            sendAlreadyWaiting(player);
+            return;
+        }
+        player.sendMessage(Component.text("AI is planning the layout...", NamedTextColor.AQUA)
                 .decorate(TextDecoration.ITALIC));
+        LargeBuild.start(plugin, player, ticket);
+    }
 
-        // Call AI asynchronously
-        plugin.getAIService()
-                .chat(convo.getHistory(player.getUniqueId()), player.getLocation())
-                .thenAccept(response -> {
-                    // Switch back to main thread for Bukkit API calls
-                    plugin.getServer().getScheduler().runTask(plugin, () -> {
-                        switch (response.type()) {
-                            case CLARIFY -> {
-                                convo.addMessage(player.getUniqueId(),
-                                        ConversationMessage.assistant(response.message()));
-                                player.sendMessage(Component.text("[AI] ", NamedTextColor.AQUA)
-                                        .append(Component.text(response.message(), NamedTextColor.WHITE)));
-                            }
-                            case BUILD -> {
-                                player.sendMessage(Component.text("[AI] ", NamedTextColor.AQUA)
-                                        .append(Component.text(response.message(), NamedTextColor.GREEN)));
-                                plugin.getBuildEngine().build(
-                                        player, player.getLocation(),
-                                        response.blocks(), response.message());
-                                // Clear conversation after successful build start
-                                convo.clearConversation(player.getUniqueId());
+    private void buildFromCache(Player player, ConversationManager convo, StructureCache.Entry cached) {
+        player.sendMessage(Component.text("[AI] ", NamedTextColor.AQUA)
+                .append(Component.text(cached.description(), NamedTextColor.GREEN))
+                .append(Component.text(" (cached)", NamedTextColor.GRAY)));
+        startBuild(player, cached.plan(), cached.description());
+        convo.clearConversation(player.getUniqueId());
+    }
+
+    /**
+     * Ask the AI for a build with {@code prompt}. Players who ask for the same {@code key} at the
+     * same time share one request (see {@link RequestCoalescer}). {@code cacheKey} is where to
+     * remember the result, or null if caching is off.
+     */
+    private void requestFromAI(Player player, ConversationManager convo, Prompt prompt, String key,
+                               String cacheKey) {
+        RequestLimiter limiter = plugin.getRequestLimiter();
+        RequestCoalescer coalescer = plugin.getRequestCoalescer();
+        RequestLimiter.Ticket ticket = limiter.open(player.getUniqueId());
+        if (ticket == null) {
+            sendAlreadyWaiting(player);
+            return;
+        }
+
+        if (coalescer.isInFlight(key)) {
+            player.sendMessage(Component.text("The AI is already working on the same request, you'll get " +
+                    "the same build...", NamedTextColor.AQUA).decorate(TextDecoration.ITALIC));
+        } else if (limiter.isBusy()) {
+            player.sendMessage(Component.text("The AI is busy, your request is queued (" + limiter.queued() +
+                    " waiting)...", NamedTextColor.AQUA).decorate(TextDecoration.ITALIC));
+        } else {
+            player.sendMessage(Component.text("AI is thinking...", NamedTextColor.AQUA)
+                    .decorate(TextDecoration.ITALIC));
+        }
+
+        // A preview needs the whole plan, so those requests aren't streamed
+        if (plugin.getConfig().getBoolean("stream-responses", true) &&
+                !plugin.getPreviewManager().isEnabled(player.getUniqueId())) {
+            handleStreamingRequest(player, convo, ticket, prompt, key, cacheKey);
+            return;
+        }
+
+        int maxBlocks = plugin.getConfig().getInt("max-blocks", 10000);
+        int maxExtent = plugin.getConfig().getInt("max-build-size", 256);
+
+        // Call AI asynchronously, then compile build plans off the main thread too
+        coalescer.request(key, ticket, shared -> plugin.getAIService().chat(prompt, shared)
+                        .thenCompose(response -> {
+                            if (response.type() != AIResponse.Type.BUILD) {
+                                return CompletableFuture.completedFuture(new Answer(response, null));
                             }
-                            case ERROR -> {
-                                player.sendMessage(Component.text("[AI Error] ", NamedTextColor.RED)
-                                        .append(Component.text(response.message(), NamedTextColor.YELLOW)));
+                            return plugin.getPlanCompiler()
+                                    .compileAsync(response.blocks(), response.shapes(), maxBlocks, maxExtent)
+                                    .thenApply(result -> {
+                                        // Once for everyone who shares the request
+                                        if (cacheKey != null && !result.tooLarge()) {
+                                            plugin.getStructureCache().store(cacheKey, response.message(),
+                                                    result.plan());
+                                        }
+                                        return new Answer(response, result);
+                                    });
+                        }))
+                .thenAccept(answer -> {
+                    if (ticket.isCancelled()) {
+                        return; // The player already knows
+                    }
+                    // Switch back to the player's thread for Bukkit API calls
+                    plugin.getScheduling().forPlayer(player,
+                            () -> handleResponse(player, convo, answer.response(), answer.compiled()));
+                });
+    }
+
+    /** A non-streamed answer, with its compiled plan if it is a build. */
+    private record Answer(AIResponse response, PlanCompiler.Result compiled) {
+    }
+
+    private void handleResponse(Player player, ConversationManager convo, AIResponse response,
+                                PlanCompiler.Result compiled) {
+        switch (response.type()) {
+            case CLARIFY -> {
+                convo.addMessage(player.getUniqueId(),
+                        ConversationMessage.assistant(response.message()));
+                player.sendMessage(Component.text("[AI] ", NamedTextColor.AQUA)
+                        .append(Component.text(response.message(), NamedTextColor.WHITE)));
+            }
+            case BUILD -> {
+                player.sendMessage(Component.text("[AI] ", NamedTextColor.AQUA)
+                        .append(Component.text(response.message(), NamedTextColor.GREEN)));
+                if (compiled.tooLarge()) {
+                    int maxBlocks = plugin.getConfig().getInt("max-blocks", 10000);
+                    player.sendMessage(Component.text("Build too large (" + (maxBlocks + compiled.tooLargeBy()) +
+                            " blocks, max " + maxBlocks + "). Try a smaller structure.", NamedTextColor.RED));
+                } else {
+                    if (compiled.duplicates() > 0 || compiled.clipped() > 0) {
+                        player.sendMessage(Component.text("Removed " + compiled.duplicates() +
+                                " duplicate and " + compiled.clipped() + " out-of-bounds blocks.",
+                                NamedTextColor.GRAY));
+                    }
+                    startBuild(player, compiled.plan(), response.message());
+                }
+                // Clear conversation after successful build start
+                convo.clearConversation(player.getUniqueId());
+            }
+            case ERROR -> {
+                player.sendMessage(Component.text("[AI Error] ", NamedTextColor.RED)
+                        .append(Component.text(response.message(), NamedTextColor.YELLOW)));
+            }
+        }
+    }
+
+    /**
+     * Streaming variant: the build starts on the first block the AI sends, instead of
+     * waiting for the whole response.
+     */
+    private void handleStreamingRequest(Player player, ConversationManager convo, RequestLimiter.Ticket ticket,
+                                        Prompt prompt, String key, String cacheKey) {
+        AtomicBoolean buildStarted = new AtomicBoolean(false);
+
+        RequestCoalescer.Stream stream = plugin.getRequestCoalescer().stream(key, ticket,
+                (shared, source, onBuildStart) -> plugin.getAIService()
+                        .chatStreaming(prompt, shared, source, onBuildStart)
+                        .thenApply(response -> {
+                            // Only complete plans are worth replaying; stored once for everyone, in the
+                            // same sorted, deduped form as a compiled response
+                            if (response.type() == AIResponse.Type.BUILD && cacheKey != null &&
+                                    !source.isTruncated() && !source.isCancelled()) {
+                                plugin.getStructureCache().store(cacheKey, response.message(),
+                                        PlanCompiler.compact(source.plan()));
                             }
+                            return response;
+                        }));
+        // This player's own reader of the blocks, built at their own position
+        PlacementQueue queue = stream.queue();
+
+        stream.buildStarted().thenAccept(description -> plugin.getScheduling().forPlayer(player, () -> {
+            if (ticket.isCancelled()) {
+                return;
+            }
+            buildStarted.set(true);
+            player.sendMessage(Component.text("[AI] ", NamedTextColor.AQUA)
+                    .append(Component.text(description, NamedTextColor.GREEN)));
+            plugin.getBuildEngine().buildStreaming(
+                    player, player.getLocation(), queue, description);
+            // Clear conversation after successful build start
+            convo.clearConversation(player.getUniqueId());
+        }, queue::cancel));
+        stream.response().thenAccept(response -> {
+            if (ticket.isCancelled()) {
+                return;
+            }
+            plugin.getScheduling().forPlayer(player, () -> {
+                switch (response.type()) {
+                    case CLARIFY -> {
+                        convo.addMessage(player.getUniqueId(),
+                                ConversationMessage.assistant(response.message()));
+                        player.sendMessage(Component.text("[AI] ", NamedTextColor.AQUA)
+                                .append(Component.text(response.message(), NamedTextColor.WHITE)));
+                    }
+                    case BUILD -> {
+                        // Blocks were handed to the build engine as they arrived
+                        if (!buildStarted.get()) {
+                            player.sendMessage(Component.text("[AI] ", NamedTextColor.AQUA)
+                                    .append(Component.text(response.message() +
+                                            " (no blocks were sent)", NamedTextColor.YELLOW)));
+                        } else if (queue.clipped() > 0) {
+                            player.sendMessage(Component.text("Removed " + queue.clipped() +
+                                    " out-of-bounds blocks.", NamedTextColor.GRAY));
                         }
-                    });
-                });
+                    }
+                    case ERROR -> {
+                        player.sendMessage(Component.text("[AI Error] ", NamedTextColor.RED)
+                                .append(Component.text(response.message(), NamedTextColor.YELLOW)));
+                    }
+                }
+            });
+        });
+    }
+
+    private void saveTemplate(Player player, String name) {
+        TemplateStore templates = plugin.getTemplateStore();
+        if (!TemplateStore.isValidName(name)) {
+            player.sendMessage(Component.text("Template names are up to 32 characters of a-z, 0-9, _ and -.",
+                    NamedTextColor.RED));
+            return;
+        }
+        StructureCache.Entry last = plugin.getBuildEngine().lastBuild(player.getUniqueId());
+        if (last == null) {
+            player.sendMessage(Component.text("Nothing to save yet. Finish a build first.", NamedTextColor.YELLOW));
+            return;
+        }
+        TemplateStore.Info existing = templates.info(name);
+        if (existing != null && existing.owner() != null && !existing.owner().equals(player.getUniqueId()) &&
+                !player.hasPermission("aibuilder.admin")) {
+            player.sendMessage(Component.text("The template '" + name + "' belongs to someone else.",
+                    NamedTextColor.RED));
+            return;
+        }
+
+        templates.save(name, player.getUniqueId(), last.description(), last.plan())
+                .whenComplete((info, error) -> plugin.getScheduling().onPlayer(player, () -> {
+                    if (error != null) {
+                        plugin.getLogger().warning(error.getMessage());
+                        player.sendMessage(Component.text("Failed to save the template. Check server logs.",
+                                NamedTextColor.RED));
+                        return;
+                    }
+                    player.sendMessage(Component.text("Saved '" + name + "': " + info.description() +
+                            " (" + info.blocks() + " blocks). Place it with /ai place " + name, NamedTextColor.GREEN));
+                }));
+    }
+
+    private void placeTemplate(Player player, String name, String[] options) {
+        StructureRotation rotation = StructureRotation.NONE;
+        Mirror mirror = Mirror.NONE;
+        for (String option : options) {
+            switch (option.toLowerCase(Locale.ROOT)) {
+                case "0" -> rotation = StructureRotation.NONE;
+                case "90" -> rotation = StructureRotation.CLOCKWISE_90;
+                case "180" -> rotation = StructureRotation.CLOCKWISE_180;
+                case "270" -> rotation = StructureRotation.COUNTERCLOCKWISE_90;
+                case "x" -> mirror = Mirror.FRONT_BACK;
+                case "z" -> mirror = Mirror.LEFT_RIGHT;
+                default -> {
+                    player.sendMessage(Component.text("Usage: /ai place <name> [0|90|180|270] [x|z]",
+                            NamedTextColor.YELLOW));
+                    return;
+                }
+            }
+        }
+
+        StructureRotation turn = rotation;
+        Mirror flip = mirror;
+        plugin.getTemplateStore().load(name)
+                .thenApply(entry -> entry == null ? null
+                        : new StructureCache.Entry(entry.description(), entry.plan().transformed(turn, flip),
+                                entry.created()))
+                .thenAccept(entry -> plugin.getScheduling().onPlayer(player, () -> {
+                    if (!player.isOnline()) {
+                        return;
+                    }
+                    if (entry == null) {
+                        player.sendMessage(Component.text("Template '" + name + "' could not be loaded.",
+                                NamedTextColor.RED));
+                        return;
+                    }
+                    player.sendMessage(Component.text("[AI] ", NamedTextColor.AQUA)
+                            .append(Component.text(entry.description(), NamedTextColor.GREEN))
+                            .append(Component.text(" (template '" + name + "')", NamedTextColor.GRAY)));
+                    startBuild(player, entry.plan(), entry.description());
+                }));
+    }
+
+    /**
+     * Stage percentiles, block counts and what is in flight right now, since startup.
+     */
+    private void showStatus(Player player) {
+        BuildEngine.Progress progress = plugin.getBuildEngine().progress(player.getUniqueId());
+        if (progress == null) {
+            boolean waiting = plugin.getRequestLimiter().hasOpenRequest(player.getUniqueId());
+            player.sendMessage(Component.text(waiting ? "Waiting for the AI to answer." : "No build in progress.",
+                    NamedTextColor.GRAY));
+            return;
+        }
+        String state;
+        if (progress.preparing()) {
+            state = "checking the ground (" + progress.received() + " blocks)";
+        } else if (progress.streaming()) {
+            state = progress.placed() + " blocks placed of " + progress.received() + " received so far, " +
+                    "the AI is still sending";
+        } else {
+            int percent = progress.received() == 0 ? 100 : (int) (100L * progress.placed() / progress.received());
+            state = progress.placed() + " of " + progress.received() + " blocks placed (" + percent + "%)";
+        }
+        if (progress.waitingForChunks()) {
+            state += ", waiting for chunks to load";
+        }
+        player.sendMessage(Component.text("Building " + progress.description() + ": " + state,
+                NamedTextColor.GREEN));
+    }
+
+    private void showStats(Player player) {
+        Metrics metrics = plugin.getMetrics();
+        Map<String, Long> errors = metrics.errors();
+        long errorCount = errors.values().stream().mapToLong(Long::longValue).sum();
+        player.sendMessage(Component.text(String.format("AI Builder: %d requests (%d from chat), %d errors%s",
+                metrics.chatRequests() + metrics.commandRequests(), metrics.chatRequests(), errorCount,
+                errors.isEmpty() ? "" : " " + errors), NamedTextColor.GREEN));
+        player.sendMessage(Component.text(String.format("  AI calls: %d sent, %d requests shared one in flight " +
+                        "(%.0f%% coalesced)", metrics.requestsSent(), metrics.requestsCoalesced(),
+                metrics.coalescingRatio() * 100), NamedTextColor.GRAY));
+
+        for (Metrics.Stage stage : Metrics.Stage.values()) {
+            Metrics.Timer timer = metrics.timer(stage);
+            if (timer.count() == 0 || stage == Metrics.Stage.TICK) {
+                continue;
+            }
+            player.sendMessage(Component.text(String.format("  %s: p50 %s, p95 %s, p99 %s, max %s (%d)",
+                    stage.key(), duration(timer.p50()), duration(timer.p95()), duration(timer.p99()),
+                    duration(timer.max()), timer.count()), NamedTextColor.GRAY));
+        }
+
+        Metrics.Timer tick = metrics.timer(Metrics.Stage.TICK);
+        long unknown = metrics.unknownMaterials().values().stream().mapToLong(Long::longValue).sum();
+        long failed = metrics.failedMaterials().values().stream().mapToLong(Long::longValue).sum();
+        player.sendMessage(Component.text(String.format("Blocks: %d placed (%.0f/s while building), %d already " +
+                        "in place, %d unknown material, %d failed. Build loop per tick: p50 %s, p99 %s, max %s",
+                metrics.blocksPlaced(), tick.count() == 0 ? 0.0 : metrics.blocksPlaced() * 20.0 / tick.count(),
+                metrics.blocksUnchanged(), unknown, failed, duration(tick.p50()), duration(tick.p99()), duration(tick.max())),
+                NamedTextColor.GRAY));
+
+        RequestLimiter limiter = plugin.getRequestLimiter();
+        UsageStats usage = plugin.getAIService().getUsageStats();
+        player.sendMessage(Component.text(String.format("Now: %d requests running, %d waiting, %d builds with " +
+                        "%d blocks to place. Tokens: %d prompt (%d cached), %d completion",
+                limiter.running(), limiter.queued(), metrics.activeBuilds(), metrics.pendingBlocks(),
+                usage.promptTokens(), usage.cachedTokens(), usage.completionTokens()), NamedTextColor.GRAY));
+    }
+
+    private static String duration(long micros) {
+        if (micros < 1000) {
+            return micros + " us";
+        }
+        if (micros < 1_000_000) {
+            return String.format("%.1f ms", micros / 1000.0);
+        }
+        return String.format("%.1f s", micros / 1_000_000.0);
+    }
+
+    private void listTemplates(Player player, String prefix) {
+        TemplateStore templates = plugin.getTemplateStore();
+        List<String> names = templates.complete(prefix);
+        if (names.isEmpty()) {
+            player.sendMessage(Component.text(prefix.isEmpty() ? "No templates saved yet." :
+                    "No templates starting with '" + prefix + "'.", NamedTextColor.GRAY));
+            return;
+        }
+        player.sendMessage(Component.text("Templates (" + templates.size() + "):", NamedTextColor.AQUA));
+        for (String name : names) {
+            TemplateStore.Info info = templates.info(name);
+            if (info != null) {
+                player.sendMessage(Component.text(" " + name, NamedTextColor.GREEN)
+                        .append(Component.text(" - " + info.description() + " (" + info.blocks() + " blocks)",
+                                NamedTextColor.GRAY)));
+            }
+        }
+    }
+
+    private void sendAlreadyWaiting(Player player) {
+        player.sendMessage(Component.text("You already have a request in progress. " +
+                "Use '/ai cancel' to stop it.", NamedTextColor.YELLOW));
     }
 
     @Override
     public @Nullable List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command,
                                                   @NotNull String alias, @NotNull String[] args) {
         if (args.length == 1) {
-            return Arrays.asList("build me a house", "build me a castle", "cancel", "clear")
+            return Arrays.asList("build me a house", "build me a castle", "cancel", "undo", "redo", "clear",
+                            "save", "place", "templates", "large", "stats", "status", "preview", "confirm", "rotate", "shift")
                     .stream().filter(s -> s.startsWith(args[0].toLowerCase())).toList();
         }
+        String sub = args[0].toLowerCase(Locale.ROOT);
+        if (args.length == 2 && (sub.equals("place") || sub.equals("save") || sub.equals("templates"))) {
+            return plugin.getTemplateStore().complete(args[1]);
+        }
+        if (sub.equals("rotate") && args.length == 2) {
+            return List.of("90", "180", "270").stream().filter(s -> s.startsWith(args[1])).toList();
+        }
+        if (sub.equals("place") && (args.length == 3 || args.length == 4)) {
+            List<String> options = new ArrayList<>(List.of("x", "z"));
+            if (args.length == 3) {
+                options.addAll(0, List.of("90", "180", "270"));
+            }
+            return options.stream().filter(s -> s.startsWith(args[args.length - 1].toLowerCase())).toList();
+        }
         return List.of();
     }
 }
@@ -2,11 +2,15 @@ package com.aibuilder;
 
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
+import org.bukkit.Location;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+
 public class AIConfigCommand implements CommandExecutor {
 
     private final AIBuilderPlugin plugin;
@@ -18,9 +22,25 @@ public class AIConfigCommand implements CommandExecutor {
     @Override
     public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command,
                              @NotNull String label, @NotNull String[] args) {
+        if (args.length == 1 && args[0].equalsIgnoreCase("budget")) {
+            showBudget(sender);
+            return true;
+        }
+        if (args.length == 1 && args[0].equalsIgnoreCase("cache")) {
+            showCache(sender);
+            return true;
+        }
+        if (args.length == 1 && args[0].equalsIgnoreCase("usage")) {
+            showUsage(sender);
+            return true;
+        }
+
         if (args.length < 2) {
             sender.sendMessage(Component.text("Usage: /aiconfig <key> <value>", NamedTextColor.YELLOW));
-            sender.sendMessage(Component.text("Keys: apikey, model, maxblocks, speed", NamedTextColor.GRAY));
+            sender.sendMessage(Component.text("Keys: apikey, model, maxblocks, speed, budget, cache", NamedTextColor.GRAY));
+            sender.sendMessage(Component.text("Also: /aiconfig usage (token and latency totals)", NamedTextColor.GRAY));
+            sender.sendMessage(Component.text("Also: /aiconfig loadtest <players> [requests] (mock/compatible backend)",
+                    NamedTextColor.GRAY));
             return true;
         }
 
@@ -50,19 +70,124 @@ public class AIConfigCommand implements CommandExecutor {
             }
             case "speed" -> {
                 try {
-                    int speed = Integer.parseInt(value);
+                    int speed = Math.max(0, Integer.parseInt(value));
                     plugin.getConfig().set("blocks-per-tick", speed);
                     plugin.saveConfig();
-                    sender.sendMessage(Component.text("Build speed set to: " + speed +
-                            " blocks/tick", NamedTextColor.GREEN));
+                    sender.sendMessage(Component.text(speed == 0
+                            ? "Build speed limit off; builds run as fast as the tick budget allows"
+                            : "Build speed limited to: " + speed + " blocks/tick per build", NamedTextColor.GREEN));
                 } catch (NumberFormatException e) {
                     sender.sendMessage(Component.text("Invalid number: " + value, NamedTextColor.RED));
                 }
             }
+            case "budget" -> {
+                try {
+                    double budget = Double.parseDouble(value);
+                    if (budget <= 0 || budget > 50) {
+                        sender.sendMessage(Component.text("Budget must be between 0 and 50 ms.", NamedTextColor.RED));
+                        return true;
+                    }
+                    plugin.getConfig().set("tick-budget-ms", budget);
+                    plugin.saveConfig();
+                    sender.sendMessage(Component.text("Build tick budget set to: " + budget +
+                            " ms/tick", NamedTextColor.GREEN));
+                } catch (NumberFormatException e) {
+                    sender.sendMessage(Component.text("Invalid number: " + value, NamedTextColor.RED));
+                }
+            }
+            case "cache" -> {
+                if (!value.equalsIgnoreCase("clear")) {
+                    sender.sendMessage(Component.text("Usage: /aiconfig cache [clear]", NamedTextColor.YELLOW));
+                    return true;
+                }
+                plugin.getStructureCache().clear().thenAccept(deleted ->
+                        plugin.getScheduling().global(() ->
+                                sender.sendMessage(Component.text("Build cache cleared (" + deleted +
+                                        " files removed).", NamedTextColor.GREEN))));
+            }
+            case "loadtest" -> runLoadTest(sender, args);
             default -> sender.sendMessage(Component.text("Unknown key: " + key +
-                    ". Use: apikey, model, maxblocks, speed", NamedTextColor.RED));
+                    ". Use: apikey, model, maxblocks, speed, budget, cache", NamedTextColor.RED));
         }
 
         return true;
     }
+
+    private void runLoadTest(CommandSender sender, String[] args) {
+        AIBackend backend = plugin.getAIService().getBackend();
+        if (backend instanceof OpenAIBackend openAI && !openAI.isCompatible()) {
+            sender.sendMessage(Component.text("Load tests only run against the mock or a compatible backend " +
+                    "(set ai-backend in config.yml).", NamedTextColor.RED));
+            return;
+        }
+        int players;
+        int requests;
+        try {
+            players = Integer.parseInt(args[1]);
+            requests = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        } catch (NumberFormatException e) {
+            sender.sendMessage(Component.text("Usage: /aiconfig loadtest <players> [requests]", NamedTextColor.YELLOW));
+            return;
+        }
+        if (players < 1 || players > 1000 || requests < 1 || requests > 100) {
+            sender.sendMessage(Component.text("Players must be 1-1000 and requests 1-100.", NamedTextColor.RED));
+            return;
+        }
+
+        Location location = sender instanceof Player player
+                ? player.getLocation() : plugin.getServer().getWorlds().get(0).getSpawnLocation();
+        Prompt base = plugin.getAIService().prompt(List.of(), location);
+        sender.sendMessage(Component.text("Load test: " + players + " players x " + requests + " requests against " +
+                backend.name() + "...", NamedTextColor.AQUA));
+        LoadTest.run(plugin, base, players, requests).thenAccept(report ->
+                plugin.getScheduling().global(() -> {
+                    sender.sendMessage(Component.text(String.format("Load test done: %d requests in %.1f s " +
+                                    "(%.1f/s), %d failed, %d rejected (queue full)", report.requests(),
+                            report.seconds(), report.requestsPerSecond(), report.failed(), report.rejected()),
+                            NamedTextColor.GREEN));
+                    sender.sendMessage(Component.text(String.format("Latency p50 %.0f ms, p95 %.0f ms, " +
+                                    "p99 %.0f ms, max %.0f ms", report.p50Millis(), report.p95Millis(),
+                            report.p99Millis(), report.maxMillis()), NamedTextColor.GRAY));
+                }));
+    }
+
+    private void showBudget(CommandSender sender) {
+        BuildEngine engine = plugin.getBuildEngine();
+        double configured = plugin.getConfig().getDouble("tick-budget-ms", 5.0);
+        double effective = engine.effectiveBudgetNanos() / 1_000_000.0;
+        sender.sendMessage(Component.text(String.format("Build budget: %.2f ms/tick configured, " +
+                        "%.2f ms/tick at current MSPT (%.1f), %d active builds", configured, effective,
+                plugin.getServer().getAverageTickTime(), engine.activeBuildCount()), NamedTextColor.GREEN));
+    }
+
+    private void showUsage(CommandSender sender) {
+        UsageStats usage = plugin.getAIService().getUsageStats();
+        sender.sendMessage(Component.text(String.format("AI usage: %d requests, %d prompt tokens " +
+                        "(%.0f%% from prompt cache), %d completion tokens", usage.requests(), usage.promptTokens(),
+                usage.cachedFraction() * 100, usage.completionTokens()), NamedTextColor.GREEN));
+        sender.sendMessage(Component.text(String.format("Average time to first token %.0f ms (streamed), " +
+                        "average request %.1f s", usage.averageFirstTokenMillis(), usage.averageTotalMillis() / 1000),
+                NamedTextColor.GRAY));
+        if (plugin.getAIService().getBackend() instanceof OpenAIBackend http) {
+            OpenAIBackend.Stats stats = http.stats();
+            sender.sendMessage(Component.text(String.format("HTTP: %d retries, %d requests paced by the rate limit " +
+                            "(%.1f s total), circuit breaker %s (opened %d times, %d requests refused)",
+                    stats.retries(), stats.throttled(), stats.throttledMillis() / 1000.0,
+                    stats.breaker().name().toLowerCase(), stats.breakerOpens(), stats.rejected()),
+                    NamedTextColor.GRAY));
+        }
+    }
+
+    private void showCache(CommandSender sender) {
+        StructureCache cache = plugin.getStructureCache();
+        cache.stats().thenAccept(stats -> plugin.getScheduling().global(() -> {
+            sender.sendMessage(Component.text(String.format("Build cache %s: %d hits (%d memory, %d disk), " +
+                            "%d misses, %.0f%% hit rate", cache.isEnabled() ? "enabled" : "disabled",
+                    stats.memoryHits() + stats.diskHits(), stats.memoryHits(), stats.diskHits(),
+                    stats.misses(), stats.hitRate() * 100), NamedTextColor.GREEN));
+            sender.sendMessage(Component.text(String.format("In memory: %d builds, %d blocks. On disk: %d builds, " +
+                            "%.1f KB. Stored this session: %d", stats.memoryEntries(), stats.memoryBlocks(),
+                    stats.diskEntries(), stats.diskBytes() / 1024.0, stats.stores()), NamedTextColor.GRAY));
+        }));
+    }
 }
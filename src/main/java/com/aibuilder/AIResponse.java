@@ -4,8 +4,13 @@ import java.util.List;
 
 /**
  * Represents a parsed response from the AI service.
+ * Builds carry individual blocks, shape primitives, or both.
  */
-public record AIResponse(Type type, String message, List<BlockPlacement> blocks) {
+public record AIResponse(Type type, String message, BlockList blocks, List<Shape> shapes) {
+
+    public AIResponse(Type type, String message, BlockList blocks) {
+        this(type, message, blocks, List.of());
+    }
 
     public enum Type {
         /** AI needs more info - asking a clarifying question */
@@ -1,26 +1,30 @@
 package com.aibuilder;
 
-import com.google.gson.*;
-import okhttp3.*;
+import com.google.gson.stream.MalformedJsonException;
 import org.bukkit.Location;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
- * Handles communication with the OpenAI API.
- * Converts natural language build requests into structured block placement instructions.
+ * Turns natural language build requests into structured block placement instructions.
+ * Owns the prompt and the parsing of the model's answer; the model itself sits behind an
+ * {@link AIBackend} chosen by {@code ai-backend}.
  */
 public class AIService {
 
     private final AIBuilderPlugin plugin;
-    private final OkHttpClient httpClient;
-    private final Gson gson = new Gson();
-
-    private static final String OPENAI_URL = "https://api.openai.com/v1/chat/completions";
+    private final AIBackend backend;
+    private final UsageStats usageStats = new UsageStats();
+    private final AtomicInteger recorded = new AtomicInteger();
 
     private static final String SYSTEM_PROMPT = """
         You are an AI building assistant inside Minecraft. Players ask you to build structures.
@@ -35,6 +39,9 @@ public class AIService {
            {
              "action": "build",
              "description": "Brief description of what you're building",
+             "shapes": [
+               {"type": "fill", "from": [0, 0, 0], "to": [6, 0, 6], "material": "COBBLESTONE"}
+             ],
              "blocks": [
                {"x": 0, "y": 0, "z": 0, "material": "OAK_PLANKS"},
                {"x": 1, "y": 0, "z": 0, "material": "OAK_PLANKS"}
@@ -45,6 +52,12 @@ public class AIService {
         - Coordinates are RELATIVE to the player's position (0,0,0 = where they stand).
         - Build in the +X and +Z direction from the player (so they can watch).
         - Start at y=0 (ground level relative to player) and build UP.
+        - List blocks bottom-up (lowest y first); they are placed in the order you list them.
+        - Put "action" and "description" first, then "shapes", then "blocks". Shapes listed after
+          "blocks" are ignored.
+        - Prefer shapes for anything larger than a few blocks; use blocks for details.
+        - Shapes are applied first, in order, then blocks. Later entries overwrite earlier ones,
+          so use blocks (or AIR) to carve doors and windows into shapes.
         - Use valid Minecraft material names (e.g., OAK_PLANKS, COBBLESTONE, GLASS, OAK_DOOR, TORCH, etc.)
         - For a simple house, include: walls, floor, roof, a door, windows, torches inside.
         - Keep builds reasonable (under 5000 blocks for a house).
@@ -52,6 +65,14 @@ public class AIService {
         - For doors, use OAK_DOOR (the bottom half - the game handles placement).
         - ALWAYS respond with valid JSON only. No markdown, no code fences, just JSON.
         
+        SHAPES (all coordinates relative, ranges inclusive):
+        - {"type": "fill", "from": [x,y,z], "to": [x,y,z], "material": M} - solid box
+        - {"type": "hollow_box", "from": [x,y,z], "to": [x,y,z], "material": M} - walls, floor and ceiling
+        - {"type": "line", "from": [x,y,z], "to": [x,y,z], "material": M}
+        - {"type": "cylinder", "center": [x,y,z], "radius": r, "height": h, "hollow": true, "material": M} - vertical, base at y
+        - {"type": "sphere", "center": [x,y,z], "radius": r, "hollow": true, "material": M}
+        - {"type": "repeat", "count": n, "step": [dx,dy,dz], "shape": {...}} - stamp a shape n times
+        
         MATERIAL REFERENCE (use exact names):
         - Wood: OAK_PLANKS, SPRUCE_PLANKS, BIRCH_PLANKS, OAK_LOG, SPRUCE_LOG
         - Stone: COBBLESTONE, STONE, STONE_BRICKS, SMOOTH_STONE
@@ -71,140 +92,434 @@ public class AIService {
         - Leave a 1-block gap for the door with OAK_DOOR
         """;
 
+    // First step of a large build; %d is large-build-max-regions
+    private static final String LAYOUT_PROMPT = """
+        You are the lead architect for a large build inside Minecraft. Several builders will each
+        build one part of it at the same time, so split the player's request into independent
+        regions (for example: keep, curtain walls, each tower, gatehouse, courtyard, houses).
+        
+        Respond with JSON only, no markdown:
+        {
+          "action": "layout",
+          "description": "Brief description of the whole build",
+          "regions": [
+            {"name": "keep", "from": [10, 0, 10], "to": [24, 20, 24], "priority": 2,
+             "brief": "What to build in this region: size, materials, style, entrances"}
+          ]
+        }
+        
+        RULES:
+        - Use between 2 and %d regions. Make them similar in size; the build is only as fast as
+          the largest region.
+        - Coordinates are RELATIVE to the player (0,0,0 = where they stand). Build in the +X and
+          +Z direction and start at y=0.
+        - Each region is a box (from/to inclusive). Boxes may touch but should not overlap; where
+          they do, the region with the higher priority wins the shared blocks.
+        - Keep each region under about 5000 blocks of structure.
+        - Briefs must make the parts fit together: shared materials, wall heights, where walls
+          meet towers, where doors and paths line up.
+        - If the request is too vague to plan, respond {"action": "clarify", "message": "your question"}.
+        """;
+
     public AIService(AIBuilderPlugin plugin) {
         this.plugin = plugin;
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(120, TimeUnit.SECONDS)  // AI can take a while for large builds
-                .writeTimeout(30, TimeUnit.SECONDS)
-                .build();
+        this.backend = AIBackend.fromConfig(plugin);
+        plugin.getLogger().info("AI backend: " + backend.name());
+    }
+
+    /**
+     * Assemble the prompt for a request. Reads the block the player stands on for the biome,
+     * so call it on the main thread.
+     */
+    public Prompt prompt(List<ConversationMessage> history, Location playerLocation) {
+        String context = "Player is at coordinates: x=" + playerLocation.getBlockX() +
+                " y=" + playerLocation.getBlockY() +
+                " z=" + playerLocation.getBlockZ() +
+                " in biome: " + playerLocation.getBlock().getBiome().getKey().value() +
+                "\nRemember: your block coordinates should be RELATIVE offsets from the player position.";
+        return new Prompt(SYSTEM_PROMPT, history, context);
+    }
+
+    /**
+     * {@code prompt} with a {@link SiteSurvey} description of the surroundings added to its
+     * context; unchanged if {@code surroundings} is null.
+     */
+    public Prompt withSurroundings(Prompt prompt, String surroundings) {
+        if (surroundings == null || surroundings.isEmpty()) {
+            return prompt;
+        }
+        return new Prompt(prompt.system(), prompt.history(), prompt.context() + "\n\n" + surroundings +
+                "\nFit the build to this site: level the ground under it or build on it as it is, avoid water, " +
+                "lava and trees where you can, and do not build into existing structures.");
+    }
+
+    /**
+     * Prompt for the first step of a large build: split the request into regions, with the same
+     * context as {@code base}.
+     */
+    public Prompt layoutPrompt(Prompt base) {
+        int maxRegions = plugin.getConfig().getInt("large-build-max-regions", 8);
+        return new Prompt(LAYOUT_PROMPT.formatted(maxRegions), base.history(), base.context());
+    }
+
+    /**
+     * Prompt for one region of a large build. Keeps the normal system prompt, so every region
+     * request shares its cached prefix, and describes the region and its neighbours after it.
+     */
+    public Prompt regionPrompt(Prompt base, BuildLayout layout, int index) {
+        BuildLayout.Region region = layout.regions().get(index);
+        StringBuilder context = new StringBuilder(base.context());
+        context.append("\n\nYou are building ONE part of a larger build: ").append(layout.message())
+                .append("\nYour part is '").append(region.name()).append("': ").append(region.brief())
+                .append("\nPlace blocks only inside the box ").append(region.box())
+                .append(" (relative coordinates, inclusive). Build this part completely; do not ask questions.")
+                .append("\nThe other parts are built separately, do not build them:");
+        for (BuildLayout.Region other : layout.regions()) {
+            if (other != region) {
+                context.append("\n- ").append(other.name()).append(' ').append(other.box());
+            }
+        }
+        return new Prompt(SYSTEM_PROMPT, base.history(), context.toString());
     }
 
     /**
      * Send a message to the AI and get a response.
-     * Returns a CompletableFuture so we don't block the main thread.
+     * Returns a CompletableFuture so we don't block the main thread. The call runs through the
+     * request limiter under {@code ticket}; cancelling the ticket aborts it.
      */
-    public CompletableFuture<AIResponse> chat(List<ConversationMessage> history, Location playerLocation) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // Environment variable takes priority, then config.yml
-                String apiKey = System.getenv("OPENAI_API_KEY");
-                if (apiKey == null || apiKey.isEmpty()) {
-                    apiKey = plugin.getConfig().getString("openai-api-key", "");
-                }
-                String model = plugin.getConfig().getString("openai-model", "gpt-4o");
+    public CompletableFuture<AIResponse> chat(List<ConversationMessage> history, Location playerLocation,
+                                              RequestLimiter.Ticket ticket) {
+        return chat(prompt(history, playerLocation), ticket);
+    }
 
-                if (apiKey.isEmpty() || apiKey.equals("YOUR_API_KEY_HERE")) {
-                    return new AIResponse(AIResponse.Type.ERROR,
-                            "No API key configured! Set OPENAI_API_KEY env var or use /aiconfig apikey <key>", null);
-                }
+    public CompletableFuture<AIResponse> chat(Prompt prompt, RequestLimiter.Ticket ticket) {
+        return complete(prompt, ticket, ResponseParser::parseContent, response -> response);
+    }
 
-                // Build messages array
-                JsonArray messages = new JsonArray();
-
-                // System message with context about player location
-                JsonObject systemMsg = new JsonObject();
-                systemMsg.addProperty("role", "system");
-                systemMsg.addProperty("content", SYSTEM_PROMPT +
-                        "\n\nPlayer is at coordinates: x=" + playerLocation.getBlockX() +
-                        " y=" + playerLocation.getBlockY() +
-                        " z=" + playerLocation.getBlockZ() +
-                        " in biome: " + playerLocation.getBlock().getBiome().getKey().value() +
-                        "\nRemember: your block coordinates should be RELATIVE offsets from the player position.");
-                messages.add(systemMsg);
-
-                // Conversation history
-                for (ConversationMessage msg : history) {
-                    JsonObject m = new JsonObject();
-                    m.addProperty("role", msg.role());
-                    m.addProperty("content", msg.content());
-                    messages.add(m);
-                }
+    /**
+     * Ask for the layout of a large build (see {@link #layoutPrompt}).
+     */
+    public CompletableFuture<BuildLayout> layout(Prompt prompt, RequestLimiter.Ticket ticket) {
+        return complete(prompt, ticket, ResponseParser::parseLayout, BuildLayout::of);
+    }
 
-                // Build request
-                JsonObject requestBody = new JsonObject();
-                requestBody.addProperty("model", model);
-                requestBody.add("messages", messages);
-                requestBody.addProperty("temperature", 0.7);
-                requestBody.addProperty("max_tokens", 16000);
-
-                Request request = new Request.Builder()
-                        .url(OPENAI_URL)
-                        .addHeader("Authorization", "Bearer " + apiKey)
-                        .addHeader("Content-Type", "application/json")
-                        .post(RequestBody.create(
-                                gson.toJson(requestBody),
-                                MediaType.parse("application/json")))
-                        .build();
-
-                try (Response response = httpClient.newCall(request).execute()) {
-                    if (!response.isSuccessful()) {
-                        String errorBody = response.body() != null ? response.body().string() : "unknown";
-                        plugin.getLogger().warning("OpenAI API error: " + response.code() + " - " + errorBody);
-                        return new AIResponse(AIResponse.Type.ERROR,
-                                "AI service error (HTTP " + response.code() + "). Check server logs.", null);
-                    }
-
-                    String responseBody = response.body().string();
-                    JsonObject json = JsonParser.parseString(responseBody).getAsJsonObject();
-                    String content = json.getAsJsonArray("choices")
-                            .get(0).getAsJsonObject()
-                            .getAsJsonObject("message")
-                            .get("content").getAsString()
-                            .trim();
-
-                    // Strip markdown code fences if present
-                    if (content.startsWith("```")) {
-                        content = content.replaceAll("^```(?:json)?\\s*", "").replaceAll("\\s*```$", "");
-                    }
-
-                    return parseAIResponse(content);
+    /**
+     * Run a non-streamed request and parse the answer with {@code parse}; failures become an
+     * error {@link AIResponse} passed through {@code failure}.
+     */
+    private <T> CompletableFuture<T> complete(Prompt prompt, RequestLimiter.Ticket ticket,
+                                              Function<String, T> parse, Function<AIResponse, T> failure) {
+        return plugin.getRequestLimiter().submit(ticket, () -> {
+            try {
+                long started = System.nanoTime();
+                AtomicReference<TokenUsage> usage = new AtomicReference<>();
+                String content = backend.complete(prompt, ticket, usage::set);
+                recordUsage("complete", usage.get(), -1, System.nanoTime() - started);
+                if (content == null) {
+                    return failure.apply(new AIResponse(AIResponse.Type.ERROR,
+                            "Unexpected AI response. Try again.", null));
                 }
+                recordResponse(content);
+                long parseStarted = System.nanoTime();
+                T parsed = parse.apply(content);
+                plugin.getMetrics().record(Metrics.Stage.PARSE, System.nanoTime() - parseStarted);
+                return parsed;
+            } catch (AIBackend.NotConfiguredException e) {
+                return failure.apply(notConfiguredResponse(e));
+            } catch (AIBackend.HttpException e) {
+                return failure.apply(httpErrorResponse(e));
+            } catch (AIBackend.UnavailableException e) {
+                return failure.apply(unavailableResponse(e));
+            } catch (MalformedJsonException e) {
+                plugin.getMetrics().error("parse");
+                plugin.getLogger().severe("AI response parsing error: " + e.getMessage());
+                return failure.apply(new AIResponse(AIResponse.Type.ERROR,
+                        "Failed to understand AI response. Try again with a simpler request.", null));
             } catch (IOException e) {
+                if (ticket.isCancelled()) {
+                    return failure.apply(cancelledResponse());
+                }
+                plugin.getMetrics().error("network");
                 plugin.getLogger().severe("Failed to contact AI service: " + e.getMessage());
-                return new AIResponse(AIResponse.Type.ERROR,
-                        "Failed to contact AI service. Check your internet connection.", null);
+                return failure.apply(new AIResponse(AIResponse.Type.ERROR,
+                        "Failed to contact AI service. Check your internet connection.", null));
             } catch (Exception e) {
+                plugin.getMetrics().error("parse");
                 plugin.getLogger().severe("AI response parsing error: " + e.getMessage());
                 e.printStackTrace();
-                return new AIResponse(AIResponse.Type.ERROR,
-                        "Failed to understand AI response. Try again with a simpler request.", null);
+                return failure.apply(new AIResponse(AIResponse.Type.ERROR,
+                        "Failed to understand AI response. Try again with a simpler request.", null));
             }
         });
     }
 
-    private AIResponse parseAIResponse(String content) {
-        try {
-            JsonObject json = JsonParser.parseString(content).getAsJsonObject();
-            String action = json.get("action").getAsString();
-
-            if ("clarify".equals(action)) {
-                String message = json.get("message").getAsString();
-                return new AIResponse(AIResponse.Type.CLARIFY, message, null);
-            } else if ("build".equals(action)) {
-                String description = json.has("description") ?
-                        json.get("description").getAsString() : "Building structure";
-                JsonArray blocksJson = json.getAsJsonArray("blocks");
-
-                List<BlockPlacement> blocks = new ArrayList<>();
-                for (JsonElement elem : blocksJson) {
-                    JsonObject b = elem.getAsJsonObject();
-                    blocks.add(new BlockPlacement(
-                            b.get("x").getAsInt(),
-                            b.get("y").getAsInt(),
-                            b.get("z").getAsInt(),
-                            b.get("material").getAsString()
-                    ));
+    /**
+     * Streaming variant of {@link #chat}. Streams the answer and pushes each block or shape into
+     * {@code queue} as soon as it has been fully received. {@code onBuildStart} is called once,
+     * from the request thread, with the build description when the first one arrives.
+     *
+     * The returned future completes when the stream ends. For builds, the queue is closed by then
+     * (marked truncated if the stream was cut off) and the response carries no block list.
+     */
+    public CompletableFuture<AIResponse> chatStreaming(List<ConversationMessage> history, Location playerLocation,
+                                                       RequestLimiter.Ticket ticket, PlacementQueue queue,
+                                                       Consumer<String> onBuildStart) {
+        return chatStreaming(prompt(history, playerLocation), ticket, queue, onBuildStart);
+    }
+
+    public CompletableFuture<AIResponse> chatStreaming(Prompt prompt, RequestLimiter.Ticket ticket,
+                                                       PlacementQueue queue, Consumer<String> onBuildStart) {
+        return chatStreaming(prompt, ticket, queue, plugin.getConfig().getInt("max-blocks", 10000), onBuildStart);
+    }
+
+    /**
+     * As above, refusing shapes that would take the queue past {@code maxBlocks}. Blocks beyond
+     * {@code max-build-size} are clipped, as when compiling.
+     */
+    public CompletableFuture<AIResponse> chatStreaming(Prompt prompt, RequestLimiter.Ticket ticket,
+                                                       PlacementQueue queue, int maxBlocks,
+                                                       Consumer<String> onBuildStart) {
+        int maxExtent = plugin.getConfig().getInt("max-build-size", 256);
+        return plugin.getRequestLimiter().submit(ticket, () -> {
+            BlockStreamParser parser = new BlockStreamParser(
+                    (x, y, z, material) -> queue.add(x, y, z, material, maxExtent), shape -> {
+                        if (!queue.add(shape, maxBlocks, maxExtent)) {
+                            plugin.getLogger().warning("Dropped a " + shape.volume() + "-block shape over max-blocks");
+                        }
+                    });
+            StreamState state = new StreamState(parser, queue, ticket, onBuildStart, isRecording());
+            boolean streamFailed = false;
+
+            try {
+                backend.stream(prompt, ticket, state);
+            } catch (AIBackend.NotConfiguredException e) {
+                queue.close();
+                return notConfiguredResponse(e);
+            } catch (AIBackend.HttpException e) {
+                queue.close();
+                return httpErrorResponse(e);
+            } catch (AIBackend.UnavailableException e) {
+                queue.close();
+                return unavailableResponse(e);
+            } catch (IOException | RuntimeException e) {
+                if (e instanceof IOException && state.firstToken < 0 && !ticket.isCancelled()) {
+                    // Nothing arrived, so the request itself failed
+                    queue.close();
+                    plugin.getMetrics().error("network");
+                    plugin.getLogger().severe("Failed to contact AI service: " + e.getMessage());
+                    return new AIResponse(AIResponse.Type.ERROR,
+                            "Failed to contact AI service. Check your internet connection.", null);
+                }
+                if (!ticket.isCancelled()) {
+                    plugin.getLogger().warning("AI stream interrupted: " + e.getMessage());
+                }
+                streamFailed = true;
+            }
+            recordUsage("streamed", state.usage,
+                    state.firstToken >= 0 ? state.firstToken - state.started : -1,
+                    System.nanoTime() - state.started);
+            if (state.firstToken >= 0) {
+                plugin.getMetrics().record(Metrics.Stage.PARSE, state.parseNanos);
+            }
+
+            if (ticket.isCancelled()) {
+                queue.cancel();
+                queue.close();
+                return cancelledResponse();
+            }
+            if (state.content != null && !streamFailed) {
+                recordResponse(state.content.toString());
+            }
+
+            String finishReason = state.finishReason;
+            boolean cutOff = isCutOff(streamFailed, finishReason, parser);
+
+            if (parser.lateShapeCount() > 0) {
+                plugin.getLogger().warning("Ignored " + parser.lateShapeCount() + " shapes sent after the blocks");
+            }
+            if (parser.hasEntries()) {
+                // Blocks are already flowing into the build; just tell it whether more were expected
+                if (cutOff && !queue.isCancelled()) {
+                    plugin.getMetrics().error("truncated");
+                    plugin.getLogger().warning("AI stream ended early after " + parser.blockCount() +
+                            " blocks and " + parser.shapeCount() + " shapes (finish_reason=" + finishReason + ")");
+                    queue.closeTruncated();
+                } else {
+                    queue.close();
                 }
+                return new AIResponse(AIResponse.Type.BUILD, parser.description(), null);
+            }
 
-                return new AIResponse(AIResponse.Type.BUILD, description, blocks);
-            } else {
+            queue.close();
+            if (parser.isPlainText() && !streamFailed) {
+                // AI answered in plain text instead of JSON, treat it as a clarification
+                return new AIResponse(AIResponse.Type.CLARIFY, parser.outsideText(), null);
+            }
+            if (cutOff) {
+                plugin.getMetrics().error("truncated");
                 return new AIResponse(AIResponse.Type.ERROR,
-                        "Unexpected AI response. Try again.", null);
+                        "The AI response was cut off before any blocks arrived. Try again.", null);
+            }
+            if ("clarify".equals(parser.action()) && parser.message() != null) {
+                return new AIResponse(AIResponse.Type.CLARIFY, parser.message(), null);
+            }
+            if ("build".equals(parser.action())) {
+                return new AIResponse(AIResponse.Type.BUILD, parser.description(), null);
+            }
+            return new AIResponse(AIResponse.Type.ERROR, "Unexpected AI response. Try again.", null);
+        });
+    }
+
+    /**
+     * Feeds a streamed answer to the parser and remembers what the stream has told us so far:
+     * the finish_reason, the usage, and when the first content arrived. Outlives the stream so
+     * the state is still there if it fails part way.
+     */
+    /**
+     * Whether a streamed answer ended before the model finished it: the connection dropped, the
+     * model hit its token limit, or the JSON never closed.
+     */
+    static boolean isCutOff(boolean streamFailed, String finishReason, BlockStreamParser parser) {
+        return streamFailed || "length".equals(finishReason) || !parser.isComplete();
+    }
+
+    private static final class StreamState implements AIBackend.StreamListener {
+        private final BlockStreamParser parser;
+        private final PlacementQueue queue;
+        private final RequestLimiter.Ticket ticket;
+        private final Consumer<String> onBuildStart;
+        // The whole answer, only kept when it is going to be recorded
+        private final StringBuilder content;
+
+        final long started = System.nanoTime();
+        long firstToken = -1;
+        // Time spent in the parser, which runs interleaved with the stream
+        long parseNanos = 0;
+        boolean buildStarted = false;
+        String finishReason;
+        TokenUsage usage;
+
+        StreamState(BlockStreamParser parser, PlacementQueue queue, RequestLimiter.Ticket ticket,
+                    Consumer<String> onBuildStart, boolean keepContent) {
+            this.parser = parser;
+            this.queue = queue;
+            this.ticket = ticket;
+            this.onBuildStart = onBuildStart;
+            this.content = keepContent ? new StringBuilder() : null;
+        }
+
+        @Override
+        public void onContent(String delta) {
+            if (firstToken < 0) {
+                firstToken = System.nanoTime();
             }
-        } catch (JsonSyntaxException e) {
-            // If AI returned plain text instead of JSON, treat it as a clarification
-            return new AIResponse(AIResponse.Type.CLARIFY, content, null);
+            if (content != null) {
+                content.append(delta);
+            }
+            long parseStarted = System.nanoTime();
+            parser.feed(delta);
+            parseNanos += System.nanoTime() - parseStarted;
+            if (!buildStarted && parser.hasEntries()) {
+                buildStarted = true;
+                onBuildStart.accept(parser.description());
+            }
+        }
+
+        @Override
+        public void onFinish(String finishReason) {
+            this.finishReason = finishReason;
+        }
+
+        @Override
+        public void onUsage(TokenUsage usage) {
+            this.usage = usage;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return queue.isCancelled() || ticket.isCancelled();
+        }
+    }
+
+    /**
+     * Add a finished request to the usage totals and log it.
+     */
+    private void recordUsage(String kind, TokenUsage usage, long firstTokenNanos, long totalNanos) {
+        usageStats.record(usage, firstTokenNanos, totalNanos);
+        plugin.getMetrics().record(Metrics.Stage.RESPONSE, totalNanos);
+        if (firstTokenNanos >= 0) {
+            plugin.getMetrics().record(Metrics.Stage.FIRST_TOKEN, firstTokenNanos);
+        }
+        StringBuilder line = new StringBuilder("AI ").append(kind).append(" request: ");
+        if (usage != null) {
+            int percent = usage.promptTokens() == 0 ? 0 : usage.cachedTokens() * 100 / usage.promptTokens();
+            line.append(usage.promptTokens()).append(" prompt tokens (").append(usage.cachedTokens())
+                    .append(" cached, ").append(percent).append("%), ")
+                    .append(usage.completionTokens()).append(" completion; ");
+        } else {
+            line.append("no usage reported; ");
+        }
+        if (firstTokenNanos >= 0) {
+            line.append(String.format("first token %.0f ms, ", firstTokenNanos / 1_000_000.0));
+        }
+        line.append(String.format("total %.1f s", totalNanos / 1_000_000_000.0));
+        plugin.getLogger().info(line.toString());
+    }
+
+    /**
+     * With {@code mock-record} on, real answers are saved for {@link MockBackend} to replay.
+     */
+    private boolean isRecording() {
+        return plugin.getConfig().getBoolean("mock-record", false) && !(backend instanceof MockBackend);
+    }
+
+    private void recordResponse(String content) {
+        if (!isRecording()) {
+            return;
+        }
+        Path dir = MockBackend.responsesDir(plugin);
+        String name = "recorded-" + System.currentTimeMillis() + "-" + recorded.incrementAndGet() + ".json";
+        try {
+            Files.createDirectories(dir);
+            Files.writeString(dir.resolve(name), content, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to record AI response: " + e.getMessage());
+        }
+    }
+
+    public UsageStats getUsageStats() {
+        return usageStats;
+    }
+
+    public AIBackend getBackend() {
+        return backend;
+    }
+
+    private AIResponse notConfiguredResponse(AIBackend.NotConfiguredException e) {
+        plugin.getMetrics().error("not_configured");
+        return new AIResponse(AIResponse.Type.ERROR, e.getMessage(), null);
+    }
+
+    private AIResponse cancelledResponse() {
+        plugin.getMetrics().error("cancelled");
+        return new AIResponse(AIResponse.Type.ERROR, "Request cancelled.", null);
+    }
+
+    private AIResponse unavailableResponse(AIBackend.UnavailableException e) {
+        plugin.getMetrics().error("unavailable");
+        long seconds = Math.max(1, (e.retryInMillis() + 999) / 1000);
+        return new AIResponse(AIResponse.Type.ERROR,
+                "The AI service is having problems. Try again in " + seconds + " s.", null);
+    }
+
+    private AIResponse httpErrorResponse(AIBackend.HttpException e) {
+        plugin.getMetrics().error(e.code() == 429 ? "rate_limited" : "http");
+        plugin.getLogger().warning("AI backend error (" + backend.name() + "): " + e.getMessage());
+        if (e.code() == 429) {
+            return new AIResponse(AIResponse.Type.ERROR,
+                    "The AI service is busy (rate limited). Try again in a minute.", null);
         }
+        return new AIResponse(AIResponse.Type.ERROR,
+                "AI service error (HTTP " + e.code() + "). Check server logs.", null);
     }
 }
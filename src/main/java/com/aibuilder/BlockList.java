@@ -0,0 +1,71 @@
+package com.aibuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed block placements in primitive form: coordinates in parallel int arrays and
+ * material names interned into a small table, so a 10k-block response costs a handful
+ * of arrays instead of one object per block.
+ */
+public final class BlockList {
+
+    private int[] xs;
+    private int[] ys;
+    private int[] zs;
+    private short[] names;
+    private int size = 0;
+
+    private final List<String> nameTable = new ArrayList<>();
+    private final Map<String, Integer> nameIndex = new HashMap<>();
+
+    public BlockList() {
+        this(256);
+    }
+
+    public BlockList(int capacity) {
+        int cap = Math.max(capacity, 16);
+        xs = new int[cap];
+        ys = new int[cap];
+        zs = new int[cap];
+        names = new short[cap];
+    }
+
+    public void add(int x, int y, int z, String material) {
+        Integer name = nameIndex.get(material);
+        if (name == null) {
+            if (nameTable.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many distinct materials");
+            }
+            name = nameTable.size();
+            nameTable.add(material);
+            nameIndex.put(material, name);
+        }
+        if (size == xs.length) {
+            int grown = size * 2;
+            xs = Arrays.copyOf(xs, grown);
+            ys = Arrays.copyOf(ys, grown);
+            zs = Arrays.copyOf(zs, grown);
+            names = Arrays.copyOf(names, grown);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        zs[size] = z;
+        names[size] = (short) (int) name;
+        size++;
+    }
+
+    public int size() { return size; }
+    public int x(int i) { return xs[i]; }
+    public int y(int i) { return ys[i]; }
+    public int z(int i) { return zs[i]; }
+
+    /** Index into {@link #materialNames()} for block {@code i}. */
+    public int nameIndex(int i) { return names[i]; }
+
+    /** Distinct material names, in order of first use. */
+    public List<String> materialNames() { return nameTable; }
+}
@@ -0,0 +1,267 @@
+package com.aibuilder;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.function.Consumer;
+
+/**
+ * Incremental parser for a build response that arrives in pieces over a stream.
+ * Each entry of the top-level "shapes" and "blocks" arrays is handed on as soon as its
+ * closing brace arrives; blocks are read straight from the buffered entry into primitives,
+ * without building a JSON tree or an object per block. The top-level fields (action, message, description)
+ * are picked up as they complete, from a small skeleton with both arrays elided.
+ *
+ * Shapes must come before blocks, so blocks can carve into them; the prompt asks for that
+ * order. A "shapes" array that arrives after "blocks" is ignored (see {@link #lateShapeCount}),
+ * as {@link ResponseParser} does for a whole response, so both paths build the same thing.
+ *
+ * Text outside the JSON object (code fences, or a plain-text answer) is collected
+ * separately, so fenced output needs no regex stripping.
+ */
+public class BlockStreamParser {
+
+    /**
+     * Receives each block as it completes.
+     */
+    public interface BlockSink {
+        void accept(int x, int y, int z, String material);
+    }
+
+    private final BlockSink onBlock;
+    private final Consumer<Shape> onShape;
+
+    private final StringBuilder skeleton = new StringBuilder();
+    private final StringBuilder outside = new StringBuilder();
+    private final StringBuilder element = new StringBuilder();
+    private final ElementReader elementReader = new ElementReader();
+
+    private int depth = 0;
+    private boolean inString = false;
+    private boolean escaped = false;
+    private boolean objectDone = false;
+
+    // Depth of the "blocks" or "shapes" array while we are inside it, -1 otherwise
+    private int blocksDepth = -1;
+    private boolean inShapes = false;
+    // Set once a "blocks" array has started; shapes after that are ignored
+    private boolean blocksSeen = false;
+    private boolean lateShapes = false;
+    private int lateShapeCount = 0;
+
+    // Top-level key/value tracking
+    private int stringStart = -1;
+    private String lastKey;
+    private boolean expectingValue = false;
+
+    private String action;
+    private String message;
+    private String description;
+    private int blockCount = 0;
+    private int shapeCount = 0;
+    private int malformed = 0;
+
+    public BlockStreamParser(BlockSink onBlock, Consumer<Shape> onShape) {
+        this.onBlock = onBlock;
+        this.onShape = onShape;
+    }
+
+    public void feed(CharSequence chunk) {
+        for (int i = 0; i < chunk.length(); i++) {
+            accept(chunk.charAt(i));
+        }
+    }
+
+    private void accept(char c) {
+        if (objectDone) {
+            return; // trailing fence or whitespace
+        }
+        if (depth == 0 && c != '{') {
+            outside.append(c);
+            return;
+        }
+
+        if (inString) {
+            append(c);
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '"') {
+                inString = false;
+                if (depth == 1) {
+                    topLevelString(skeleton.substring(stringStart));
+                }
+            }
+            return;
+        }
+
+        switch (c) {
+            case '"' -> {
+                if (depth == 1) {
+                    stringStart = skeleton.length();
+                }
+                inString = true;
+                append(c);
+            }
+            case '{', '[' -> {
+                depth++;
+                if (c == '[' && depth == 2 && blocksDepth < 0 && expectingValue
+                        && ("blocks".equals(lastKey) || "shapes".equals(lastKey))) {
+                    blocksDepth = depth;
+                    inShapes = "shapes".equals(lastKey);
+                    lateShapes = inShapes && blocksSeen;
+                    blocksSeen |= !inShapes;
+                    skeleton.append('[');
+                } else {
+                    append(c);
+                }
+            }
+            case '}', ']' -> {
+                if (c == ']' && depth == blocksDepth) {
+                    skeleton.append(']');
+                    blocksDepth = -1;
+                    depth--;
+                    return;
+                }
+                append(c);
+                depth--;
+                if (c == '}' && blocksDepth > 0 && depth == blocksDepth) {
+                    emitElement();
+                }
+                if (depth == 0) {
+                    objectDone = true;
+                }
+            }
+            case ':' -> {
+                if (depth == 1) {
+                    expectingValue = true;
+                }
+                append(c);
+            }
+            case ',' -> {
+                if (depth == 1) {
+                    expectingValue = false;
+                }
+                append(c);
+            }
+            default -> append(c);
+        }
+    }
+
+    private void append(char c) {
+        if (blocksDepth < 0) {
+            skeleton.append(c);
+        } else if (depth > blocksDepth) {
+            element.append(c);
+        }
+        // Separators between block entries are dropped
+    }
+
+    private void topLevelString(String raw) {
+        String value = JsonParser.parseString(raw).getAsString();
+        if (!expectingValue) {
+            lastKey = value;
+            return;
+        }
+        if (lastKey == null) {
+            return;
+        }
+        switch (lastKey) {
+            case "action" -> action = value;
+            case "message" -> message = value;
+            case "description" -> description = value;
+            default -> { }
+        }
+    }
+
+    private void emitElement() {
+        if (inShapes && lateShapes) {
+            lateShapeCount++;
+            element.setLength(0);
+            return;
+        }
+        elementReader.rewind();
+        JsonReader reader = new JsonReader(elementReader);
+        try {
+            if (inShapes) {
+                // Few and varied, so a tree is fine here
+                Shape shape = Shape.fromJson(JsonParser.parseReader(reader).getAsJsonObject());
+                shapeCount++;
+                onShape.accept(shape);
+                return;
+            }
+            int x = 0, y = 0, z = 0;
+            String material = null;
+            int seen = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "x" -> { x = reader.nextInt(); seen |= 1; }
+                    case "y" -> { y = reader.nextInt(); seen |= 2; }
+                    case "z" -> { z = reader.nextInt(); seen |= 4; }
+                    case "material" -> material = reader.nextString();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (seen != 7 || material == null) {
+                malformed++;
+                return;
+            }
+            blockCount++;
+            onBlock.accept(x, y, z, material);
+        } catch (IOException | RuntimeException e) {
+            malformed++;
+        } finally {
+            element.setLength(0);
+        }
+    }
+
+    /**
+     * Reads the buffered entry in place, so it isn't copied into a String first.
+     */
+    private final class ElementReader extends Reader {
+        private int position;
+
+        void rewind() {
+            position = 0;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            int n = Math.min(length, element.length() - position);
+            if (n <= 0) {
+                return -1;
+            }
+            element.getChars(position, position + n, buffer, offset);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** True once the top-level JSON object has been closed. */
+    public boolean isComplete() { return objectDone; }
+
+    /** True if the response so far is plain text rather than JSON. */
+    public boolean isPlainText() { return skeleton.isEmpty(); }
+
+    public String action() { return action; }
+    public String message() { return message; }
+    public String description() { return description != null ? description : "Building structure"; }
+    public String outsideText() { return outside.toString().trim(); }
+    public int blockCount() { return blockCount; }
+    public int shapeCount() { return shapeCount; }
+    /** Shapes ignored for arriving after the blocks. */
+    public int lateShapeCount() { return lateShapeCount; }
+
+    /** True once at least one block or shape has been handed on. */
+    public boolean hasEntries() { return blockCount > 0 || shapeCount > 0; }
+    public int malformedCount() { return malformed; }
+}
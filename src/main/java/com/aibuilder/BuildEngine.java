@@ -1,115 +1,635 @@
 package com.aibuilder;
 
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
 import org.bukkit.Location;
-import org.bukkit.Material;
-import org.bukkit.block.Block;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
-import org.bukkit.scheduler.BukkitRunnable;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntConsumer;
 
 /**
  * Handles the actual block placement in the world.
  * Places blocks gradually (not all at once) to avoid lag and for visual effect.
+ *
+ * All active builds share one scheduler task on the global region thread (the main thread on
+ * Paper), which owns every build's bookkeeping; calls from other threads are passed to it.
+ * Each tick the task gets a nanosecond budget ({@code tick-budget-ms}), shrunk automatically
+ * when the server's MSPT climbs, and splits it across builds by weight in round-robin order.
+ * Where the writes themselves happen is up to each build's {@link PlacementExecutor}: inside
+ * that budget on Paper, on the owning region threads on Folia.
+ *
+ * Builds never load chunks on the main thread: {@link ChunkLoader} fetches the chunks ahead of
+ * each build asynchronously and holds them, and a build whose next block is in a chunk that
+ * hasn't arrived yet passes its turn until it has.
+ *
+ * Compiled builds are checkpointed to a {@link BuildJournal} every
+ * {@code build-journal-sync-ticks}, and {@link #shutdown} saves where each one got to, so
+ * {@link #resumeSaved} can carry on after a restart or crash.
  */
 public class BuildEngine {
 
+    // Start shrinking the budget once the average tick exceeds this
+    private static final double MSPT_SOFT_LIMIT = 35.0;
+    private static final double MSPT_HARD_LIMIT = 50.0;
+    // Never go below this fraction of the budget, so builds always make progress
+    private static final double MIN_BUDGET_FRACTION = 0.1;
+    // Blocks handed to the backend between clock checks
+    private static final int STEP_BLOCKS = 32;
+    // Blocks handed to an asynchronous executor per tick when blocks-per-tick is off
+    private static final int ASYNC_BATCH_BLOCKS = 1024;
+
     private final AIBuilderPlugin plugin;
-    private final Map<UUID, BukkitRunnable> activeBuilds = new HashMap<>();
+    private final ChunkLoader chunkLoader;
+    private final BuildJournal buildJournal;
+    // Concurrent so other threads can ask about builds; only the global region thread changes them
+    private final Map<UUID, BuildJob> activeBuilds = new ConcurrentHashMap<>();
+    // Each player's last finished build, for /ai save
+    private final Map<UUID, StructureCache.Entry> lastBuilds = new ConcurrentHashMap<>();
+    // Builds waiting for their terrain pre-pass; the entry tells a stale result from the current one
+    private final Map<UUID, Preparing> preparing = new ConcurrentHashMap<>();
+    private ScheduledTask schedulerTask;
+    private int rotation = 0;
+    private int ticks = 0;
+    private long lastBudgetNanos = 0;
 
     public BuildEngine(AIBuilderPlugin plugin) {
         this.plugin = plugin;
+        this.chunkLoader = new ChunkLoader(plugin);
+        this.buildJournal = new BuildJournal(plugin, plugin.getScheduling().async());
+    }
+
+    /**
+     * Where a player's build is, for {@code /ai status}. {@code received} grows while the AI is
+     * still {@code streaming}; {@code preparing} builds haven't started placing yet.
+     */
+    public record Progress(String description, int placed, int received, boolean streaming, boolean preparing,
+                           boolean waitingForChunks) {
+    }
+
+    private record Preparing(String description, int blocks) {
     }
 
     /**
-     * Start building a structure from a list of block placements.
+     * Start building a compiled plan (see {@link PlanCompiler}).
      * Blocks are placed gradually over time for performance and visual appeal.
      */
-    public void build(Player player, Location origin, List<BlockPlacement> blocks, String description) {
+    public void build(Player player, Location origin, BuildPlan plan, String description) {
+        if (!plugin.getServer().isGlobalTickThread()) {
+            plugin.getScheduling().global(() -> build(player, origin, plan, description));
+            return;
+        }
         // Cancel any existing build for this player
         cancelBuild(player.getUniqueId());
 
-        int blocksPerTick = plugin.getConfig().getInt("blocks-per-tick", 50);
         int maxBlocks = plugin.getConfig().getInt("max-blocks", 10000);
 
-        // Sort blocks bottom-up so the structure builds naturally
-        List<BlockPlacement> sorted = new ArrayList<>(blocks);
-        sorted.sort(Comparator.comparingInt(BlockPlacement::y)
-                .thenComparingInt(BlockPlacement::x)
-                .thenComparingInt(BlockPlacement::z));
-
-        if (sorted.size() > maxBlocks) {
-            player.sendMessage(Component.text("Build too large (" + sorted.size() +
+        if (plan.size() > maxBlocks) {
+            player.sendMessage(Component.text("Build too large (" + plan.size() +
                     " blocks, max " + maxBlocks + "). Try a smaller structure.", NamedTextColor.RED));
             return;
         }
 
         player.sendMessage(Component.text("Building: " + description +
-                " (" + sorted.size() + " blocks)", NamedTextColor.GREEN));
-
-        BukkitRunnable task = new BukkitRunnable() {
-            int index = 0;
-            int errors = 0;
-
-            @Override
-            public void run() {
-                int placed = 0;
-                while (index < sorted.size() && placed < blocksPerTick) {
-                    BlockPlacement bp = sorted.get(index);
-                    try {
-                        Material material = Material.matchMaterial(bp.material());
-                        if (material == null || !material.isBlock()) {
-                            plugin.getLogger().warning("Invalid material: " + bp.material() +
-                                    " (skipping)");
-                            errors++;
-                            index++;
-                            continue;
-                        }
-
-                        Location blockLoc = origin.clone().add(bp.x(), bp.y(), bp.z());
-                        Block block = blockLoc.getBlock();
-                        block.setType(material, true);
-                        placed++;
-                    } catch (Exception e) {
-                        plugin.getLogger().warning("Failed to place block: " + bp + " - " + e.getMessage());
-                        errors++;
-                    }
-                    index++;
-                }
+                " (" + plan.size() + " blocks)", NamedTextColor.GREEN));
+        reportInvalidMaterials(player, plan.palette());
 
-                if (index >= sorted.size()) {
-                    // Build complete
-                    player.sendMessage(Component.text("Build complete! " +
-                            (sorted.size() - errors) + " blocks placed.", NamedTextColor.GREEN));
-                    if (errors > 0) {
-                        player.sendMessage(Component.text(errors +
-                                " blocks skipped due to errors.", NamedTextColor.YELLOW));
-                    }
-                    activeBuilds.remove(player.getUniqueId());
-                    this.cancel();
-                }
+        if (!TerrainFit.isEnabled(plugin) || plan.size() == 0) {
+            start(player, origin, PlacementQueue.of(plan), plan, false, UndoHistory.Action.BUILD, description,
+                    maxBlocks);
+            return;
+        }
+        UUID playerId = player.getUniqueId();
+        Preparing token = new Preparing(description, plan.size());
+        preparing.put(playerId, token);
+        TerrainFit.prepare(plugin, origin, plan).whenComplete((fit, error) -> plugin.getScheduling().onGlobal(() -> {
+            if (preparing.get(playerId) != token) {
+                return; // Cancelled, or another build replaced this one
+            }
+            preparing.remove(playerId);
+            if (!player.isOnline()) {
+                return;
             }
-        };
+            BuildPlan placed = plan;
+            if (error != null) {
+                plugin.getLogger().warning("Terrain pre-pass failed, placing the build as is: " + error.getMessage());
+            } else {
+                placed = fit.plan();
+                plugin.getMetrics().blocksUnchanged(fit.unchanged());
+                plugin.getLogger().info(String.format("Pre-pass for %s: %d of %d blocks already in place, " +
+                                "%d foundation blocks, %d cleared", player.getName(), fit.unchanged(), plan.size(),
+                        fit.foundation(), fit.cleared()));
+            }
+            start(player, origin, PlacementQueue.of(placed), plan, false, UndoHistory.Action.BUILD, description,
+                    Math.max(maxBlocks, placed.size()));
+        }));
+    }
+
+    /**
+     * Start building from a queue that is still being filled (a streaming AI response).
+     * Blocks are placed in arrival order as soon as they are available; the build finishes
+     * once the queue is closed and drained.
+     */
+    public void buildStreaming(Player player, Location origin, PlacementQueue queue, String description) {
+        buildStreaming(player, origin, queue, description, plugin.getConfig().getInt("max-blocks", 10000));
+    }
+
+    /**
+     * As above, with a block limit other than {@code max-blocks} (large builds).
+     */
+    public void buildStreaming(Player player, Location origin, PlacementQueue queue, String description,
+                               int maxBlocks) {
+        if (!plugin.getServer().isGlobalTickThread()) {
+            plugin.getScheduling().global(() -> buildStreaming(player, origin, queue, description, maxBlocks));
+            return;
+        }
+        cancelBuild(player.getUniqueId());
+
+        player.sendMessage(Component.text("Building: " + description +
+                " (streaming from AI)", NamedTextColor.GREEN));
+
+        start(player, origin, queue, null, true, UndoHistory.Action.BUILD, description, maxBlocks);
+    }
 
-        activeBuilds.put(player.getUniqueId(), task);
-        task.runTaskTimer(plugin, 1L, 1L); // Run every tick
+    /**
+     * Undo the player's most recent build (or redo the most recent undo) by replaying its
+     * journal through the same budgeted placement path. A build still in progress is stopped
+     * first, so undo takes back what it placed so far.
+     */
+    public void undo(Player player, boolean redo) {
+        if (!plugin.getServer().isGlobalTickThread()) {
+            plugin.getScheduling().global(() -> undo(player, redo));
+            return;
+        }
+        cancelBuild(player.getUniqueId());
+        plugin.getUndoHistory().pop(player.getUniqueId(), redo).thenAccept(replay -> plugin.getScheduling().onGlobal(() -> {
+            if (replay == null) {
+                player.sendMessage(Component.text(redo ? "Nothing to redo." : "Nothing to undo.",
+                        NamedTextColor.GRAY));
+                return;
+            }
+            if (!player.isOnline()) {
+                return;
+            }
+            cancelBuild(player.getUniqueId());
+            player.sendMessage(Component.text((redo ? "Redoing: " : "Undoing: ") + replay.description() +
+                    " (" + replay.journal().size() + " blocks)", NamedTextColor.GREEN));
+            // Replays put back what a build already placed, so they are not held to the current limit
+            start(player, replay.origin(), PlacementQueue.of(replay.journal().reversed()), null, false,
+                    redo ? UndoHistory.Action.REDO : UndoHistory.Action.UNDO, replay.description(),
+                    Integer.MAX_VALUE);
+        }));
+    }
+
+    /**
+     * Start placing from {@code queue}. {@code whole} is the complete build when the queue holds
+     * less of it (blocks already in place were left out); null means the queue's plan.
+     */
+    private void start(Player player, Location origin, PlacementQueue queue, BuildPlan whole, boolean streamed,
+                       UndoHistory.Action action, String description, int maxBlocks) {
+        int weight = player.hasPermission("aibuilder.priority") ? 2 : 1;
+        activeBuilds.put(player.getUniqueId(),
+                new BuildJob(player.getUniqueId(), player.getName(), origin, queue,
+                        whole != null ? whole : queue.plan(), weight, streamed, action, description, maxBlocks, null));
+        startScheduler();
+    }
+
+    private void startScheduler() {
+        if (schedulerTask == null) {
+            schedulerTask = plugin.getScheduling().everyTick(this::tick);
+        }
+    }
+
+    /**
+     * Carry on with the builds that were still running when the server last stopped, whether or
+     * not their players are online. Called once at startup.
+     */
+    public void resumeSaved() {
+        buildJournal.loadAsync().thenAccept(saved -> plugin.getScheduling().onGlobal(() -> saved.forEach(this::resume)));
+    }
+
+    private void resume(BuildJournal.Saved saved) {
+        World world = plugin.getServer().getWorld(saved.worldId());
+        if (world == null || activeBuilds.containsKey(saved.playerId()) || preparing.containsKey(saved.playerId())) {
+            plugin.getLogger().info("Dropping saved build of " + saved.playerName() + ": " +
+                    (world == null ? "its world is not loaded" : "they have started another one"));
+            saved.writer().delete();
+            return;
+        }
+        BuildPlan plan = saved.entry().plan();
+        PlacementQueue queue = PlacementQueue.of(plan);
+        queue.take(saved.cursor());
+        String description = saved.entry().description();
+        plugin.getLogger().info(String.format("Resuming build of %s: %s (%d of %d blocks placed)",
+                saved.playerName(), description, saved.cursor(), plan.size()));
+
+        Player player = plugin.getServer().getPlayer(saved.playerId());
+        int weight = player != null && player.hasPermission("aibuilder.priority") ? 2 : 1;
+        BuildJob job = new BuildJob(saved.playerId(), saved.playerName(),
+                new Location(world, saved.x(), saved.y(), saved.z()), queue, plan, weight, false,
+                UndoHistory.Action.BUILD, description, Integer.MAX_VALUE, saved.writer());
+        activeBuilds.put(saved.playerId(), job);
+        job.message(Component.text("Resuming your build: " + description + " (" + saved.cursor() + " of " +
+                plan.size() + " blocks placed before the restart)", NamedTextColor.GREEN));
+        startScheduler();
     }
 
     public void cancelBuild(UUID playerId) {
-        BukkitRunnable task = activeBuilds.remove(playerId);
-        if (task != null) {
-            task.cancel();
+        if (!plugin.getServer().isGlobalTickThread()) {
+            plugin.getScheduling().global(() -> cancelBuild(playerId));
+            return;
         }
+        preparing.remove(playerId);
+        BuildJob job = activeBuilds.remove(playerId);
+        if (job != null) {
+            job.stop();
+        }
+        stopSchedulerIfIdle();
     }
 
     public void cancelAllBuilds() {
-        activeBuilds.values().forEach(BukkitRunnable::cancel);
+        activeBuilds.values().forEach(BuildJob::stop);
         activeBuilds.clear();
+        preparing.clear();
+        stopSchedulerIfIdle();
+    }
+
+    /**
+     * Plugin shutdown: stop every build, saving where each compiled one got to so it resumes on
+     * the next start. Builds still streaming from the AI can't be saved and are stopped.
+     */
+    public void shutdown() {
+        activeBuilds.values().forEach(BuildJob::suspend);
+        activeBuilds.clear();
+        preparing.clear();
+        stopSchedulerIfIdle();
+    }
+
+    /**
+     * The player's most recently finished build (not undo or redo), or null.
+     */
+    public StructureCache.Entry lastBuild(UUID playerId) {
+        return lastBuilds.get(playerId);
+    }
+
+    public void forgetPlayer(UUID playerId) {
+        lastBuilds.remove(playerId);
     }
 
     public boolean isBuilding(UUID playerId) {
-        return activeBuilds.containsKey(playerId);
+        return activeBuilds.containsKey(playerId) || preparing.containsKey(playerId);
+    }
+
+    /** The player's build in progress, or null. */
+    public Progress progress(UUID playerId) {
+        BuildJob job = activeBuilds.get(playerId);
+        if (job != null) {
+            return new Progress(job.description, job.processed, job.queue.received(), !job.queue.isClosed(),
+                    false, job.waitingForChunks);
+        }
+        Preparing prep = preparing.get(playerId);
+        if (prep != null) {
+            return new Progress(prep.description(), 0, prep.blocks(), false, true, false);
+        }
+        return null;
+    }
+
+    public int activeBuildCount() {
+        return activeBuilds.size();
+    }
+
+    /** The budget used for the most recent tick, after MSPT scaling. */
+    public long lastBudgetNanos() {
+        return lastBudgetNanos;
+    }
+
+    /**
+     * The per-tick budget after scaling for server load: the configured value while MSPT is
+     * below {@value #MSPT_SOFT_LIMIT}, shrinking linearly to {@value #MIN_BUDGET_FRACTION} of it
+     * as MSPT approaches a full 50ms tick.
+     */
+    public long effectiveBudgetNanos() {
+        double budgetMs = plugin.getConfig().getDouble("tick-budget-ms", 5.0);
+        if (plugin.getScheduling().isFolia()) {
+            // No one tick to measure, and the writes run on the region threads anyway
+            return (long) (budgetMs * 1_000_000);
+        }
+        double mspt = plugin.getServer().getAverageTickTime();
+        double scale = 1.0;
+        if (mspt > MSPT_SOFT_LIMIT) {
+            double over = (mspt - MSPT_SOFT_LIMIT) / (MSPT_HARD_LIMIT - MSPT_SOFT_LIMIT);
+            scale = Math.max(MIN_BUDGET_FRACTION, 1.0 - over);
+        }
+        return (long) (budgetMs * scale * 1_000_000);
+    }
+
+    /**
+     * One scheduler pass: give every build its weighted share of the budget. Time a build
+     * does not use (it is waiting for streamed blocks, or it finished) rolls over to the
+     * builds after it. The starting build rotates each tick so no one is always last.
+     */
+    private void tick() {
+        if (activeBuilds.isEmpty()) {
+            stopSchedulerIfIdle();
+            return;
+        }
+
+        long budget = effectiveBudgetNanos();
+        lastBudgetNanos = budget;
+        long tickStart = System.nanoTime();
+        long deadline = tickStart + budget;
+
+        List<BuildJob> jobs = new ArrayList<>(activeBuilds.values());
+        int totalWeight = 0;
+        for (BuildJob job : jobs) {
+            totalWeight += job.weight;
+        }
+
+        int n = jobs.size();
+        rotation = (rotation + 1) % n;
+        int remainingWeight = totalWeight;
+        for (int i = 0; i < n; i++) {
+            BuildJob job = jobs.get((rotation + i) % n);
+            long now = System.nanoTime();
+            if (now >= deadline) {
+                break;
+            }
+            long share = (deadline - now) * job.weight / remainingWeight;
+            remainingWeight -= job.weight;
+
+            if (job.step(now + share)) {
+                activeBuilds.remove(job.playerId, job);
+            }
+        }
+
+        int syncTicks = Math.max(1, plugin.getConfig().getInt("build-journal-sync-ticks", 20));
+        if (++ticks % syncTicks == 0) {
+            for (BuildJob job : activeBuilds.values()) {
+                job.checkpoint();
+            }
+        }
+
+        long pending = 0;
+        for (BuildJob job : activeBuilds.values()) {
+            pending += job.queue.remaining();
+        }
+        Metrics metrics = plugin.getMetrics();
+        metrics.builds(activeBuilds.size(), pending);
+        metrics.record(Metrics.Stage.TICK, System.nanoTime() - tickStart);
+        stopSchedulerIfIdle();
+    }
+
+    private void reportInvalidMaterials(Player player, MaterialPalette palette) {
+        if (palette.invalidCount() == 0) {
+            return;
+        }
+        StringJoiner names = new StringJoiner(", ");
+        palette.invalidMaterials().forEach((name, count) -> names.add(name + " x" + count));
+        player.sendMessage(Component.text(palette.invalidCount() +
+                " blocks skipped, unknown materials: " + names, NamedTextColor.YELLOW));
+    }
+
+    private void stopSchedulerIfIdle() {
+        if (activeBuilds.isEmpty() && schedulerTask != null) {
+            schedulerTask.cancel();
+            schedulerTask = null;
+            plugin.getMetrics().builds(0, 0);
+        }
+    }
+
+    /**
+     * One player's build: drains a placement queue into the world through the configured
+     * {@link PlacementBackend} whenever the scheduler gives it time, journaling what it
+     * overwrites for undo.
+     */
+    private class BuildJob {
+        // By id rather than Player: a build carries on while its player is offline
+        private final UUID playerId;
+        private final String playerName;
+        private final Location origin;
+        private final PlacementQueue queue;
+        private final BuildPlan whole;
+        private final int weight;
+        private final boolean streamed;
+        private final UndoHistory.Action action;
+        private final String description;
+        private final BuildPlan journal = new BuildPlan();
+        private boolean recorded = false;
+        // Optional per-build cap on blocks per tick, to slow the building animation down; 0 = off
+        private final int blocksPerTick = cap(plugin.getConfig().getInt("blocks-per-tick", 0));
+        private final int maxBlocks;
+        private final PlacementExecutor executor = PlacementExecutor.forBuild(plugin);
+        private final IntConsumer placed = this::placed;
+        // Synchronous executors only; region executors load their own chunks
+        private final ChunkLoader.Session chunks;
+        // Null until the first checkpoint, and for builds that aren't journaled
+        private BuildJournal.Writer writer;
+        private boolean waitingForChunks = false;
+
+        private int processed = 0;
+        private int errors = 0;
+        // Entries handed to an asynchronous executor that it hasn't finished writing
+        private int inFlight = 0;
+        private boolean stopped = false;
+        private long tickNanos = 0;
+        private final long queuedAt = System.nanoTime();
+
+        BuildJob(UUID playerId, String playerName, Location origin, PlacementQueue queue, BuildPlan whole,
+                 int weight, boolean streamed, UndoHistory.Action action, String description, int maxBlocks,
+                 BuildJournal.Writer writer) {
+            this.playerId = playerId;
+            this.playerName = playerName;
+            this.origin = origin;
+            this.queue = queue;
+            this.whole = whole;
+            this.weight = weight;
+            this.streamed = streamed;
+            this.action = action;
+            this.description = description;
+            this.maxBlocks = maxBlocks;
+            this.chunks = executor.isSynchronous() ? chunkLoader.open(origin.getWorld()) : null;
+            this.writer = writer;
+            // Resumed builds report the blocks placed before the restart too
+            this.processed = queue.cursor();
+        }
+
+        private static int cap(int configured) {
+            return configured > 0 ? configured : Integer.MAX_VALUE;
+        }
+
+        /** Tell the player, if they are online. */
+        void message(Component message) {
+            Player player = plugin.getServer().getPlayer(playerId);
+            if (player != null) {
+                player.sendMessage(message);
+            }
+        }
+
+        /**
+         * Place blocks until the deadline, the per-tick cap (if set), the queue runs dry, or the
+         * next block's chunk is still loading. An asynchronous executor gets one batch per tick, and
+         * nothing more until it has written it. Returns true when the build is
+         * finished and should be removed.
+         */
+        boolean step(long deadline) {
+            long start = System.nanoTime();
+            int placedThisTick = 0;
+            int batch = executor.isSynchronous() ? STEP_BLOCKS : Math.min(blocksPerTick, ASYNC_BATCH_BLOCKS);
+            do {
+                if (inFlight > 0) {
+                    break;
+                }
+                int limit = Math.min(batch, Math.min(blocksPerTick - placedThisTick, maxBlocks - processed));
+                if (limit <= 0 && processed >= maxBlocks && queue.remaining() > 0) {
+                    // Only reachable for streamed builds; compiled plans are checked up front
+                    message(Component.text("Build reached the limit of " + maxBlocks +
+                            " blocks and was stopped.", NamedTextColor.RED));
+                    finish();
+                    return true;
+                }
+                int from = queue.cursor();
+                limit = Math.max(0, limit);
+                int n = queue.take(chunks == null ? limit
+                        : chunks.available(origin.getBlockX(), origin.getBlockZ(), queue.plan(), from, limit));
+                waitingForChunks = n == 0 && limit > 0 && queue.remaining() > 0;
+                if (n == 0) {
+                    break;
+                }
+                if (processed == 0 && action == UndoHistory.Action.BUILD) {
+                    plugin.getMetrics().record(Metrics.Stage.FIRST_BLOCK, System.nanoTime() - queuedAt);
+                }
+                processed += n;
+                inFlight = n;
+                executor.place(origin, queue.plan(), from, from + n, journal, placed);
+                placedThisTick += n;
+            } while (placedThisTick < blocksPerTick && System.nanoTime() < deadline);
+            tickNanos += System.nanoTime() - start;
+
+            if (queue.isDrained() && inFlight == 0) {
+                // Build complete
+                String done = action == UndoHistory.Action.UNDO ? "Undo complete! " : "Build complete! ";
+                message(Component.text(done + (processed - errors) + " blocks placed.",
+                        NamedTextColor.GREEN));
+                if (errors > 0) {
+                    message(Component.text(errors +
+                            " blocks skipped due to errors.", NamedTextColor.YELLOW));
+                }
+                Player player = plugin.getServer().getPlayer(playerId);
+                if (streamed && player != null) {
+                    // Compiled plans report unknown materials before the build starts
+                    reportInvalidMaterials(player, queue.plan().palette());
+                }
+                if (queue.isTruncated()) {
+                    message(Component.text("The AI response was cut off, so the rest of " +
+                            "the structure never arrived. Ask again to finish it.", NamedTextColor.YELLOW));
+                }
+                finish();
+                return true;
+            }
+            return false;
+        }
+
+        /** The executor has written the batch in flight. */
+        private void placed(int failed) {
+            errors += failed;
+            plugin.getMetrics().blocksPlaced(inFlight - failed);
+            inFlight = 0;
+            if (stopped) {
+                recordJournal();
+            }
+        }
+
+        /** Where a resume should start: entries taken and already written. */
+        private int placedCursor() {
+            return queue.cursor() - inFlight;
+        }
+
+        private void finish() {
+            int placed = processed - errors;
+            double ms = tickNanos / 1_000_000.0;
+            plugin.getLogger().info(String.format("Build for %s: %d blocks in %.1f ms of tick time " +
+                            "(%.1f blocks/ms, %s backend, %d chunks loaded ahead)", playerName, placed, ms,
+                    ms > 0 ? placed / ms : 0.0, executor.name(), chunks != null ? chunks.loads() : 0));
+            queue.finish();
+            closeChunks();
+            if (writer != null) {
+                writer.delete();
+            }
+            recordJournal();
+            if (action == UndoHistory.Action.BUILD) {
+                Metrics metrics = plugin.getMetrics();
+                metrics.record(Metrics.Stage.BUILD, System.nanoTime() - queuedAt);
+                metrics.buildFinished(playerId);
+                queue.plan().palette().invalidMaterials().forEach(metrics::unknownMaterial);
+                lastBuilds.put(playerId,
+                        new StructureCache.Entry(description, whole, System.currentTimeMillis()));
+            }
+        }
+
+        private void recordJournal() {
+            if (!recorded) {
+                recorded = true;
+                plugin.getUndoHistory().record(playerId, action, origin, description, journal);
+                plugin.getSiteSurvey().invalidate(origin, journal);
+            }
+        }
+
+        /**
+         * Save the cursor once the plan is complete: compiled plans from the start, streamed ones
+         * once the AI response has fully arrived. Undo and redo replays aren't journaled.
+         */
+        void checkpoint() {
+            if (writer == null) {
+                if (action != UndoHistory.Action.BUILD || !buildJournal.isEnabled() || !queue.isClosed() ||
+                        queue.isDrained()) {
+                    return;
+                }
+                writer = buildJournal.open(playerId, playerName, origin, description, queue.plan());
+            }
+            writer.checkpoint(placedCursor());
+        }
+
+        /** Shutdown: stop, but keep the journal (writing it now if needed) for resume. */
+        void suspend() {
+            checkpoint();
+            queue.cancel();
+            closeChunks();
+            if (writer != null) {
+                writer.suspend(placedCursor());
+                plugin.getLogger().info("Saved build for " + playerName + " at " + placedCursor() + " of " +
+                        queue.received() + " blocks; it resumes on the next start");
+            } else if (queue.remaining() > 0 || !queue.isClosed()) {
+                plugin.getLogger().info("Build for " + playerName + " stopped with " + queue.remaining() +
+                        " received blocks unplaced" + (queue.isClosed() ? "" : " (stream still open)"));
+            }
+        }
+
+        /** Cancel from outside: also stops the AI stream if it is still producing. */
+        void stop() {
+            int left = queue.remaining();
+            queue.cancel();
+            closeChunks();
+            if (writer != null) {
+                writer.delete();
+            }
+            if (left > 0 || !queue.isClosed()) {
+                plugin.getLogger().info("Build for " + playerName + " stopped with " + left +
+                        " received blocks unplaced" + (queue.isClosed() ? "" : " (stream still open)"));
+            }
+            // A batch still being written goes into the journal first
+            stopped = true;
+            if (inFlight == 0) {
+                recordJournal();
+            }
+        }
+
+        private void closeChunks() {
+            if (chunks != null) {
+                chunks.close();
+            }
+        }
     }
 }
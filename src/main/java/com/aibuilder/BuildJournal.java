@@ -0,0 +1,326 @@
+package com.aibuilder;
+
+import org.bukkit.Location;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Write-ahead journal of the builds in progress, so a restart or crash in the middle of a build
+ * resumes it instead of leaving half a structure (and paying for the AI response again).
+ *
+ * A build is two files in {@code builds/}: the plan being placed, in {@link PlanCodec} form,
+ * and an append-only log. The log starts with a header, written only once the plan file is
+ * complete, followed by the build's cursor as one int per checkpoint:
+ *
+ * <pre>
+ * int    magic "AIBJ"
+ * short  version
+ * long   player UUID (most, least significant bits)
+ * string player name
+ * long   world UUID (most, least significant bits)
+ * int    origin x, y, z
+ * int    plan block count
+ * int... cursor checkpoints
+ * </pre>
+ *
+ * Checkpoints are batched by the build loop ({@code build-journal-sync-ticks}) and each batch
+ * costs one four-byte append and one fsync per build, off the main thread. On resume the last
+ * whole checkpoint wins, so at most one batch of blocks is placed twice.
+ */
+final class BuildJournal {
+
+    private static final int MAGIC = 0x4149424A;
+    private static final short VERSION = 1;
+
+    /** An unfinished build found at startup. */
+    record Saved(UUID playerId, String playerName, UUID worldId, int x, int y, int z,
+                 StructureCache.Entry entry, int cursor, Writer writer) {
+    }
+
+    private final AIBuilderPlugin plugin;
+    private final Executor executor;
+    private final Path dir;
+    // Files from before this are left by the last run; newer ones belong to builds of this one
+    private final long startedAt = System.currentTimeMillis();
+    private long counter = 0;
+
+    BuildJournal(AIBuilderPlugin plugin, Executor executor) {
+        this.plugin = plugin;
+        this.executor = executor;
+        this.dir = plugin.getDataFolder().toPath().resolve("builds");
+    }
+
+    boolean isEnabled() {
+        return plugin.getConfig().getBoolean("build-journal", true);
+    }
+
+    /**
+     * Start journaling a build. Nothing is written until the first {@link Writer#checkpoint}, so
+     * builds that finish between two checkpoints never touch the disk. Global region thread only.
+     */
+    Writer open(UUID playerId, String playerName, Location origin, String description, BuildPlan plan) {
+        String name = playerId + "-" + System.currentTimeMillis() + "-" + (counter++);
+        return new Writer(dir.resolve(name + ".plan"), dir.resolve(name + ".log"), playerId, playerName,
+                origin.getWorld().getUID(), origin.getBlockX(), origin.getBlockY(), origin.getBlockZ(),
+                description, plan);
+    }
+
+    /**
+     * Read back every build that was still running when the server stopped. Files that can't be
+     * read are deleted; so are older builds of a player who has a newer one.
+     */
+    CompletableFuture<List<Saved>> loadAsync() {
+        return CompletableFuture.supplyAsync(this::load, executor);
+    }
+
+    private List<Saved> load() {
+        Map<UUID, Saved> newest = new HashMap<>();
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    if (isFromLastRun(file)) {
+                        deleteQuietly(file);
+                    }
+                    continue;
+                }
+                if (!name.endsWith(".log") || !isFromLastRun(file)) {
+                    continue;
+                }
+                Path planFile = dir.resolve(name.substring(0, name.length() - 4) + ".plan");
+                Saved saved = read(planFile, file);
+                if (saved == null) {
+                    deleteQuietly(file);
+                    deleteQuietly(planFile);
+                    continue;
+                }
+                Saved other = newest.get(saved.playerId());
+                if (other == null || other.entry().created() < saved.entry().created()) {
+                    newest.put(saved.playerId(), saved);
+                    saved = other;
+                }
+                if (saved != null) {
+                    saved.writer().delete();
+                }
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to list saved builds: " + e.getMessage());
+        }
+        // Plans whose log was never written belong to builds that hadn't reached a checkpoint
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.plan")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (isFromLastRun(file) && !Files.exists(dir.resolve(name.substring(0, name.length() - 5) + ".log"))) {
+                    deleteQuietly(file);
+                }
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to list saved builds: " + e.getMessage());
+        }
+        return new ArrayList<>(newest.values());
+    }
+
+    private Saved read(Path planFile, Path logFile) {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(logFile));
+            if (buf.getInt() != MAGIC || buf.getShort() != VERSION) {
+                throw new IOException("not a build journal");
+            }
+            UUID playerId = new UUID(buf.getLong(), buf.getLong());
+            byte[] playerName = new byte[buf.getInt()];
+            buf.get(playerName);
+            UUID worldId = new UUID(buf.getLong(), buf.getLong());
+            int x = buf.getInt();
+            int y = buf.getInt();
+            int z = buf.getInt();
+            int blocks = buf.getInt();
+            int cursor = 0;
+            // A checkpoint cut short by the crash is ignored
+            while (buf.remaining() >= Integer.BYTES) {
+                cursor = buf.getInt();
+            }
+            StructureCache.Entry entry = PlanCodec.read(planFile);
+            if (entry.plan().size() != blocks || cursor < 0 || cursor > blocks) {
+                throw new IOException("plan and log don't match");
+            }
+            String name = new String(playerName, StandardCharsets.UTF_8);
+            Writer writer = new Writer(planFile, logFile, playerId, name, worldId, x, y, z,
+                    entry.description(), entry.plan());
+            writer.written = true;
+            writer.lastCursor = cursor;
+            return new Saved(playerId, name, worldId, x, y, z, entry, cursor, writer);
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().warning("Dropping unreadable saved build " + logFile.getFileName() + ": " +
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isFromLastRun(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis() < startedAt;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * The journal of one build. Checkpoints and deletion are queued in order on the executor;
+     * {@link #suspend} runs on the calling thread, for shutdown, when tasks can no longer be
+     * scheduled.
+     */
+    final class Writer {
+        private final Path planFile;
+        private final Path logFile;
+        private final UUID playerId;
+        private final String playerName;
+        private final UUID worldId;
+        private final int x, y, z;
+        private final String description;
+        private final BuildPlan plan;
+
+        // Tail of this journal's queued I/O, so tasks run one after another
+        private CompletableFuture<Void> io = CompletableFuture.completedFuture(null);
+        private FileChannel log;
+        private boolean written = false;
+        private boolean closed = false;
+        private int lastCursor = -1; // global region thread only
+
+        private Writer(Path planFile, Path logFile, UUID playerId, String playerName, UUID worldId,
+                       int x, int y, int z, String description, BuildPlan plan) {
+            this.planFile = planFile;
+            this.logFile = logFile;
+            this.playerId = playerId;
+            this.playerName = playerName;
+            this.worldId = worldId;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.description = description;
+            this.plan = plan;
+        }
+
+        /** Queue a checkpoint, writing the plan first if this is the build's first one. */
+        void checkpoint(int cursor) {
+            if (cursor == lastCursor || !plugin.isEnabled()) {
+                return;
+            }
+            lastCursor = cursor;
+            io = io.thenRunAsync(() -> {
+                try {
+                    append(cursor);
+                } catch (IOException e) {
+                    plugin.getLogger().warning("Failed to checkpoint build of " + playerName + ": " +
+                            e.getMessage());
+                }
+            }, executor);
+        }
+
+        /** The build is over: queue removing its files. */
+        void delete() {
+            if (!plugin.isEnabled()) {
+                deleteNow();
+                return;
+            }
+            io = io.thenRunAsync(this::deleteNow, executor);
+        }
+
+        /**
+         * Shutdown: write the final checkpoint on this thread and keep the files for resume.
+         * Waits for a queued write that is already running.
+         */
+        synchronized void suspend(int cursor) {
+            try {
+                append(cursor);
+            } catch (IOException e) {
+                plugin.getLogger().warning("Failed to save build of " + playerName + " for resume: " +
+                        e.getMessage());
+            }
+            closeLog();
+            closed = true;
+        }
+
+        private synchronized void append(int cursor) throws IOException {
+            if (closed) {
+                return;
+            }
+            if (!written) {
+                writePlan();
+            }
+            if (log == null) {
+                log = FileChannel.open(logFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            ByteBuffer buf = ByteBuffer.allocate(Integer.BYTES).putInt(cursor).flip();
+            while (buf.hasRemaining()) {
+                log.write(buf);
+            }
+            log.force(false);
+        }
+
+        private void writePlan() throws IOException {
+            Files.createDirectories(dir);
+            PlanCodec.write(planFile, new StructureCache.Entry(description, plan, System.currentTimeMillis()));
+
+            byte[] name = playerName.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buf = ByteBuffer.allocate(4 + 2 + 16 + 4 + name.length + 16 + 12 + 4);
+            buf.putInt(MAGIC).putShort(VERSION);
+            buf.putLong(playerId.getMostSignificantBits()).putLong(playerId.getLeastSignificantBits());
+            buf.putInt(name.length).put(name);
+            buf.putLong(worldId.getMostSignificantBits()).putLong(worldId.getLeastSignificantBits());
+            buf.putInt(x).putInt(y).putInt(z).putInt(plan.size());
+            buf.flip();
+            // The plan is durable before the log that points at it exists
+            try (FileChannel channel = FileChannel.open(planFile, StandardOpenOption.READ)) {
+                channel.force(true);
+            }
+            log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            while (buf.hasRemaining()) {
+                log.write(buf);
+            }
+            written = true;
+        }
+
+        private synchronized void deleteNow() {
+            closed = true;
+            closeLog();
+            // Log first: a plan without a log is never resumed
+            deleteQuietly(logFile);
+            deleteQuietly(planFile);
+        }
+
+        private void closeLog() {
+            if (log != null) {
+                try {
+                    log.close();
+                } catch (IOException ignored) {
+                }
+                log = null;
+            }
+        }
+    }
+}
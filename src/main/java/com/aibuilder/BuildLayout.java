@@ -0,0 +1,79 @@
+package com.aibuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * The plan for a large build: named regions, each a box the AI will fill in with its own
+ * request. Shaped like {@link AIResponse}: {@code BUILD} carries the regions (the message is
+ * the overall description), {@code CLARIFY} and {@code ERROR} carry only a message.
+ */
+public record BuildLayout(AIResponse.Type type, String message, List<Region> regions) {
+
+    /**
+     * One part of the build. Corners are relative and inclusive, stored min-first. Where boxes
+     * overlap, the region with the higher priority (then the earlier one) owns the blocks.
+     */
+    public record Region(String name, String brief, int priority,
+                         int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+
+        /** A region between two corners given in any order. */
+        static Region of(String name, String brief, int priority, int[] from, int[] to) {
+            return new Region(name, brief, priority,
+                    Math.min(from[0], to[0]), Math.min(from[1], to[1]), Math.min(from[2], to[2]),
+                    Math.max(from[0], to[0]), Math.max(from[1], to[1]), Math.max(from[2], to[2]));
+        }
+
+        public long volume() {
+            return (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+        }
+
+        boolean contains(int x, int y, int z, int margin) {
+            return x >= minX - margin && x <= maxX + margin
+                    && y >= minY - margin && y <= maxY + margin
+                    && z >= minZ - margin && z <= maxZ + margin;
+        }
+
+        /** The box as text for a prompt, e.g. {@code [0,0,0] to [20,12,20]}. */
+        String box() {
+            return "[" + minX + "," + minY + "," + minZ + "] to [" + maxX + "," + maxY + "," + maxZ + "]";
+        }
+    }
+
+    static BuildLayout of(AIResponse response) {
+        return new BuildLayout(response.type(), response.message(), List.of());
+    }
+
+    /**
+     * Which packed positions region {@code index} may write: inside its box (give or take
+     * {@code margin}, for eaves and the like) and not inside a box of a region that outranks it.
+     */
+    LongPredicate owner(int index, int margin) {
+        Region own = regions.get(index);
+        List<Region> stronger = new ArrayList<>();
+        for (int i = 0; i < regions.size(); i++) {
+            Region other = regions.get(i);
+            boolean outranks = other.priority() > own.priority()
+                    || (other.priority() == own.priority() && i < index);
+            if (i != index && outranks) {
+                stronger.add(other);
+            }
+        }
+        Region[] outranked = stronger.toArray(Region[]::new);
+        return packed -> {
+            int x = BuildPlan.unpackX(packed);
+            int y = BuildPlan.unpackY(packed);
+            int z = BuildPlan.unpackZ(packed);
+            if (!own.contains(x, y, z, margin)) {
+                return false;
+            }
+            for (Region other : outranked) {
+                if (other.contains(x, y, z, 0)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+}
@@ -0,0 +1,155 @@
+package com.aibuilder;
+
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.structure.Mirror;
+import org.bukkit.block.structure.StructureRotation;
+
+import java.util.Arrays;
+
+/**
+ * A compiled build: a {@link MaterialPalette} plus two primitive arrays, one packed relative
+ * position and one palette index per block. This is what the placement backends read, so the
+ * per-block hot loop does no string work, lookups or boxing.
+ *
+ * A plan can be filled all at once ({@link PlanCompiler}) or appended to by a single producer
+ * while the main thread reads it (streaming). The size is published last, so entries below
+ * {@link #size()} are always complete.
+ */
+public final class BuildPlan {
+
+    // Same layout as Minecraft's BlockPos.asLong: x (26 bits) | z (26 bits) | y (12 bits)
+    private static final int XZ_BITS = 26;
+    private static final int Y_BITS = 12;
+    /** Largest distance from the origin, on any axis, that every position can be packed at. */
+    public static final int MAX_EXTENT = (1 << (Y_BITS - 1)) - 1;
+
+    private final MaterialPalette palette;
+    private long[] positions;
+    private short[] states;
+    private volatile int size = 0;
+
+    public BuildPlan() {
+        this(new MaterialPalette(), 256);
+    }
+
+    public BuildPlan(MaterialPalette palette, int capacity) {
+        this.palette = palette;
+        this.positions = new long[Math.max(capacity, 16)];
+        this.states = new short[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Wrap complete arrays, e.g. a plan read back from the structure cache.
+     */
+    BuildPlan(MaterialPalette palette, long[] positions, short[] states) {
+        this.palette = palette;
+        this.positions = positions;
+        this.states = states;
+        this.size = positions.length;
+    }
+
+    /**
+     * Append a block by material name. Returns false if the material is unknown.
+     * Producer thread only.
+     */
+    public boolean add(int x, int y, int z, String material) {
+        int state = palette.resolve(material);
+        if (state == MaterialPalette.INVALID) {
+            palette.noteInvalid(material, 1);
+            return false;
+        }
+        add(pack(x, y, z), state);
+        return true;
+    }
+
+    /**
+     * Append a block by packed position and palette index. Producer thread only.
+     */
+    public void add(long position, int state) {
+        int n = size;
+        if (n == positions.length) {
+            positions = Arrays.copyOf(positions, n * 2);
+            states = Arrays.copyOf(states, n * 2);
+        }
+        positions[n] = position;
+        states[n] = (short) state;
+        size = n + 1;
+    }
+
+    /**
+     * A copy with the entries in reverse order, sharing this plan's palette. Replaying an undo
+     * journal backwards leaves the earliest captured state of each position in place.
+     */
+    public BuildPlan reversed() {
+        int n = size;
+        long[] p = new long[n];
+        short[] s = new short[n];
+        for (int i = 0; i < n; i++) {
+            p[i] = positions[n - 1 - i];
+            s[i] = states[n - 1 - i];
+        }
+        return new BuildPlan(palette, p, s);
+    }
+
+    /**
+     * A copy mirrored and then rotated about the origin, the order Minecraft applies them to
+     * structures. Block states (stair facing, doors, ...) are turned to match, once per palette
+     * entry; positions are a few integer ops each.
+     */
+    public BuildPlan transformed(StructureRotation rotation, Mirror mirror) {
+        if (rotation == StructureRotation.NONE && mirror == Mirror.NONE) {
+            return this;
+        }
+        MaterialPalette turned = new MaterialPalette();
+        for (int i = 0; i < palette.size(); i++) {
+            BlockData data = palette.blockData(i).clone();
+            data.mirror(mirror);
+            data.rotate(rotation);
+            turned.add(data);
+        }
+
+        int n = size;
+        long[] p = new long[n];
+        for (int i = 0; i < n; i++) {
+            long packed = positions[i];
+            int x = unpackX(packed);
+            int z = unpackZ(packed);
+            if (mirror == Mirror.FRONT_BACK) {
+                x = -x;
+            } else if (mirror == Mirror.LEFT_RIGHT) {
+                z = -z;
+            }
+            int y = unpackY(packed);
+            p[i] = switch (rotation) {
+                case CLOCKWISE_90 -> pack(-z, y, x);
+                case CLOCKWISE_180 -> pack(-x, y, -z);
+                case COUNTERCLOCKWISE_90 -> pack(z, y, -x);
+                default -> pack(x, y, z);
+            };
+        }
+        return new BuildPlan(turned, p, Arrays.copyOf(states, n));
+    }
+
+    public MaterialPalette palette() { return palette; }
+    public int size() { return size; }
+    public long position(int i) { return positions[i]; }
+    public int state(int i) { return states[i]; }
+
+    public static long pack(int x, int y, int z) {
+        return ((long) (x & ((1 << XZ_BITS) - 1)) << (XZ_BITS + Y_BITS))
+                | ((long) (z & ((1 << XZ_BITS) - 1)) << Y_BITS)
+                | (y & ((1 << Y_BITS) - 1));
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> (XZ_BITS + Y_BITS));
+    }
+
+    public static int unpackY(long packed) {
+        return (int) (packed << (64 - Y_BITS) >> (64 - Y_BITS));
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) (packed << XZ_BITS >> (XZ_BITS + Y_BITS));
+    }
+}
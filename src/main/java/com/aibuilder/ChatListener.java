@@ -44,10 +44,12 @@ public class ChatListener implements Listener {
             // Cancel the chat message so it doesn't appear in chat for everyone
             event.setCancelled(true);
 
-            // Handle on the main thread
-            plugin.getServer().getScheduler().runTask(plugin, () -> {
+            // Handle on the player's thread
+            long heard = System.nanoTime();
+            plugin.getScheduling().forPlayer(player, () -> {
+                plugin.getMetrics().record(Metrics.Stage.TRIGGER, System.nanoTime() - heard);
                 AICommand aiCommand = new AICommand(plugin);
-                aiCommand.handleAIRequest(player, aiMessage);
+                aiCommand.handleAIRequest(player, aiMessage, heard, true);
             });
         }
     }
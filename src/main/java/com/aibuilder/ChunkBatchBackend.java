@@ -0,0 +1,158 @@
+package com.aibuilder;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Places a batch one chunk section at a time. The batch is grouped by section with a
+ * primitive sort, each chunk is looked up once, and full solid blocks are written in a
+ * single pass with physics off from the palette's shared {@link BlockData} snapshots.
+ * Writes of the exact state a block already holds (and AIR onto any air) are skipped. The
+ * state each write replaces is read from the same {@link Block} handle and appended to the
+ * build's undo journal.
+ *
+ * Blocks whose shape depends on their neighbours (stairs, panes, fences, doors, torches)
+ * are written afterwards in one settle pass per chunk with physics on, so they connect to
+ * and rest on the blocks just written. Lighting is left to the server's light engine,
+ * which already batches its updates per chunk.
+ */
+public class ChunkBatchBackend implements PlacementBackend {
+
+    // Sort key layout, high to low: chunk x offset | chunk z offset | section y | batch index
+    private static final int INDEX_BITS = 20;
+    private static final int SECTION_BITS = 6;
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_OFFSET = 1 << (CHUNK_BITS - 1);
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    private final Metrics metrics;
+    private final Logger logger;
+
+    // Scratch space reused across ticks (main thread only)
+    private long[] keys = new long[256];
+    private final List<Block> settleBlocks = new ArrayList<>();
+    private final List<BlockData> settleData = new ArrayList<>();
+
+    public ChunkBatchBackend(Metrics metrics, Logger logger) {
+        this.metrics = metrics;
+        this.logger = logger;
+    }
+
+    @Override
+    public int place(Location origin, BuildPlan plan, int from, int to, BuildPlan journal) {
+        MaterialPalette palette = plan.palette();
+        World world = origin.getWorld();
+        int ox = origin.getBlockX();
+        int oy = origin.getBlockY();
+        int oz = origin.getBlockZ();
+        int originChunkX = ox >> 4;
+        int originChunkZ = oz >> 4;
+        int minY = world.getMinHeight();
+        int maxY = world.getMaxHeight();
+
+        int n = Math.min(to - from, 1 << INDEX_BITS);
+        if (keys.length < n) {
+            keys = new long[Math.max(n, keys.length * 2)];
+        }
+
+        int errors = (to - from) - n;
+        int unchanged = 0;
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            long pos = plan.position(from + i);
+            int y = oy + BuildPlan.unpackY(pos);
+            long cx = ((ox + BuildPlan.unpackX(pos)) >> 4) - originChunkX + CHUNK_OFFSET;
+            long cz = ((oz + BuildPlan.unpackZ(pos)) >> 4) - originChunkZ + CHUNK_OFFSET;
+            if (y < minY || y >= maxY || cx < 0 || cz < 0 || cx >= 2 * CHUNK_OFFSET || cz >= 2 * CHUNK_OFFSET) {
+                metrics.placementFailed(palette.material(plan.state(from + i)).getKey().getKey());
+                errors++;
+                continue;
+            }
+            long section = (y - minY) >> 4;
+            keys[count++] = ((((cx << CHUNK_BITS) | cz) << SECTION_BITS | section) << INDEX_BITS) | i;
+        }
+        Arrays.sort(keys, 0, count);
+
+        long currentChunk = -1;
+        Chunk chunk = null;
+        for (int k = 0; k < count; k++) {
+            int i = from + (int) (keys[k] & INDEX_MASK);
+            long pos = plan.position(i);
+            int x = ox + BuildPlan.unpackX(pos);
+            int y = oy + BuildPlan.unpackY(pos);
+            int z = oz + BuildPlan.unpackZ(pos);
+            long chunkKey = keys[k] >>> (SECTION_BITS + INDEX_BITS);
+            try {
+                if (chunkKey != currentChunk) {
+                    errors += settle();
+                    chunk = world.getChunkAt(x >> 4, z >> 4);
+                    currentChunk = chunkKey;
+                }
+
+                int state = plan.state(i);
+                Block block = chunk.getBlock(x & 15, y, z & 15);
+                BlockData previous = block.getBlockData();
+                if (palette.isAir(state)) {
+                    // Clearing space that is already empty is a no-op
+                    if (!previous.getMaterial().isAir()) {
+                        journal.add(pos, journal.palette().capture(previous));
+                        block.setBlockData(palette.blockData(state), false);
+                    } else {
+                        unchanged++;
+                    }
+                } else if (previous.equals(palette.blockData(state))) {
+                    unchanged++;
+                } else if (palette.isOccluding(state)) {
+                    journal.add(pos, journal.palette().capture(previous));
+                    block.setBlockData(palette.blockData(state), false);
+                } else {
+                    journal.add(pos, journal.palette().capture(previous));
+                    settleBlocks.add(block);
+                    settleData.add(palette.blockData(state));
+                }
+            } catch (Exception e) {
+                logger.warning("Failed to place block at " + x + "," + y + "," + z +
+                        " - " + e.getMessage());
+                metrics.placementFailed(palette.material(plan.state(i)).getKey().getKey());
+                errors++;
+            }
+        }
+        errors += settle();
+        if (unchanged > 0) {
+            metrics.blocksUnchanged(unchanged);
+        }
+        return errors;
+    }
+
+    /**
+     * Write the neighbour-dependent blocks of the current chunk with physics on.
+     * Returns the number that failed.
+     */
+    private int settle() {
+        int errors = 0;
+        for (int i = 0; i < settleBlocks.size(); i++) {
+            try {
+                settleBlocks.get(i).setBlockData(settleData.get(i), true);
+            } catch (Exception e) {
+                logger.warning("Failed to place block at " + settleBlocks.get(i).getLocation() +
+                        " - " + e.getMessage());
+                metrics.placementFailed(settleData.get(i).getMaterial().getKey().getKey());
+                errors++;
+            }
+        }
+        settleBlocks.clear();
+        settleData.clear();
+        return errors;
+    }
+
+    @Override
+    public String name() {
+        return "chunk";
+    }
+}
@@ -0,0 +1,197 @@
+package com.aibuilder;
+
+import org.bukkit.World;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Keeps the chunks under running builds loaded without ever loading one on the main thread.
+ *
+ * Each build opens a {@link Session}. Every tick the session looks a little ahead of the
+ * build's cursor ({@code chunk-preload-blocks} plan entries), requests the chunks found there
+ * with {@link World#getChunkAtAsync}, and takes a plugin chunk ticket on each one as it
+ * arrives, so the server can't unload it while the build still needs it. The build only
+ * places entries whose chunk is in, and waits a tick when the next one isn't.
+ *
+ * Tickets are counted here across sessions, since a plugin has only one ticket per chunk:
+ * a chunk shared by two builds stays held until both are done. Main thread only, so Paper
+ * only: on Folia {@link RegionPlacementExecutor} loads the chunks each batch needs itself.
+ */
+final class ChunkLoader {
+
+    // Async loads one session may have outstanding at once
+    private static final int MAX_IN_FLIGHT = 16;
+
+    private final AIBuilderPlugin plugin;
+    // Sessions holding each chunk, per world
+    private final Map<UUID, Map<Long, Integer>> holders = new HashMap<>();
+
+    ChunkLoader(AIBuilderPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    Session open(World world) {
+        return new Session(world, Math.max(1, plugin.getConfig().getInt("chunk-preload-blocks", 2048)));
+    }
+
+    private void hold(World world, long key) {
+        Map<Long, Integer> counts = holders.computeIfAbsent(world.getUID(), id -> new HashMap<>());
+        if (counts.merge(key, 1, Integer::sum) == 1) {
+            world.addPluginChunkTicket(chunkX(key), chunkZ(key), plugin);
+        }
+    }
+
+    private void release(World world, long key) {
+        Map<Long, Integer> counts = holders.get(world.getUID());
+        if (counts == null) {
+            return;
+        }
+        Integer count = counts.get(key);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            counts.put(key, count - 1);
+            return;
+        }
+        counts.remove(key);
+        if (counts.isEmpty()) {
+            holders.remove(world.getUID());
+        }
+        world.removePluginChunkTicket(chunkX(key), chunkZ(key), plugin);
+    }
+
+    static long chunkKey(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+
+    private static int chunkX(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int chunkZ(long key) {
+        return (int) key;
+    }
+
+    /**
+     * The chunks one build needs, from its first request until {@link #close}.
+     */
+    final class Session {
+        private final World world;
+        private final int lookahead;
+        // Chunks requested by this session, the ones the build may write to, and the ones held
+        private final Set<Long> requested = new HashSet<>();
+        private final Set<Long> ready = new HashSet<>();
+        private final Set<Long> held = new HashSet<>();
+        private int inFlight = 0;
+        // Plan entries already looked at by preload
+        private int scanned = 0;
+        private int loads = 0;
+        private boolean closed = false;
+        // Last chunk found ready, to skip the set lookup for runs of blocks in one chunk
+        private long lastReady = Long.MIN_VALUE;
+
+        private Session(World world, int lookahead) {
+            this.world = world;
+            this.lookahead = lookahead;
+        }
+
+        /**
+         * Request the chunks of the entries from {@code cursor} up to the lookahead, and return
+         * how many entries from {@code cursor} on (at most {@code max}) can be placed right now
+         * because their chunk is loaded and held.
+         */
+        int available(int ox, int oz, BuildPlan plan, int cursor, int max) {
+            preload(ox, oz, plan, cursor);
+            int end = Math.min(plan.size(), cursor + max);
+            for (int i = cursor; i < end; i++) {
+                long pos = plan.position(i);
+                long key = chunkKey((ox + BuildPlan.unpackX(pos)) >> 4, (oz + BuildPlan.unpackZ(pos)) >> 4);
+                if (key != lastReady) {
+                    if (!ready.contains(key)) {
+                        return i - cursor;
+                    }
+                    lastReady = key;
+                }
+            }
+            return end - cursor;
+        }
+
+        private void preload(int ox, int oz, BuildPlan plan, int cursor) {
+            scanned = Math.max(scanned, cursor);
+            int end = Math.min(plan.size(), cursor + lookahead);
+            long last = Long.MIN_VALUE;
+            for (; scanned < end; scanned++) {
+                long pos = plan.position(scanned);
+                int cx = (ox + BuildPlan.unpackX(pos)) >> 4;
+                int cz = (oz + BuildPlan.unpackZ(pos)) >> 4;
+                long key = chunkKey(cx, cz);
+                if (key == last || requested.contains(key)) {
+                    last = key;
+                    continue;
+                }
+                if (world.isChunkLoaded(cx, cz)) {
+                    requested.add(key);
+                    arrived(key);
+                } else if (inFlight < MAX_IN_FLIGHT) {
+                    requested.add(key);
+                    request(cx, cz, key);
+                } else {
+                    return; // Pick up from here once some of the loads are in
+                }
+                last = key;
+            }
+        }
+
+        private void request(int cx, int cz, long key) {
+            inFlight++;
+            loads++;
+            // Paper completes these futures on the main thread
+            world.getChunkAtAsync(cx, cz, true).whenComplete((chunk, error) -> {
+                inFlight--;
+                if (error != null || chunk == null) {
+                    // Let the build write it anyway; the server loads it on the spot as it used to
+                    plugin.getLogger().warning("Failed to load chunk " + cx + "," + cz + " ahead of a build" +
+                            (error != null ? ": " + error.getMessage() : ""));
+                    if (!closed) {
+                        ready.add(key);
+                    }
+                    return;
+                }
+                arrived(key);
+            });
+        }
+
+        private void arrived(long key) {
+            if (closed) {
+                return;
+            }
+            ready.add(key);
+            held.add(key);
+            hold(world, key);
+        }
+
+        /** Chunks this session had to load (as opposed to finding them loaded). */
+        int loads() {
+            return loads;
+        }
+
+        /** Give back every ticket this session took. Later arrivals are ignored. */
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (long key : held) {
+                release(world, key);
+            }
+            held.clear();
+            ready.clear();
+            requested.clear();
+        }
+    }
+}
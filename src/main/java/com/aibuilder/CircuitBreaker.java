@@ -0,0 +1,78 @@
+package com.aibuilder;
+
+/**
+ * Stops calling a backend that keeps failing. After {@code threshold} failures in a row the
+ * breaker opens and every call fails fast for {@code openMillis}; then one trial call is let
+ * through (half-open), and its outcome closes the breaker or opens it again.
+ *
+ * Thread-safe; all methods are cheap and never block.
+ */
+final class CircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int threshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt;
+    private long opens = 0;
+
+    CircuitBreaker(int threshold, long openMillis) {
+        this.threshold = Math.max(1, threshold);
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Whether a call may go ahead now. While half-open only the first caller gets through.
+     */
+    synchronized boolean allow() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return state == State.CLOSED;
+    }
+
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= threshold) {
+            if (state != State.OPEN) {
+                opens++;
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * The call {@link #allow} let through ended without telling us anything (cancelled). A
+     * half-open breaker lets the next caller try instead.
+     */
+    synchronized void abandon() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis() - openMillis;
+        }
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    /** How many times the breaker has opened. */
+    synchronized long opens() {
+        return opens;
+    }
+
+    /** Milliseconds until an open breaker lets a trial call through; 0 if it isn't open. */
+    synchronized long remainingMillis() {
+        return state == State.OPEN ? Math.max(0, openMillis - (System.currentTimeMillis() - openedAt)) : 0;
+    }
+}
@@ -1,62 +1,154 @@
 package com.aibuilder;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages per-player conversation history so the AI can have multi-turn
  * conversations (e.g., asking clarifying questions before building).
+ *
+ * Safe to use from any thread: each conversation is an immutable snapshot replaced atomically
+ * in a {@link ConcurrentHashMap}, so callers can hand {@link #getHistory} straight to an async
+ * request. History is capped at {@code history-token-budget} (estimated) tokens; when a turn
+ * pushes it over, the oldest turns are folded into a short summary so prompt size stays flat.
  */
 public class ConversationManager {
 
     private final AIBuilderPlugin plugin;
-    private final Map<UUID, List<ConversationMessage>> conversations = new HashMap<>();
+    private final Map<UUID, Conversation> conversations = new ConcurrentHashMap<>();
 
     // Conversations expire after 5 minutes of inactivity
-    private final Map<UUID, Long> lastActivity = new HashMap<>();
     private static final long TIMEOUT_MS = 5 * 60 * 1000;
+    private static final long WHEEL_TICK_MS = 5 * 1000;
+    private static final int WHEEL_SLOTS = 64;
+    private final TimingWheel<UUID> expiry = new TimingWheel<>(WHEEL_TICK_MS, WHEEL_SLOTS, System.currentTimeMillis());
+
+    // Rough tokens-per-message overhead and characters per token, close enough for budgeting
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+    private static final int CHARS_PER_TOKEN = 4;
+    // Longest excerpt of a single turn kept in the summary
+    private static final int SUMMARY_EXCERPT_CHARS = 160;
+    private static final String SUMMARY_HEADER = "Earlier in this conversation (summarised):";
+
+    private record Conversation(List<ConversationMessage> messages, long lastActivity) {
+    }
 
     public ConversationManager(AIBuilderPlugin plugin) {
         this.plugin = plugin;
 
-        // Clean up stale conversations every minute
-        plugin.getServer().getScheduler().runTaskTimer(plugin, (Runnable) this::cleanup, 1200L, 1200L);
+        // Expire stale conversations as their slot of the wheel comes up
+        plugin.getScheduling().asyncTimer(this::expire, WHEEL_TICK_MS);
     }
 
+    /**
+     * The player's history as an immutable snapshot.
+     */
     public List<ConversationMessage> getHistory(UUID playerId) {
-        cleanup(playerId);
-        return conversations.getOrDefault(playerId, new ArrayList<>());
+        Conversation conversation = active(playerId);
+        return conversation == null ? List.of() : conversation.messages();
     }
 
     public void addMessage(UUID playerId, ConversationMessage message) {
-        conversations.computeIfAbsent(playerId, k -> new ArrayList<>()).add(message);
-        lastActivity.put(playerId, System.currentTimeMillis());
+        long now = System.currentTimeMillis();
+        int budget = plugin.getConfig().getInt("history-token-budget", 3000);
+        conversations.compute(playerId, (id, old) -> {
+            List<ConversationMessage> messages = new ArrayList<>();
+            if (old != null && now - old.lastActivity() <= TIMEOUT_MS) {
+                messages.addAll(old.messages());
+            }
+            messages.add(message);
+            if (tokens(messages) > budget) {
+                messages = compact(messages, budget);
+            }
+            return new Conversation(List.copyOf(messages), now);
+        });
+        expiry.schedule(playerId, now + TIMEOUT_MS);
     }
 
     public void clearConversation(UUID playerId) {
         conversations.remove(playerId);
-        lastActivity.remove(playerId);
     }
 
     public boolean hasActiveConversation(UUID playerId) {
-        cleanup(playerId);
-        return conversations.containsKey(playerId) && !conversations.get(playerId).isEmpty();
+        Conversation conversation = active(playerId);
+        return conversation != null && !conversation.messages().isEmpty();
     }
 
-    private void cleanup(UUID playerId) {
-        Long last = lastActivity.get(playerId);
-        if (last != null && System.currentTimeMillis() - last > TIMEOUT_MS) {
-            clearConversation(playerId);
+    private Conversation active(UUID playerId) {
+        Conversation conversation = conversations.get(playerId);
+        if (conversation != null && System.currentTimeMillis() - conversation.lastActivity() > TIMEOUT_MS) {
+            conversations.remove(playerId, conversation);
+            return null;
         }
+        return conversation;
     }
 
-    private void cleanup() {
-        List<UUID> expired = new ArrayList<>();
+    private void expire() {
         long now = System.currentTimeMillis();
-        for (Map.Entry<UUID, Long> entry : lastActivity.entrySet()) {
-            if (now - entry.getValue() > TIMEOUT_MS) {
-                expired.add(entry.getKey());
+        // Keys are scheduled lazily, so only remove the ones that really went quiet
+        expiry.advance(now, playerId -> conversations.computeIfPresent(playerId,
+                (id, c) -> now - c.lastActivity() > TIMEOUT_MS ? null : c));
+    }
+
+    /**
+     * Fold the oldest turns into a summary until the rest fits. The summary gets at most a
+     * quarter of the budget and the newest message is always kept whole.
+     */
+    static List<ConversationMessage> compact(List<ConversationMessage> messages, int budget) {
+        int summaryBudget = budget / 4;
+        int total = tokens(messages);
+        int keepFrom = 0;
+        while (keepFrom < messages.size() - 1 && total > budget - summaryBudget) {
+            total -= tokens(messages.get(keepFrom));
+            keepFrom++;
+        }
+
+        // Previous summary lines first, then one line per dropped turn, oldest first
+        Deque<String> lines = new ArrayDeque<>();
+        for (ConversationMessage m : messages.subList(0, keepFrom)) {
+            if ("system".equals(m.role()) && m.content().startsWith(SUMMARY_HEADER)) {
+                m.content().substring(SUMMARY_HEADER.length()).lines()
+                        .filter(line -> !line.isBlank())
+                        .forEach(lines::add);
+            } else {
+                String who = "user".equals(m.role()) ? "- Player: " : "- You: ";
+                lines.add(who + excerpt(m.content()));
             }
         }
-        expired.forEach(this::clearConversation);
+        int summaryTokens = estimate(SUMMARY_HEADER);
+        for (String line : lines) {
+            summaryTokens += estimate(line);
+        }
+        while (summaryTokens > summaryBudget && !lines.isEmpty()) {
+            summaryTokens -= estimate(lines.pollFirst());
+        }
+
+        List<ConversationMessage> compacted = new ArrayList<>();
+        if (!lines.isEmpty()) {
+            compacted.add(ConversationMessage.summary(SUMMARY_HEADER + "\n" + String.join("\n", lines)));
+        }
+        compacted.addAll(messages.subList(keepFrom, messages.size()));
+        return compacted;
+    }
+
+    private static String excerpt(String content) {
+        String flat = content.strip().replaceAll("\\s+", " ");
+        return flat.length() <= SUMMARY_EXCERPT_CHARS ? flat : flat.substring(0, SUMMARY_EXCERPT_CHARS) + "...";
+    }
+
+    private static int tokens(List<ConversationMessage> messages) {
+        int total = 0;
+        for (ConversationMessage m : messages) {
+            total += tokens(m);
+        }
+        return total;
+    }
+
+    private static int tokens(ConversationMessage message) {
+        return MESSAGE_OVERHEAD_TOKENS + estimate(message.content());
+    }
+
+    private static int estimate(String text) {
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
     }
 }
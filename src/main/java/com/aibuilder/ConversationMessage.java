@@ -12,4 +12,9 @@ public record ConversationMessage(String role, String content) {
     public static ConversationMessage assistant(String content) {
         return new ConversationMessage("assistant", content);
     }
+
+    /** Condensed older turns, standing in for history that no longer fits the token budget. */
+    public static ConversationMessage summary(String content) {
+        return new ConversationMessage("system", content);
+    }
 }
@@ -0,0 +1,174 @@
+package com.aibuilder;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Large builds ({@code /ai large ...}): one cheap request lays the structure out as regions,
+ * then every region is requested at once and streamed into a single build as it arrives. A
+ * castle takes about as long as its biggest tower instead of the whole castle in one answer,
+ * and no single answer has to fit the whole thing under the token limit.
+ *
+ * Region requests share the player's ticket, so {@code /ai cancel} stops all of them, and they
+ * take slots from the request limiter like any other request.
+ */
+final class LargeBuild {
+
+    // Blocks a region may place outside its box (eaves, overhangs)
+    private static final int REGION_MARGIN = 1;
+
+    private final AIBuilderPlugin plugin;
+    private final Player player;
+    private final RequestLimiter.Ticket ticket;
+    private final Location origin;
+    private final Prompt base;
+
+    private LargeBuild(AIBuilderPlugin plugin, Player player, RequestLimiter.Ticket ticket, Location origin,
+                       Prompt base) {
+        this.plugin = plugin;
+        this.player = player;
+        this.ticket = ticket;
+        this.origin = origin;
+        this.base = base;
+    }
+
+    /**
+     * Start a large build for the player's conversation under an open {@code ticket}, once the
+     * site around the player is surveyed. On the player's thread only.
+     */
+    static void start(AIBuilderPlugin plugin, Player player, RequestLimiter.Ticket ticket) {
+        AIService ai = plugin.getAIService();
+        RequestLimiter limiter = plugin.getRequestLimiter();
+        Location origin = player.getLocation();
+        Prompt base = ai.prompt(plugin.getConversationManager().getHistory(player.getUniqueId()), origin);
+        // Held across the survey, which submits nothing to the limiter
+        limiter.hold(ticket);
+        plugin.getSiteSurvey().describe(origin).thenAccept(site -> plugin.getScheduling().forPlayer(player, () -> {
+            if (!ticket.isCancelled() && player.isOnline()) {
+                new LargeBuild(plugin, player, ticket, origin, ai.withSurroundings(base, site.description()))
+                        .requestLayout();
+            }
+            limiter.release(ticket);
+        }, () -> limiter.release(ticket)));
+    }
+
+    private void requestLayout() {
+        AIService ai = plugin.getAIService();
+        RequestLimiter limiter = plugin.getRequestLimiter();
+        // Keep the ticket open from the layout until the last region is in
+        limiter.hold(ticket);
+        ai.layout(ai.layoutPrompt(base), ticket).whenComplete((layout, error) ->
+                plugin.getScheduling().forPlayer(player, () -> {
+                    if (error != null || ticket.isCancelled() || !player.isOnline()) {
+                        limiter.release(ticket);
+                        return;
+                    }
+                    switch (layout.type()) {
+                        case CLARIFY -> {
+                            plugin.getConversationManager().addMessage(player.getUniqueId(),
+                                    ConversationMessage.assistant(layout.message()));
+                            player.sendMessage(Component.text("[AI] ", NamedTextColor.AQUA)
+                                    .append(Component.text(layout.message(), NamedTextColor.WHITE)));
+                            limiter.release(ticket);
+                        }
+                        case BUILD -> buildRegions(layout);
+                        case ERROR -> {
+                            player.sendMessage(Component.text("[AI Error] ", NamedTextColor.RED)
+                                    .append(Component.text(layout.message(), NamedTextColor.YELLOW)));
+                            limiter.release(ticket);
+                        }
+                    }
+                }, () -> limiter.release(ticket)));
+    }
+
+    private void buildRegions(BuildLayout proposed) {
+        RequestLimiter limiter = plugin.getRequestLimiter();
+        int maxRegions = plugin.getConfig().getInt("large-build-max-regions", 8);
+        int maxExtent = plugin.getConfig().getInt("max-build-size", 256);
+        int maxBlocks = plugin.getConfig().getInt("large-build-max-blocks", 50000);
+
+        List<BuildLayout.Region> regions = new ArrayList<>();
+        for (BuildLayout.Region region : proposed.regions()) {
+            if (regions.size() < maxRegions && withinExtent(region, maxExtent)) {
+                regions.add(region);
+            }
+        }
+        if (regions.isEmpty()) {
+            player.sendMessage(Component.text("[AI Error] ", NamedTextColor.RED)
+                    .append(Component.text("The layout had no usable regions. Try again.", NamedTextColor.YELLOW)));
+            limiter.release(ticket);
+            return;
+        }
+        BuildLayout layout = new BuildLayout(AIResponse.Type.BUILD, proposed.message(), regions);
+
+        player.sendMessage(Component.text("[AI] ", NamedTextColor.AQUA)
+                .append(Component.text(layout.message(), NamedTextColor.GREEN))
+                .append(Component.text(" - building " + regions.size() + " parts at once: " +
+                        String.join(", ", regions.stream().map(BuildLayout.Region::name).toList()),
+                        NamedTextColor.GRAY)));
+
+        // Every part must exist before the first one can close the merged queue
+        PlacementQueue merged = new PlacementQueue();
+        List<PlacementQueue> parts = new ArrayList<>();
+        for (int i = 0; i < regions.size(); i++) {
+            parts.add(merged.part(layout.owner(i, REGION_MARGIN)));
+        }
+        plugin.getBuildEngine().buildStreaming(player, origin, merged, layout.message(), maxBlocks);
+        plugin.getConversationManager().clearConversation(player.getUniqueId());
+
+        AIService ai = plugin.getAIService();
+        AtomicInteger finished = new AtomicInteger();
+        List<CompletableFuture<?>> requests = new ArrayList<>();
+        for (int i = 0; i < regions.size(); i++) {
+            BuildLayout.Region region = regions.get(i);
+            PlacementQueue part = parts.get(i);
+            requests.add(ai.chatStreaming(ai.regionPrompt(base, layout, i), ticket, part, maxBlocks, d -> { })
+                    .whenComplete((response, error) -> {
+                        // A request cancelled while queued never ran, so never closed its part
+                        part.close();
+                        int done = finished.incrementAndGet();
+                        if (ticket.isCancelled()) {
+                            return;
+                        }
+                        plugin.getScheduling().forPlayer(player, () ->
+                                reportRegion(region, response, done, regions.size(), merged));
+                    }));
+        }
+        CompletableFuture.allOf(requests.toArray(CompletableFuture[]::new))
+                .whenComplete((v, error) -> limiter.release(ticket));
+    }
+
+    private void reportRegion(BuildLayout.Region region, AIResponse response, int done, int total,
+                              PlacementQueue merged) {
+        if (!player.isOnline()) {
+            return;
+        }
+        String progress = " (" + done + "/" + total + ")";
+        if (response != null && response.type() == AIResponse.Type.BUILD) {
+            player.sendMessage(Component.text("Part '" + region.name() + "' received" + progress,
+                    NamedTextColor.GRAY));
+        } else {
+            String reason = response != null && response.type() == AIResponse.Type.ERROR
+                    ? response.message() : "the AI didn't send any blocks";
+            player.sendMessage(Component.text("Part '" + region.name() + "' was skipped: " + reason + progress,
+                    NamedTextColor.YELLOW));
+        }
+        if (done == total && merged.clipped() > 0) {
+            player.sendMessage(Component.text("Removed " + merged.clipped() + " out-of-bounds blocks.",
+                    NamedTextColor.GRAY));
+        }
+    }
+
+    private static boolean withinExtent(BuildLayout.Region region, int maxExtent) {
+        return Math.max(Math.abs(region.minX()), Math.abs(region.maxX())) <= maxExtent
+                && Math.max(Math.abs(region.minZ()), Math.abs(region.maxZ())) <= maxExtent
+                && Math.max(Math.abs(region.minY()), Math.abs(region.maxY())) <= maxExtent;
+    }
+}
@@ -0,0 +1,113 @@
+package com.aibuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Simulated players for load testing the request pipeline: each one sends its requests back to
+ * back, through the request limiter, the backend and the parser/compiler, exactly as
+ * {@code /ai} would. Nothing is placed in the world.
+ *
+ * Meant for the mock or a local compatible backend; against OpenAI it would spend real tokens.
+ */
+final class LoadTest {
+
+    /**
+     * Latencies are from submitting a request to having its build plan, queueing included.
+     */
+    record Report(int players, int requests, int failed, int rejected, double seconds,
+                  double p50Millis, double p95Millis, double p99Millis, double maxMillis) {
+        double requestsPerSecond() {
+            return seconds == 0 ? 0 : requests / seconds;
+        }
+    }
+
+    private final AIBuilderPlugin plugin;
+    private final Prompt base;
+    private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    private LoadTest(AIBuilderPlugin plugin, Prompt base) {
+        this.plugin = plugin;
+        this.base = base;
+    }
+
+    /**
+     * Run {@code players} simulated players with {@code requestsPerPlayer} requests each.
+     * {@code base} supplies the system prompt and context; each request gets its own user message.
+     */
+    static CompletableFuture<Report> run(AIBuilderPlugin plugin, Prompt base, int players, int requestsPerPlayer) {
+        LoadTest test = new LoadTest(plugin, base);
+        long started = System.nanoTime();
+        List<CompletableFuture<Void>> chains = new ArrayList<>(players);
+        for (int p = 0; p < players; p++) {
+            UUID playerId = UUID.randomUUID();
+            CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+            for (int r = 0; r < requestsPerPlayer; r++) {
+                String message = "Build test structure " + (p * requestsPerPlayer + r);
+                chain = chain.thenCompose(v -> test.request(playerId, message));
+            }
+            chains.add(chain);
+        }
+        return CompletableFuture.allOf(chains.toArray(CompletableFuture[]::new))
+                .thenApply(v -> test.report(players, System.nanoTime() - started));
+    }
+
+    private CompletableFuture<Void> request(UUID playerId, String message) {
+        RequestLimiter limiter = plugin.getRequestLimiter();
+        RequestLimiter.Ticket ticket = limiter.isFull() ? null : limiter.open(playerId);
+        if (ticket == null) {
+            rejected.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Prompt prompt = new Prompt(base.system(), List.of(ConversationMessage.user(message)), base.context());
+        long started = System.nanoTime();
+        CompletableFuture<Boolean> done;
+        if (plugin.getConfig().getBoolean("stream-responses", true)) {
+            PlacementQueue queue = new PlacementQueue();
+            done = plugin.getAIService().chatStreaming(prompt, ticket, queue, description -> { })
+                    .thenApply(response -> response.type() != AIResponse.Type.ERROR);
+        } else {
+            int maxBlocks = plugin.getConfig().getInt("max-blocks", 10000);
+            int maxExtent = plugin.getConfig().getInt("max-build-size", 256);
+            done = plugin.getAIService().chat(prompt, ticket).thenCompose(response -> {
+                if (response.type() != AIResponse.Type.BUILD) {
+                    return CompletableFuture.completedFuture(response.type() != AIResponse.Type.ERROR);
+                }
+                return plugin.getPlanCompiler()
+                        .compileAsync(response.blocks(), response.shapes(), maxBlocks, maxExtent)
+                        .thenApply(result -> !result.tooLarge());
+            });
+        }
+        return done.handle((ok, error) -> {
+            latencies.add(System.nanoTime() - started);
+            if (error != null || !ok) {
+                failed.incrementAndGet();
+            }
+            return null;
+        });
+    }
+
+    private Report report(int players, long elapsedNanos) {
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        return new Report(players, sorted.length, failed.get(), rejected.get(), elapsedNanos / 1e9,
+                percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99),
+                sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,115 @@
+package com.aibuilder;
+
+import org.bukkit.Material;
+import org.bukkit.block.data.BlockData;
+
+import java.util.*;
+
+/**
+ * The distinct block states used by a build. Each material name is resolved once, when it is
+ * first seen, into a {@link Material} and a {@link BlockData} snapshot; the plan then refers to
+ * it by a short palette index. Names that do not resolve to a placeable block are counted so
+ * they can be reported before (or after) the build instead of failing block by block.
+ *
+ * Filled by a single producer thread. Entries are written before the plan publishes the
+ * indices that refer to them, so readers on the main thread always see complete entries.
+ */
+public final class MaterialPalette {
+
+    public static final int INVALID = -1;
+
+    private final Map<String, Integer> byName = new HashMap<>();
+    private final Map<Material, Integer> byMaterial = new EnumMap<>(Material.class);
+    private final Map<String, Integer> invalid = new LinkedHashMap<>();
+    private Map<BlockData, Integer> byData;
+
+    private Material[] materials = new Material[16];
+    private BlockData[] blockData = new BlockData[16];
+    private boolean[] occluding = new boolean[16];
+    private boolean[] air = new boolean[16];
+    private int size = 0;
+
+    /**
+     * Palette index for a material name, or {@link #INVALID} if it is not a placeable block.
+     */
+    public int resolve(String name) {
+        Integer known = byName.get(name);
+        if (known != null) {
+            return known;
+        }
+
+        Material material = Material.matchMaterial(name);
+        int index;
+        if (material == null || !material.isBlock()) {
+            index = INVALID;
+        } else {
+            index = byMaterial.computeIfAbsent(material, m -> add(m.createBlockData()));
+        }
+        byName.put(name, index);
+        return index;
+    }
+
+    /**
+     * Record placements that were dropped because {@code name} did not resolve.
+     */
+    public void noteInvalid(String name, int uses) {
+        invalid.merge(name, uses, Integer::sum);
+    }
+
+    /**
+     * Palette index for an exact block state read from the world, adding it the first time
+     * it is seen (undo journals).
+     */
+    public int capture(BlockData data) {
+        if (byData == null) {
+            byData = new HashMap<>();
+        }
+        Integer known = byData.get(data);
+        if (known != null) {
+            return known;
+        }
+        int index = add(data);
+        byData.put(data, index);
+        return index;
+    }
+
+    /**
+     * Add an exact block state (used when replaying captured world state).
+     */
+    public int add(BlockData data) {
+        if (size == materials.length) {
+            if (size >= Short.MAX_VALUE) {
+                throw new IllegalStateException("Palette full");
+            }
+            int grown = Math.min(size * 2, Short.MAX_VALUE);
+            materials = Arrays.copyOf(materials, grown);
+            blockData = Arrays.copyOf(blockData, grown);
+            occluding = Arrays.copyOf(occluding, grown);
+            air = Arrays.copyOf(air, grown);
+        }
+        materials[size] = data.getMaterial();
+        blockData[size] = data;
+        occluding[size] = data.getMaterial().isOccluding();
+        air[size] = data.getMaterial().isAir();
+        return size++;
+    }
+
+    public Material material(int index) { return materials[index]; }
+    public BlockData blockData(int index) { return blockData[index]; }
+    public boolean isOccluding(int index) { return occluding[index]; }
+    public boolean isAir(int index) { return air[index]; }
+    public int size() { return size; }
+
+    /** Unknown material names and how many placements used each. */
+    public Map<String, Integer> invalidMaterials() {
+        return Collections.unmodifiableMap(invalid);
+    }
+
+    public int invalidCount() {
+        int total = 0;
+        for (int count : invalid.values()) {
+            total += count;
+        }
+        return total;
+    }
+}
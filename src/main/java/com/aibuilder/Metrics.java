@@ -0,0 +1,205 @@
+package com.aibuilder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timers and counters for the whole request to build pipeline, shown by {@code /ai stats} and
+ * served in the Prometheus text format by {@link MetricsServer}.
+ *
+ * Stage latencies go into HdrHistogram {@link Recorder}s, which are wait-free and allocate
+ * nothing when recording, so the build loop on the main thread can time every tick. Readers
+ * fold what was recorded since the last read into a cumulative histogram under this object's
+ * lock. Counters are plain atomics.
+ */
+public class Metrics {
+
+    /** Timed stages, in pipeline order. */
+    public enum Stage {
+        TRIGGER("trigger", "chat message heard to request handled"),
+        SURVEY("survey", "surveying the site around the player for the prompt"),
+        SLOT_WAIT("slot_wait", "waiting for a free AI request slot"),
+        FIRST_TOKEN("first_token", "request sent to first streamed token"),
+        RESPONSE("response", "whole AI request"),
+        PARSE("parse", "parsing the AI response"),
+        COMPILE("compile", "compiling a response into a build plan"),
+        FIRST_BLOCK("first_block", "build queued to first block placed"),
+        BUILD("build", "build queued to build complete"),
+        END_TO_END("end_to_end", "player message to build complete"),
+        TICK("tick", "main-thread time in the build loop, per tick");
+
+        final String key;
+        final String description;
+
+        Stage(String key, String description) {
+            this.key = key;
+            this.description = description;
+        }
+
+        public String key() { return key; }
+        public String description() { return description; }
+    }
+
+    /** Percentiles of one stage since startup, in microseconds. */
+    public record Timer(long count, long totalMicros, long p50, long p95, long p99, long max) {
+    }
+
+    // Microseconds; one hour is plenty for a whole build, two digits keep each histogram small
+    private static final long HIGHEST_MICROS = 3_600_000_000L;
+    private static final int DIGITS = 2;
+    // Distinct material names kept per skip reason; the AI can invent any number of them
+    private static final int MAX_MATERIALS = 64;
+    private static final String OTHER = "other";
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final Recorder[] recorders = new Recorder[STAGES.length];
+    private final Histogram[] intervals = new Histogram[STAGES.length];
+    private final Histogram[] totals = new Histogram[STAGES.length];
+    private final AtomicLongArray totalNanos = new AtomicLongArray(STAGES.length);
+
+    private final AtomicLong chatRequests = new AtomicLong();
+    private final AtomicLong commandRequests = new AtomicLong();
+    private final AtomicLong requestsSent = new AtomicLong();
+    private final AtomicLong requestsCoalesced = new AtomicLong();
+    private final AtomicLong blocksPlaced = new AtomicLong();
+    private final AtomicLong blocksUnchanged = new AtomicLong();
+    private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> unknownMaterials = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> failedMaterials = new ConcurrentHashMap<>();
+
+    // When each player's current request started, for END_TO_END
+    private final Map<UUID, Long> requestStarts = new ConcurrentHashMap<>();
+
+    // Set by the build loop every tick
+    private volatile int activeBuilds = 0;
+    private volatile long pendingBlocks = 0;
+
+    public Metrics() {
+        for (int i = 0; i < STAGES.length; i++) {
+            recorders[i] = new Recorder(1, HIGHEST_MICROS, DIGITS);
+            totals[i] = new Histogram(1, HIGHEST_MICROS, DIGITS);
+        }
+    }
+
+    /** Record one run of {@code stage}. Any thread; allocation-free. */
+    public void record(Stage stage, long nanos) {
+        int i = stage.ordinal();
+        totalNanos.addAndGet(i, nanos);
+        recorders[i].recordValue(Math.max(1, Math.min(HIGHEST_MICROS, nanos / 1000)));
+    }
+
+    /**
+     * A player's message reached the AI pipeline; {@code receivedAt} is when it was heard
+     * ({@link System#nanoTime}). The next build this player finishes closes the trace.
+     */
+    public void requestStarted(UUID playerId, long receivedAt, boolean chat) {
+        (chat ? chatRequests : commandRequests).incrementAndGet();
+        requestStarts.put(playerId, receivedAt);
+    }
+
+    /** A player's build finished: records {@link Stage#END_TO_END} if a request led to it. */
+    public void buildFinished(UUID playerId) {
+        Long started = requestStarts.remove(playerId);
+        if (started != null) {
+            record(Stage.END_TO_END, System.nanoTime() - started);
+        }
+    }
+
+    public void forgetPlayer(UUID playerId) {
+        requestStarts.remove(playerId);
+    }
+
+    /** An AI request was sent for one or more players. */
+    public void requestSent() {
+        requestsSent.incrementAndGet();
+    }
+
+    /** A player's request joined an identical one already in flight instead of being sent. */
+    public void requestCoalesced() {
+        requestsCoalesced.incrementAndGet();
+    }
+
+    /** Share of the requests that reached the AI stage which rode along on another one, 0 to 1. */
+    public double coalescingRatio() {
+        long coalesced = requestsCoalesced.get();
+        long total = coalesced + requestsSent.get();
+        return total == 0 ? 0.0 : (double) coalesced / total;
+    }
+
+    /** A request ended in an error of the given kind ("http", "network", "cancelled", ...). */
+    public void error(String kind) {
+        errors.computeIfAbsent(kind, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    public void blocksPlaced(int n) {
+        blocksPlaced.addAndGet(n);
+    }
+
+    /** Blocks a build left alone because the world already held them. */
+    public void blocksUnchanged(int n) {
+        blocksUnchanged.addAndGet(n);
+    }
+
+    /** Placements dropped because the AI named a material that doesn't exist. */
+    public void unknownMaterial(String name, int uses) {
+        count(unknownMaterials, name, uses);
+    }
+
+    /** A block that failed to place (outside the world, or the write threw). */
+    public void placementFailed(String material) {
+        count(failedMaterials, material, 1);
+    }
+
+    /** Build loop gauges, from the main thread once per tick. */
+    public void builds(int active, long pending) {
+        activeBuilds = active;
+        pendingBlocks = pending;
+    }
+
+    private static void count(Map<String, AtomicLong> counts, String name, int n) {
+        AtomicLong counter = counts.get(name);
+        if (counter == null) {
+            counter = counts.computeIfAbsent(counts.size() < MAX_MATERIALS ? name : OTHER, k -> new AtomicLong());
+        }
+        counter.addAndGet(n);
+    }
+
+    /** Everything recorded for {@code stage} so far. */
+    public synchronized Timer timer(Stage stage) {
+        int i = stage.ordinal();
+        intervals[i] = recorders[i].getIntervalHistogram(intervals[i]);
+        Histogram total = totals[i];
+        total.add(intervals[i]);
+        return new Timer(total.getTotalCount(), totalNanos.get(i) / 1000,
+                total.getValueAtPercentile(50), total.getValueAtPercentile(95),
+                total.getValueAtPercentile(99), total.getMaxValue());
+    }
+
+    public long chatRequests() { return chatRequests.get(); }
+    public long commandRequests() { return commandRequests.get(); }
+    public long requestsSent() { return requestsSent.get(); }
+    public long requestsCoalesced() { return requestsCoalesced.get(); }
+    public long blocksPlaced() { return blocksPlaced.get(); }
+    public long blocksUnchanged() { return blocksUnchanged.get(); }
+    public int activeBuilds() { return activeBuilds; }
+    public long pendingBlocks() { return pendingBlocks; }
+
+    public Map<String, Long> errors() { return snapshot(errors); }
+    public Map<String, Long> unknownMaterials() { return snapshot(unknownMaterials); }
+    public Map<String, Long> failedMaterials() { return snapshot(failedMaterials); }
+
+    private static Map<String, Long> snapshot(Map<String, AtomicLong> counts) {
+        Map<String, Long> copy = new TreeMap<>();
+        counts.forEach((name, count) -> copy.put(name, count.get()));
+        return Collections.unmodifiableMap(copy);
+    }
+}
@@ -0,0 +1,163 @@
+package com.aibuilder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves {@link Metrics} at {@code /metrics} in the Prometheus text format, on
+ * {@code metrics-port} (0 turns it off) bound to {@code metrics-bind-address}, loopback unless
+ * configured otherwise. Scrapes only read atomics and histograms, never Bukkit state, so they
+ * are answered on their own virtual threads without touching the main thread.
+ */
+final class MetricsServer {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final AIBuilderPlugin plugin;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("AIBuilder-metrics-", 0).factory());
+
+    private MetricsServer(AIBuilderPlugin plugin, HttpServer server) {
+        this.plugin = plugin;
+        this.server = server;
+        server.createContext("/metrics", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Start the endpoint if {@code metrics-port} is set. Returns null if it is off or the port
+     * can't be bound.
+     */
+    static MetricsServer start(AIBuilderPlugin plugin) {
+        int port = plugin.getConfig().getInt("metrics-port", 0);
+        if (port <= 0) {
+            return null;
+        }
+        String host = plugin.getConfig().getString("metrics-bind-address", "127.0.0.1");
+        try {
+            MetricsServer metrics = new MetricsServer(plugin, HttpServer.create(new InetSocketAddress(host, port), 0));
+            plugin.getLogger().info("Serving metrics on http://" + host + ":" + port + "/metrics");
+            return metrics;
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to start metrics endpoint on " + host + ":" + port + ": " +
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private String render() {
+        Metrics metrics = plugin.getMetrics();
+        StringBuilder out = new StringBuilder(4096);
+
+        header(out, "aibuilder_stage_seconds", "summary", "Latency of each pipeline stage");
+        for (Metrics.Stage stage : Metrics.Stage.values()) {
+            Metrics.Timer timer = metrics.timer(stage);
+            String labels = "stage=\"" + stage.key() + "\"";
+            sample(out, "aibuilder_stage_seconds", labels + ",quantile=\"0.5\"", timer.p50() / 1e6);
+            sample(out, "aibuilder_stage_seconds", labels + ",quantile=\"0.95\"", timer.p95() / 1e6);
+            sample(out, "aibuilder_stage_seconds", labels + ",quantile=\"0.99\"", timer.p99() / 1e6);
+            sample(out, "aibuilder_stage_seconds_sum", labels, timer.totalMicros() / 1e6);
+            sample(out, "aibuilder_stage_seconds_count", labels, timer.count());
+        }
+
+        header(out, "aibuilder_requests_total", "counter", "Player requests by how they were made");
+        sample(out, "aibuilder_requests_total", "source=\"chat\"", metrics.chatRequests());
+        sample(out, "aibuilder_requests_total", "source=\"command\"", metrics.commandRequests());
+        header(out, "aibuilder_ai_requests_sent_total", "counter", "AI requests sent, each for one or more players");
+        sample(out, "aibuilder_ai_requests_sent_total", null, metrics.requestsSent());
+        header(out, "aibuilder_requests_coalesced_total", "counter",
+                "Player requests that shared an identical AI request already in flight");
+        sample(out, "aibuilder_requests_coalesced_total", null, metrics.requestsCoalesced());
+
+        header(out, "aibuilder_request_errors_total", "counter", "AI requests that ended in an error, by kind");
+        metrics.errors().forEach((kind, count) ->
+                sample(out, "aibuilder_request_errors_total", "kind=\"" + escape(kind) + "\"", count));
+
+        header(out, "aibuilder_blocks_placed_total", "counter", "Blocks handed to the world by builds");
+        sample(out, "aibuilder_blocks_placed_total", null, metrics.blocksPlaced());
+        header(out, "aibuilder_blocks_unchanged_total", "counter", "Blocks not written because the world already held them");
+        sample(out, "aibuilder_blocks_unchanged_total", null, metrics.blocksUnchanged());
+
+        header(out, "aibuilder_blocks_skipped_total", "counter", "Blocks not placed, by material and reason");
+        skipped(out, metrics.unknownMaterials(), "unknown_material");
+        skipped(out, metrics.failedMaterials(), "failed");
+
+        RequestLimiter limiter = plugin.getRequestLimiter();
+        header(out, "aibuilder_requests_running", "gauge", "AI requests holding a slot");
+        sample(out, "aibuilder_requests_running", null, limiter.running());
+        header(out, "aibuilder_requests_queued", "gauge", "AI requests waiting for a slot");
+        sample(out, "aibuilder_requests_queued", null, limiter.queued());
+        header(out, "aibuilder_builds_active", "gauge", "Builds in progress");
+        sample(out, "aibuilder_builds_active", null, metrics.activeBuilds());
+        header(out, "aibuilder_blocks_pending", "gauge", "Blocks received by builds but not yet placed");
+        sample(out, "aibuilder_blocks_pending", null, metrics.pendingBlocks());
+
+        UsageStats usage = plugin.getAIService().getUsageStats();
+        header(out, "aibuilder_tokens_total", "counter", "Tokens reported by the AI backend");
+        sample(out, "aibuilder_tokens_total", "type=\"prompt\"", usage.promptTokens());
+        sample(out, "aibuilder_tokens_total", "type=\"cached\"", usage.cachedTokens());
+        sample(out, "aibuilder_tokens_total", "type=\"completion\"", usage.completionTokens());
+        return out.toString();
+    }
+
+    private static void skipped(StringBuilder out, Map<String, Long> counts, String reason) {
+        counts.forEach((material, count) -> sample(out, "aibuilder_blocks_skipped_total",
+                "material=\"" + escape(material) + "\",reason=\"" + reason + "\"", count));
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(String.format(Locale.ROOT, "%.6g", value)).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
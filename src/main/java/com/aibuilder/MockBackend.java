@@ -0,0 +1,171 @@
+package com.aibuilder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * In-process stand-in for a model, for load testing and for trying the plugin without an API
+ * key. Answers with recorded responses from {@code mock-responses/*.json} (each file is the
+ * model's message content, as saved by {@code mock-record}), or a small built-in cottage if
+ * there are none.
+ *
+ * Timing follows a real model: {@code mock-latency-ms} before the first token, then
+ * {@code mock-tokens-per-second}. Token usage is estimated, with the system prompt reported
+ * as cached after the first request.
+ */
+public class MockBackend implements AIBackend {
+
+    private static final int CHARS_PER_TOKEN = 4;
+    // Roughly what one SSE chunk from a real provider carries
+    private static final int CHUNK_CHARS = 24;
+    private static final long SLEEP_SLICE_MS = 50;
+
+    private static final String DEFAULT_RESPONSE = """
+        {"action": "build", "description": "Mock cottage",
+         "shapes": [
+           {"type": "fill", "from": [0, 0, 0], "to": [6, 0, 6], "material": "COBBLESTONE"},
+           {"type": "hollow_box", "from": [0, 1, 0], "to": [6, 4, 6], "material": "OAK_PLANKS"},
+           {"type": "fill", "from": [-1, 5, -1], "to": [7, 5, 7], "material": "SPRUCE_PLANKS"}
+         ],
+         "blocks": [
+           {"x": 3, "y": 1, "z": 0, "material": "OAK_DOOR"},
+           {"x": 3, "y": 2, "z": 0, "material": "AIR"},
+           {"x": 1, "y": 2, "z": 0, "material": "GLASS_PANE"},
+           {"x": 5, "y": 2, "z": 0, "material": "GLASS_PANE"},
+           {"x": 0, "y": 2, "z": 3, "material": "GLASS_PANE"},
+           {"x": 6, "y": 2, "z": 3, "material": "GLASS_PANE"},
+           {"x": 1, "y": 2, "z": 1, "material": "TORCH"},
+           {"x": 5, "y": 2, "z": 5, "material": "TORCH"},
+           {"x": 1, "y": 1, "z": 5, "material": "CRAFTING_TABLE"},
+           {"x": 2, "y": 1, "z": 5, "material": "FURNACE"},
+           {"x": 5, "y": 1, "z": 1, "material": "CHEST"}
+         ]}
+        """;
+
+    private final AIBuilderPlugin plugin;
+    private final List<String> responses = new ArrayList<>();
+    private volatile boolean systemCached = false;
+
+    public MockBackend(AIBuilderPlugin plugin) {
+        this.plugin = plugin;
+        loadResponses(responsesDir(plugin));
+        plugin.getLogger().info("Mock AI backend: " + (responses.isEmpty()
+                ? "built-in response" : responses.size() + " recorded responses"));
+    }
+
+    /** Where recorded responses are read from (and written to by {@code mock-record}). */
+    static Path responsesDir(AIBuilderPlugin plugin) {
+        return plugin.getDataFolder().toPath().resolve("mock-responses");
+    }
+
+    @Override
+    public String complete(Prompt prompt, RequestLimiter.Ticket ticket, Consumer<TokenUsage> onUsage)
+            throws IOException {
+        String content = pick(prompt);
+        pause(latencyMillis(), ticket);
+        pause(generationMillis(content.length()), ticket);
+        onUsage.accept(usage(prompt, content));
+        return content;
+    }
+
+    @Override
+    public void stream(Prompt prompt, RequestLimiter.Ticket ticket, StreamListener listener) throws IOException {
+        String content = pick(prompt);
+        pause(latencyMillis(), ticket);
+        for (int i = 0; i < content.length() && !listener.isCancelled(); i += CHUNK_CHARS) {
+            int end = Math.min(content.length(), i + CHUNK_CHARS);
+            listener.onContent(content.substring(i, end));
+            pause(generationMillis(end - i), ticket);
+        }
+        listener.onFinish("stop");
+        listener.onUsage(usage(prompt, content));
+    }
+
+    @Override
+    public String name() {
+        return "mock";
+    }
+
+    private void loadResponses(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.json")) {
+            for (Path file : files) {
+                responses.add(Files.readString(file, StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to read mock responses: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The same request always gets the same answer, so runs are repeatable.
+     */
+    private String pick(Prompt prompt) {
+        if (responses.isEmpty()) {
+            return DEFAULT_RESPONSE;
+        }
+        String last = "";
+        for (ConversationMessage message : prompt.history()) {
+            if ("user".equals(message.role())) {
+                last = message.content();
+            }
+        }
+        return responses.get(Math.floorMod(last.hashCode(), responses.size()));
+    }
+
+    private TokenUsage usage(Prompt prompt, String content) {
+        int system = tokens(prompt.system().length());
+        int prompted = system + tokens(prompt.context().length());
+        for (ConversationMessage message : prompt.history()) {
+            prompted += tokens(message.content().length());
+        }
+        int cached = systemCached ? system : 0;
+        systemCached = true;
+        return new TokenUsage(prompted, cached, tokens(content.length()));
+    }
+
+    private long latencyMillis() {
+        return Math.max(0, plugin.getConfig().getLong("mock-latency-ms", 800));
+    }
+
+    private long generationMillis(int chars) {
+        int tokensPerSecond = Math.max(1, plugin.getConfig().getInt("mock-tokens-per-second", 150));
+        return tokens(chars) * 1000L / tokensPerSecond;
+    }
+
+    private static int tokens(int chars) {
+        return (chars + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Sleep in short slices so a cancelled ticket ends the request about as quickly as an
+     * aborted HTTP call would.
+     */
+    private static void pause(long millis, RequestLimiter.Ticket ticket) throws IOException {
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            long left;
+            while ((left = deadline - System.currentTimeMillis()) > 0) {
+                if (ticket.isCancelled()) {
+                    throw new InterruptedIOException("Request cancelled");
+                }
+                Thread.sleep(Math.min(left, SLEEP_SLICE_MS));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request cancelled");
+        }
+        if (ticket.isCancelled()) {
+            throw new InterruptedIOException("Request cancelled");
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.aibuilder;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import okhttp3.*;
+import okio.BufferedSource;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Chat completions over HTTP: OpenAI itself, or any server that speaks the same API
+ * (llama.cpp, vLLM, LM Studio, ...) at a configurable base URL.
+ *
+ * All requests share one client and connection pool, over HTTP/2 where the server offers it,
+ * so concurrent requests multiplex over a few warm connections. OkHttp asks for gzip and
+ * decompresses transparently as long as we don't set Accept-Encoding ourselves.
+ *
+ * Failed calls (connection errors, 429, 5xx) are retried with jittered exponential backoff,
+ * honouring Retry-After; a {@link CircuitBreaker} fails fast while the backend is down. Calls
+ * to OpenAI are also paced by client-side {@link TokenBucket}s sized to the account's rate
+ * limits, so bursts wait here instead of coming back as 429s.
+ */
+public class OpenAIBackend implements AIBackend {
+
+    private static final String OPENAI_URL = "https://api.openai.com/v1/chat/completions";
+    private static final int CHARS_PER_TOKEN = 4;
+    private static final long SLEEP_SLICE_MS = 100;
+
+    /**
+     * Retry, rate limit and breaker counters, for {@code /aiconfig usage}.
+     */
+    record Stats(long retries, long throttled, long throttledMillis, CircuitBreaker.State breaker,
+                 long breakerOpens, long rejected) {
+    }
+
+    // Read on each use, so /aiconfig changes apply to the next request
+    private final Supplier<? extends ConfigurationSection> config;
+    private final Logger logger;
+    private final OkHttpClient httpClient;
+    private final String url;
+    private final boolean compatible;
+
+    private final CircuitBreaker breaker;
+    private final TokenBucket requestBucket;
+    private final TokenBucket tokenBucket;
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong throttledMillis = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    // Each system message (the build and layout prompts) serialised once, so every request
+    // with that prompt starts with the same bytes; only a handful ever exist
+    private static final int MAX_SYSTEM_MESSAGES = 8;
+    private final Map<String, String> systemMessages = new ConcurrentHashMap<>();
+
+    OpenAIBackend(Supplier<? extends ConfigurationSection> config, Logger logger, String url, boolean compatible) {
+        this.config = config;
+        this.logger = logger;
+        this.url = url;
+        this.compatible = compatible;
+
+        var settings = config.get();
+        this.httpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(settings.getInt("http-max-idle-connections", 8),
+                        5, TimeUnit.MINUTES))
+                .protocols(settings.getBoolean("http2", true)
+                        ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+                // Notices dead HTTP/2 connections before a request is sent down one
+                .pingInterval(30, TimeUnit.SECONDS)
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(120, TimeUnit.SECONDS)  // AI can take a while for large builds
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .build();
+
+        this.breaker = new CircuitBreaker(settings.getInt("breaker-failure-threshold", 5),
+                TimeUnit.SECONDS.toMillis(settings.getLong("breaker-open-seconds", 30)));
+        // A self-hosted server has no account limits to stay under
+        this.requestBucket = new TokenBucket(compatible ? 0 : settings.getLong("rate-limit-requests-per-minute", 500));
+        this.tokenBucket = new TokenBucket(compatible ? 0 : settings.getLong("rate-limit-tokens-per-minute", 30000));
+    }
+
+    /** OpenAI's API, at {@code openai-url}. */
+    public static OpenAIBackend openAI(AIBuilderPlugin plugin) {
+        return new OpenAIBackend(plugin::getConfig, plugin.getLogger(),
+                plugin.getConfig().getString("openai-url", OPENAI_URL), false);
+    }
+
+    /** An OpenAI-compatible server at {@code baseUrl} (e.g. {@code http://localhost:8080/v1}). */
+    public static OpenAIBackend compatible(AIBuilderPlugin plugin, String baseUrl) {
+        String base = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        return new OpenAIBackend(plugin::getConfig, plugin.getLogger(), base + "/chat/completions", true);
+    }
+
+    @Override
+    public String complete(Prompt prompt, RequestLimiter.Ticket ticket, Consumer<TokenUsage> onUsage)
+            throws IOException {
+        Request request = buildRequest(prompt, false);
+        long estimate = throttleTokens(prompt, ticket);
+        try (Response response = execute(request, ticket)) {
+            return ResponseParser.readContent(response.body().charStream(), usage -> {
+                tokenBucket.adjust(usage.promptTokens() + usage.completionTokens() - estimate);
+                onUsage.accept(usage);
+            });
+        }
+    }
+
+    @Override
+    public void stream(Prompt prompt, RequestLimiter.Ticket ticket, StreamListener listener) throws IOException {
+        Request request = buildRequest(prompt, true);
+        long estimate = throttleTokens(prompt, ticket);
+        try (Response response = execute(request, ticket)) {
+            readEventStream(response.body().source(), new StreamListener() {
+                @Override
+                public void onContent(String delta) {
+                    listener.onContent(delta);
+                }
+
+                @Override
+                public void onFinish(String finishReason) {
+                    listener.onFinish(finishReason);
+                }
+
+                @Override
+                public void onUsage(TokenUsage usage) {
+                    tokenBucket.adjust(usage.promptTokens() + usage.completionTokens() - estimate);
+                    listener.onUsage(usage);
+                }
+
+                @Override
+                public boolean isCancelled() {
+                    return listener.isCancelled();
+                }
+            });
+        }
+    }
+
+    /** True for a self-hosted server rather than OpenAI's API. */
+    public boolean isCompatible() {
+        return compatible;
+    }
+
+    @Override
+    public String name() {
+        return compatible ? "compatible (" + url + ")" : "openai";
+    }
+
+    /**
+     * Read a server-sent event stream of chat-completion chunks into the listener.
+     */
+    private void readEventStream(BufferedSource source, StreamListener listener) throws IOException {
+        String line;
+        while (!listener.isCancelled() && (line = source.readUtf8Line()) != null) {
+            // Blank separators, comments and other SSE fields carry nothing we need
+            if (!line.startsWith("data:")) {
+                continue;
+            }
+            String data = line.substring(5).trim();
+            if (data.equals("[DONE]")) {
+                break;
+            }
+
+            JsonObject chunk = JsonParser.parseString(data).getAsJsonObject();
+            TokenUsage usage = TokenUsage.of(chunk);
+            if (usage != null) {
+                listener.onUsage(usage);
+            }
+            JsonArray choices = chunk.getAsJsonArray("choices");
+            if (choices == null || choices.isEmpty()) {
+                continue;
+            }
+            JsonObject choice = choices.get(0).getAsJsonObject();
+            JsonObject delta = choice.getAsJsonObject("delta");
+            if (delta != null && delta.has("content") && !delta.get("content").isJsonNull()) {
+                listener.onContent(delta.get("content").getAsString());
+            }
+            if (choice.has("finish_reason") && !choice.get("finish_reason").isJsonNull()) {
+                listener.onFinish(choice.get("finish_reason").getAsString());
+            }
+        }
+    }
+
+    Stats stats() {
+        return new Stats(retries.get(), throttled.get(), throttledMillis.get(), breaker.state(),
+                breaker.opens(), rejected.get());
+    }
+
+    /**
+     * Send a request, retrying connection failures, 429s and 5xx. Returns a successful response
+     * (the caller closes it) or throws: {@link HttpException} for an error that can't be or
+     * wasn't retried, {@link UnavailableException} if the breaker is open.
+     *
+     * Only the request is retried; a stream that fails part way is left to the caller, since
+     * its content has already been used.
+     */
+    private Response execute(Request request, RequestLimiter.Ticket ticket) throws IOException {
+        int maxRetries = Math.max(0, config.get().getInt("retry-max-attempts", 3));
+        long maxDelay = config.get().getLong("retry-max-delay-ms", 20000);
+        for (int attempt = 0; ; attempt++) {
+            if (!breaker.allow()) {
+                rejected.incrementAndGet();
+                throw new UnavailableException(breaker.remainingMillis());
+            }
+            throttle(requestBucket, 1, ticket);
+
+            Response response;
+            try {
+                response = ticket.attach(httpClient.newCall(request)).execute();
+            } catch (IOException e) {
+                if (ticket.isCancelled()) {
+                    breaker.abandon();
+                    throw e;
+                }
+                onFailure();
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                backoff(attempt, -1, ticket, e.getMessage());
+                continue;
+            }
+
+            int code = response.code();
+            if (response.isSuccessful()) {
+                breaker.onSuccess();
+                return response;
+            }
+            long retryAfter = retryAfterMillis(response);
+            String errorBody;
+            try (response) {
+                errorBody = response.body() != null ? response.body().string() : "unknown";
+            }
+            if (code >= 500) {
+                onFailure();
+            } else {
+                // Rate limited or a bad request: the backend itself is up
+                breaker.onSuccess();
+            }
+            boolean retryable = code == 408 || code == 429 || code >= 500;
+            if (!retryable || attempt >= maxRetries || retryAfter > maxDelay) {
+                throw new HttpException(code, errorBody);
+            }
+            backoff(attempt, retryAfter, ticket, "HTTP " + code);
+        }
+    }
+
+    private void onFailure() {
+        long opens = breaker.opens();
+        breaker.onFailure();
+        if (breaker.opens() > opens) {
+            logger.warning("AI backend " + name() + " keeps failing, pausing requests for " +
+                    breaker.remainingMillis() / 1000 + " s");
+        }
+    }
+
+    /**
+     * Wait before retry {@code attempt + 1}: exponential with jitter, but never less than the
+     * server's Retry-After.
+     */
+    private void backoff(int attempt, long retryAfterMillis, RequestLimiter.Ticket ticket, String reason)
+            throws IOException {
+        long base = config.get().getLong("retry-base-delay-ms", 500);
+        long maxDelay = config.get().getLong("retry-max-delay-ms", 20000);
+        long ceiling = Math.min(maxDelay, base << Math.min(attempt, 20));
+        // Half fixed, half random, so retries from a burst spread out but still back off
+        long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        delay = Math.max(delay, retryAfterMillis);
+
+        retries.incrementAndGet();
+        logger.info("Retrying AI request in " + delay + " ms (" + reason + "), attempt " +
+                (attempt + 2));
+        sleep(delay, ticket);
+    }
+
+    /**
+     * Retry-After in milliseconds (OpenAI's retry-after-ms, or the standard header in seconds or
+     * as an HTTP date), or -1 if there is none.
+     */
+    private static long retryAfterMillis(Response response) {
+        String millis = response.header("retry-after-ms");
+        if (millis != null) {
+            try {
+                return (long) Double.parseDouble(millis);
+            } catch (NumberFormatException ignored) {
+                // Fall back to Retry-After
+            }
+        }
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return (long) (Double.parseDouble(value) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toMillis());
+            } catch (DateTimeParseException ignored) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Take the prompt's estimated tokens from the token bucket; the estimate is corrected once
+     * the response reports real usage. Returns the estimate.
+     */
+    private long throttleTokens(Prompt prompt, RequestLimiter.Ticket ticket) throws IOException {
+        if (!tokenBucket.isEnabled()) {
+            return 0;
+        }
+        long chars = prompt.system().length() + prompt.context().length();
+        for (ConversationMessage message : prompt.history()) {
+            chars += message.content().length();
+        }
+        long estimate = (chars + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+        throttle(tokenBucket, estimate, ticket);
+        return estimate;
+    }
+
+    private void throttle(TokenBucket bucket, long permits, RequestLimiter.Ticket ticket) throws IOException {
+        long waited = bucket.acquire(permits, ticket);
+        if (waited > 0) {
+            throttled.incrementAndGet();
+            throttledMillis.addAndGet(waited);
+        }
+    }
+
+    private static void sleep(long millis, RequestLimiter.Ticket ticket) throws IOException {
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            long left;
+            while ((left = deadline - System.currentTimeMillis()) > 0) {
+                if (ticket.isCancelled()) {
+                    throw new InterruptedIOException("Request cancelled");
+                }
+                Thread.sleep(Math.min(left, SLEEP_SLICE_MS));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request cancelled");
+        }
+    }
+
+    /**
+     * Environment variable takes priority, then config.yml. Compatible servers usually need no
+     * key, so theirs is optional ({@code compatible-api-key}).
+     */
+    private String resolveApiKey() throws NotConfiguredException {
+        if (compatible) {
+            String key = config.get().getString("compatible-api-key", "");
+            return key.isEmpty() ? null : key;
+        }
+        String apiKey = System.getenv("OPENAI_API_KEY");
+        if (apiKey == null || apiKey.isEmpty()) {
+            apiKey = config.get().getString("openai-api-key", "");
+        }
+        if (apiKey.isEmpty() || apiKey.equals("YOUR_API_KEY_HERE")) {
+            throw new NotConfiguredException(
+                    "No API key configured! Set OPENAI_API_KEY env var or use /aiconfig apikey <key>");
+        }
+        return apiKey;
+    }
+
+    private Request buildRequest(Prompt prompt, boolean stream) throws IOException {
+        String apiKey = resolveApiKey();
+        String model = config.get().getString("openai-model", "gpt-4o");
+        String systemJson = systemMessageJson(prompt.system());
+
+        StringWriter body = new StringWriter(systemJson.length() + 2048);
+        JsonWriter json = new JsonWriter(body);
+        json.beginObject();
+        json.name("model").value(model);
+        json.name("messages").beginArray();
+
+        // Static instructions, byte-identical on every request so the provider can cache the prefix
+        json.jsonValue(systemJson);
+
+        // Conversation history only grows between turns, so it extends the cached prefix
+        for (ConversationMessage msg : prompt.history()) {
+            writeMessage(json, msg.role(), msg.content());
+        }
+
+        // Per-request context goes last, where it can't invalidate anything before it
+        writeMessage(json, "system", prompt.context());
+        json.endArray();
+
+        json.name("temperature").value(0.7);
+        json.name("max_tokens").value(16000);
+        if (stream) {
+            json.name("stream").value(true);
+            // Ask for a final chunk carrying the usage block
+            json.name("stream_options").beginObject().name("include_usage").value(true).endObject();
+        }
+        json.endObject();
+        json.close();
+
+        Request.Builder request = new Request.Builder()
+                .url(url)
+                .addHeader("Content-Type", "application/json")
+                .post(RequestBody.create(body.toString(), MediaType.parse("application/json")));
+        if (apiKey != null) {
+            request.addHeader("Authorization", "Bearer " + apiKey);
+        }
+        return request.build();
+    }
+
+    private String systemMessageJson(String system) {
+        String cached = systemMessages.get(system);
+        if (cached != null) {
+            return cached;
+        }
+        if (systemMessages.size() >= MAX_SYSTEM_MESSAGES) {
+            systemMessages.clear(); // Only changing large-build-max-regions makes new ones
+        }
+        return systemMessages.computeIfAbsent(system, s -> {
+            JsonObject systemMsg = new JsonObject();
+            systemMsg.addProperty("role", "system");
+            systemMsg.addProperty("content", s);
+            return new Gson().toJson(systemMsg);
+        });
+    }
+
+    private static void writeMessage(JsonWriter json, String role, String content) throws IOException {
+        json.beginObject().name("role").value(role).name("content").value(content).endObject();
+    }
+}
@@ -0,0 +1,60 @@
+package com.aibuilder;
+
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+
+import java.util.logging.Logger;
+
+/**
+ * The original placement path: one {@code Location}/{@code getBlock()} per block, written
+ * with physics on unless it already holds that exact state. Slow on large builds but makes no
+ * assumptions about the world, so it is kept as a fallback.
+ */
+public class PerBlockBackend implements PlacementBackend {
+
+    private final Metrics metrics;
+    private final Logger logger;
+
+    public PerBlockBackend(Metrics metrics, Logger logger) {
+        this.metrics = metrics;
+        this.logger = logger;
+    }
+
+    @Override
+    public int place(Location origin, BuildPlan plan, int from, int to, BuildPlan journal) {
+        MaterialPalette palette = plan.palette();
+        int errors = 0;
+        int unchanged = 0;
+        for (int i = from; i < to; i++) {
+            long pos = plan.position(i);
+            try {
+                Location blockLoc = origin.clone().add(
+                        BuildPlan.unpackX(pos), BuildPlan.unpackY(pos), BuildPlan.unpackZ(pos));
+                Block block = blockLoc.getBlock();
+                BlockData previous = block.getBlockData();
+                BlockData data = palette.blockData(plan.state(i));
+                if (previous.equals(data)) {
+                    unchanged++;
+                    continue;
+                }
+                journal.add(pos, journal.palette().capture(previous));
+                block.setBlockData(data, true);
+            } catch (Exception e) {
+                logger.warning("Failed to place block at " + BuildPlan.unpackX(pos) + "," +
+                        BuildPlan.unpackY(pos) + "," + BuildPlan.unpackZ(pos) + " - " + e.getMessage());
+                metrics.placementFailed(palette.material(plan.state(i)).getKey().getKey());
+                errors++;
+            }
+        }
+        if (unchanged > 0) {
+            metrics.blocksUnchanged(unchanged);
+        }
+        return errors;
+    }
+
+    @Override
+    public String name() {
+        return "per-block";
+    }
+}
@@ -0,0 +1,33 @@
+package com.aibuilder;
+
+import org.bukkit.Location;
+
+/**
+ * Writes batches of block placements into the world for {@link BuildEngine}, through a
+ * {@link PlacementExecutor}. Called on the thread that owns the chunks being written (the main
+ * thread on Paper), and an instance is only used by one thread at a time.
+ */
+public interface PlacementBackend {
+
+    /**
+     * Place plan entries {@code from} (inclusive) to {@code to} (exclusive) relative to {@code origin}.
+     * The state each write replaces is appended to {@code journal} (same relative position), read
+     * from the block already in hand for the write. Returns the number of entries that were
+     * skipped (out of world, errors).
+     */
+    int place(Location origin, BuildPlan plan, int from, int to, BuildPlan journal);
+
+    /** Short name used in logs and config. */
+    String name();
+
+    /**
+     * Create the backend selected by {@code placement-backend} in config.yml.
+     */
+    static PlacementBackend fromConfig(AIBuilderPlugin plugin) {
+        String mode = plugin.getConfig().getString("placement-backend", "chunk");
+        if ("per-block".equalsIgnoreCase(mode)) {
+            return new PerBlockBackend(plugin.getMetrics(), plugin.getLogger());
+        }
+        return new ChunkBatchBackend(plugin.getMetrics(), plugin.getLogger());
+    }
+}
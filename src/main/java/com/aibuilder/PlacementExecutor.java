@@ -0,0 +1,47 @@
+package com.aibuilder;
+
+import org.bukkit.Location;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Decides where and when a build's batches are written. {@link BuildEngine} hands it plan
+ * entries from the global tick; the executor runs a {@link PlacementBackend} on them on the
+ * thread that owns their chunks:
+ *
+ * - {@link TickPlacementExecutor} (Paper): writes on the calling thread, inside the shared
+ *   per-tick budget, as builds always have.
+ * - {@link RegionPlacementExecutor} (Folia): splits each batch by chunk and sends each part to
+ *   the region that owns it, so builds in different regions are written in parallel.
+ *
+ * One executor per build.
+ */
+public interface PlacementExecutor {
+
+    /**
+     * True if {@link #place} writes before it returns. The build loop then keeps calling it
+     * until the tick budget is spent; otherwise it hands over one batch per tick and waits for it.
+     */
+    boolean isSynchronous();
+
+    /**
+     * Write plan entries {@code from} (inclusive) to {@code to} (exclusive) relative to
+     * {@code origin}, appending what they replace to {@code journal}, then call {@code done}
+     * with the number that failed. {@code done} runs on the global region thread (the main
+     * thread on Paper), and so does every change to {@code journal}.
+     */
+    void place(Location origin, BuildPlan plan, int from, int to, BuildPlan journal, IntConsumer done);
+
+    /** Short name used in logs. */
+    String name();
+
+    /**
+     * The executor for a new build: per region on Folia, on the tick everywhere else.
+     */
+    static PlacementExecutor forBuild(AIBuilderPlugin plugin) {
+        if (plugin.getScheduling().isFolia()) {
+            return new RegionPlacementExecutor(plugin);
+        }
+        return new TickPlacementExecutor(PlacementBackend.fromConfig(plugin));
+    }
+}
@@ -0,0 +1,288 @@
+package com.aibuilder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongPredicate;
+
+/**
+ * A live queue of block placements shared between the thread reading the AI response
+ * and the build on the main thread. The producer appends blocks and expanded shapes to a
+ * {@link BuildPlan}; the build reads it through a cursor while the AI is still producing
+ * blocks, and the producer closes the queue when the response ends.
+ *
+ * A queue can also be fed by several producers at once through {@link #part}s, one per region
+ * of a large build. Each part only lets through the blocks its region owns, appends under the
+ * queue's lock, and the queue closes once every part has.
+ *
+ * The other way round, several builds can read one producer's blocks through
+ * {@link #follow}ers, each with its own cursor, when players share one AI request.
+ */
+public class PlacementQueue {
+
+    private final BuildPlan plan;
+    private int cursor = 0; // only touched by the consumer (main thread)
+
+    private volatile boolean closed = false;
+    private volatile boolean truncated = false;
+    private volatile boolean cancelled = false;
+
+    // Set on parts: the queue they feed and the positions they may write
+    private final PlacementQueue parent;
+    private final LongPredicate owns;
+    // Parts of this queue not yet closed
+    private final AtomicInteger openParts = new AtomicInteger();
+
+    // Set on followers: the queue they read, and its size when the follower was closed on its own
+    private final PlacementQueue source;
+    private volatile int end = -1;
+    // Followers of this queue not yet cancelled
+    private final AtomicInteger openFollowers = new AtomicInteger();
+    // Blocks dropped for lying outside the extent; parts count on the queue they feed
+    private final AtomicInteger clipped = new AtomicInteger();
+
+    public PlacementQueue() {
+        this(new BuildPlan());
+    }
+
+    private PlacementQueue(BuildPlan plan) {
+        this.plan = plan;
+        this.parent = null;
+        this.owns = null;
+        this.source = null;
+    }
+
+    private PlacementQueue(PlacementQueue parent, LongPredicate owns) {
+        this.plan = parent.plan;
+        this.parent = parent;
+        this.owns = owns;
+        this.source = null;
+    }
+
+    private PlacementQueue(PlacementQueue source) {
+        this.plan = source.plan;
+        this.parent = null;
+        this.owns = null;
+        this.source = source;
+    }
+
+    /**
+     * Add a producer that feeds this queue, keeping only blocks whose packed position
+     * {@code owns} accepts. Create every part before any of them closes.
+     */
+    public PlacementQueue part(LongPredicate owns) {
+        openParts.incrementAndGet();
+        return new PlacementQueue(this, owns);
+    }
+
+    /**
+     * Add a consumer that reads everything this queue receives, from the first block, with its
+     * own cursor. This queue is cancelled once all of its followers are; a follower closed on
+     * its own stops at the blocks received so far. Followers are read-only.
+     */
+    public PlacementQueue follow() {
+        openFollowers.incrementAndGet();
+        return new PlacementQueue(this);
+    }
+
+    /**
+     * Create an already-closed queue over a complete plan.
+     */
+    public static PlacementQueue of(BuildPlan plan) {
+        PlacementQueue queue = new PlacementQueue(plan);
+        queue.close();
+        return queue;
+    }
+
+    /**
+     * Append a block, resolving its material through the plan's palette.
+     * Blocks with unknown materials are counted in the palette and dropped, as are blocks with a
+     * coordinate outside {@code [-extent, extent]} (see {@link #clipped}).
+     */
+    public void add(int x, int y, int z, String material, int extent) {
+        if (isCancelled()) {
+            return;
+        }
+        if (outside(x, y, z, extent)) {
+            clip();
+            return;
+        }
+        if (parent == null) {
+            plan.add(x, y, z, material);
+            return;
+        }
+        if (owns.test(BuildPlan.pack(x, y, z))) {
+            synchronized (parent) {
+                plan.add(x, y, z, material);
+            }
+        }
+    }
+
+    /**
+     * Expand a shape straight into the plan, clipping its blocks to {@code extent} like
+     * {@link #add(int, int, int, String, int)}. Shapes that would take the queue past {@code limit}
+     * blocks are refused whole, before any expansion; returns false then.
+     */
+    public boolean add(Shape shape, int limit, int extent) {
+        if (isCancelled()) {
+            return true;
+        }
+        if (parent == null) {
+            return expand(shape, limit, extent);
+        }
+        synchronized (parent) {
+            return expand(shape, limit, extent);
+        }
+    }
+
+    private boolean expand(Shape shape, int limit, int extent) {
+        if (shape.volume() > (long) limit - plan.size()) {
+            return false;
+        }
+        shape.expand(new Shape.Sink() {
+            private int state = MaterialPalette.INVALID;
+
+            @Override
+            public boolean begin(String material) {
+                state = plan.palette().resolve(material);
+                if (state == MaterialPalette.INVALID) {
+                    plan.palette().noteInvalid(material, 1);
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            public void accept(int x, int y, int z) {
+                if (outside(x, y, z, extent)) {
+                    clip();
+                    return;
+                }
+                long position = BuildPlan.pack(x, y, z);
+                if (owns == null || owns.test(position)) {
+                    plan.add(position, state);
+                }
+            }
+        });
+        return true;
+    }
+
+    /** Beyond {@code extent}, or beyond what a plan can hold, on any axis. */
+    private static boolean outside(int x, int y, int z, int extent) {
+        int limit = Math.min(extent, BuildPlan.MAX_EXTENT);
+        return Math.abs(x) > limit || Math.abs(y) > limit || Math.abs(z) > limit;
+    }
+
+    private void clip() {
+        (parent != null ? parent : this).clipped.incrementAndGet();
+    }
+
+    /** Blocks dropped so far for lying outside the extent. */
+    public int clipped() {
+        return (source != null ? source : this).clipped.get();
+    }
+
+    public BuildPlan plan() {
+        return plan;
+    }
+
+    /** Index of the next plan entry the build will take. Consumer thread only. */
+    public int cursor() {
+        return cursor;
+    }
+
+    /**
+     * Take up to {@code max} available entries, starting at {@link #cursor()}.
+     * Returns how many were taken. Consumer thread only.
+     */
+    public int take(int max) {
+        int n = Math.min(max, size() - cursor);
+        if (n <= 0) {
+            return 0;
+        }
+        cursor += n;
+        return n;
+    }
+
+    /** The producer has delivered everything it is going to. */
+    public void close() {
+        if (!closed) {
+            if (source != null) {
+                end = plan.size();
+            }
+            closed = true;
+            if (parent != null) {
+                parent.partClosed(false);
+            }
+        }
+    }
+
+    /** The producer stopped early (connection dropped, token limit hit, malformed stream). */
+    public void closeTruncated() {
+        if (!closed) {
+            truncated = true;
+            closed = true;
+            if (parent != null) {
+                parent.partClosed(true);
+            }
+        }
+    }
+
+    private void partClosed(boolean partTruncated) {
+        if (partTruncated) {
+            truncated = true;
+        }
+        if (openParts.decrementAndGet() == 0) {
+            closed = true;
+        }
+    }
+
+    /** The consumer gave up; the producer should stop reading. */
+    public void cancel() {
+        if (parent != null) {
+            parent.cancel();
+        }
+        if (source != null && !cancelled) {
+            source.followerCancelled();
+        }
+        cancelled = true;
+    }
+
+    /**
+     * The consumer is done with the queue. A producer that may still add blocks is told to stop,
+     * as by {@link #cancel}; a queue its producer already closed is left alone, so a build that
+     * simply drained a complete stream doesn't read as cancelled.
+     */
+    public void finish() {
+        if (!isClosed()) {
+            cancel();
+        }
+    }
+
+    private void followerCancelled() {
+        if (openFollowers.decrementAndGet() == 0) {
+            cancelled = true;
+        }
+    }
+
+    /** True once the producer is done and every received block has been taken. */
+    public boolean isDrained() {
+        return isClosed() && cursor >= size();
+    }
+
+    public boolean isClosed() { return closed || (source != null && source.closed); }
+    public boolean isTruncated() { return truncated || (source != null && source.truncated); }
+    public boolean isCancelled() {
+        return cancelled || (parent != null && parent.cancelled) || (source != null && source.cancelled);
+    }
+
+    public int received() { return size(); }
+
+    /** Blocks received but not yet taken by the build. Consumer thread only. */
+    public int remaining() {
+        return Math.max(0, size() - cursor);
+    }
+
+    private int size() {
+        int frozen = end;
+        return frozen >= 0 ? frozen : plan.size();
+    }
+}
@@ -0,0 +1,237 @@
+package com.aibuilder;
+
+import org.bukkit.Bukkit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary on-disk form of a cached build, a spilled undo journal or a template. The layout
+ * mirrors {@link BuildPlan} so reading one back is a couple of bulk copies out of a
+ * memory-mapped file:
+ *
+ * <pre>
+ * int    magic "AIBP"
+ * short  version
+ * long   created (epoch millis)
+ * string description
+ * int    palette size, then one string per entry (BlockData.getAsString)
+ * int    block count
+ * long[] packed positions
+ * short[] palette indices
+ * </pre>
+ *
+ * Strings are an int byte length followed by UTF-8.
+ *
+ * Version 2 ({@link #writeCompact}, used for templates, which are kept for good) stores the
+ * same header but packs the blocks: each position as a zigzag varint delta from the previous
+ * one, so runs of neighbouring blocks take a byte or two instead of eight, and palette indices
+ * in one byte when the palette has at most 256 entries. Reading it decodes straight out of the
+ * mapped file.
+ */
+final class PlanCodec {
+
+    private static final int MAGIC = 0x41494250;
+    private static final short VERSION = 1;
+    private static final short VERSION_COMPACT = 2;
+
+    /**
+     * What {@link #readHeader} returns: everything but the blocks.
+     */
+    record Header(String description, long created, int blocks) {
+    }
+
+    private PlanCodec() {
+    }
+
+    /**
+     * Write a build to {@code file}, replacing it atomically.
+     */
+    static void write(Path file, StructureCache.Entry entry) throws IOException {
+        BuildPlan plan = entry.plan();
+        int n = plan.size();
+        ByteBuffer buf = header(entry, VERSION, n * (Long.BYTES + Short.BYTES));
+        for (int i = 0; i < n; i++) {
+            buf.putLong(plan.position(i));
+        }
+        for (int i = 0; i < n; i++) {
+            buf.putShort((short) plan.state(i));
+        }
+        buf.flip();
+        replace(file, buf);
+    }
+
+    /**
+     * Write a build in the compact (version 2) layout, replacing {@code file} atomically.
+     */
+    static void writeCompact(Path file, StructureCache.Entry entry) throws IOException {
+        BuildPlan plan = entry.plan();
+        int n = plan.size();
+        boolean byteStates = plan.palette().size() <= 256;
+        // Worst case: ten bytes per varint
+        ByteBuffer buf = header(entry, VERSION_COMPACT, n * (10 + (byteStates ? 1 : 2)));
+        long previous = 0;
+        for (int i = 0; i < n; i++) {
+            long position = plan.position(i);
+            long delta = position - previous;
+            putVarLong(buf, (delta << 1) ^ (delta >> 63));
+            previous = position;
+        }
+        for (int i = 0; i < n; i++) {
+            if (byteStates) {
+                buf.put((byte) plan.state(i));
+            } else {
+                buf.putShort((short) plan.state(i));
+            }
+        }
+        buf.flip();
+        replace(file, buf);
+    }
+
+    /**
+     * Everything up to and including the block count, in a buffer with {@code blockBytes} to spare.
+     */
+    private static ByteBuffer header(StructureCache.Entry entry, short version, int blockBytes) {
+        MaterialPalette palette = entry.plan().palette();
+        byte[] description = entry.description().getBytes(StandardCharsets.UTF_8);
+        byte[][] states = new byte[palette.size()][];
+        int length = 4 + 2 + 8 + 4 + description.length + 4 + 4 + blockBytes;
+        for (int i = 0; i < states.length; i++) {
+            states[i] = palette.blockData(i).getAsString().getBytes(StandardCharsets.UTF_8);
+            length += 4 + states[i].length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.putInt(MAGIC).putShort(version).putLong(entry.created());
+        buf.putInt(description.length).put(description);
+        buf.putInt(states.length);
+        for (byte[] state : states) {
+            buf.putInt(state.length).put(state);
+        }
+        buf.putInt(entry.plan().size());
+        return buf;
+    }
+
+    private static void replace(Path file, ByteBuffer buf) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a build back. Throws {@link IOException} if the file is truncated, from another
+     * version, or names a block state this server does not know.
+     */
+    static StructureCache.Entry read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            short version = readVersion(buf, file);
+            long created = buf.getLong();
+            String description = readString(buf);
+
+            MaterialPalette palette = new MaterialPalette();
+            int paletteSize = buf.getInt();
+            for (int i = 0; i < paletteSize; i++) {
+                palette.add(Bukkit.createBlockData(readString(buf)));
+            }
+
+            int n = buf.getInt();
+            long[] positions = new long[n];
+            short[] states = new short[n];
+            if (version == VERSION) {
+                buf.asLongBuffer().get(positions);
+                buf.position(buf.position() + n * Long.BYTES);
+                buf.asShortBuffer().get(states);
+            } else {
+                long position = 0;
+                for (int i = 0; i < n; i++) {
+                    long zigzag = getVarLong(buf);
+                    position += (zigzag >>> 1) ^ -(zigzag & 1);
+                    positions[i] = position;
+                }
+                boolean byteStates = paletteSize <= 256;
+                for (int i = 0; i < n; i++) {
+                    states[i] = byteStates ? (short) (buf.get() & 0xFF) : buf.getShort();
+                }
+            }
+
+            for (short state : states) {
+                if (state < 0 || state >= paletteSize) {
+                    throw new IOException("Corrupt cached build: " + file.getFileName());
+                }
+            }
+            return new StructureCache.Entry(description, new BuildPlan(palette, positions, states), created);
+        } catch (RuntimeException e) {
+            // Buffer underflow, bad lengths, or a block state from a newer/older version
+            throw new IOException("Unreadable cached build " + file.getFileName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read just the description, creation time and block count, without resolving the palette
+     * or touching the blocks (rebuilding the template index).
+     */
+    static Header readHeader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            readVersion(buf, file);
+            long created = buf.getLong();
+            String description = readString(buf);
+            int paletteSize = buf.getInt();
+            for (int i = 0; i < paletteSize; i++) {
+                int length = buf.getInt();
+                buf.position(buf.position() + length);
+            }
+            return new Header(description, created, buf.getInt());
+        } catch (RuntimeException e) {
+            throw new IOException("Unreadable build " + file.getFileName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static short readVersion(ByteBuffer buf, Path file) throws IOException {
+        short version = buf.getInt() == MAGIC ? buf.getShort() : -1;
+        if (version != VERSION && version != VERSION_COMPACT) {
+            throw new IOException("Not a saved build: " + file.getFileName());
+        }
+        return version;
+    }
+
+    private static void putVarLong(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer buf) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,268 @@
+package com.aibuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Turns a parsed block list and shapes into a ready-to-run {@link BuildPlan}, off the main
+ * thread: expands shapes, resolves materials, clips blocks outside the allowed bounding box, sorts bottom-up with
+ * an LSD radix sort over packed keys, keeps only the last write to each coordinate, and
+ * enforces {@code max-blocks} on what is left.
+ */
+public class PlanCompiler {
+
+    // Sort key layout, high to low: y (12 bits) | x (26 bits) | z (26 bits), each offset to be unsigned
+    private static final int XZ_BITS = 26;
+    private static final int Y_BITS = 12;
+    private static final long XZ_OFFSET = 1L << (XZ_BITS - 1);
+    private static final long Y_OFFSET = 1L << (Y_BITS - 1);
+    private static final long XZ_MASK = (1L << XZ_BITS) - 1;
+    // Shapes may expand to this many times max-blocks before dedupe
+    private static final int SHAPE_SLACK = 4;
+
+    /**
+     * Outcome of compiling one response. {@code plan} is null if the build is over the limit.
+     */
+    public record Result(BuildPlan plan, int input, int duplicates, int clipped, int invalid, int tooLargeBy) {
+        public boolean tooLarge() {
+            return tooLargeBy > 0;
+        }
+    }
+
+    private final Executor executor;
+    private final Metrics metrics;
+
+    public PlanCompiler(Executor executor, Metrics metrics) {
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    public CompletableFuture<Result> compileAsync(BlockList blocks, List<Shape> shapes, int maxBlocks, int maxExtent) {
+        return CompletableFuture.supplyAsync(() -> {
+            long started = System.nanoTime();
+            Result result = compile(blocks, shapes, maxBlocks, maxExtent);
+            metrics.record(Metrics.Stage.COMPILE, System.nanoTime() - started);
+            return result;
+        }, executor);
+    }
+
+    /**
+     * Compile synchronously. Shapes are expanded first, in order, then individual blocks, so
+     * blocks can carve doors and windows into shapes. {@code maxExtent} bounds every relative
+     * coordinate to {@code [-maxExtent, maxExtent]}; anything outside is clipped.
+     */
+    public static Result compile(BlockList blocks, List<Shape> shapes, int maxBlocks, int maxExtent) {
+        int extent = (int) Math.min(maxExtent, Y_OFFSET - 1);
+        MaterialPalette palette = new MaterialPalette();
+
+        // Shapes can overlap and get carved, so allow some slack over max-blocks before expanding
+        long expansionLimit = (long) maxBlocks * SHAPE_SLACK;
+        long shapeVolume = 0;
+        for (Shape shape : shapes) {
+            // Capped per shape, so the sum can't overflow
+            shapeVolume += Math.min(shape.volume(), expansionLimit + 1);
+        }
+        if (shapeVolume > expansionLimit) {
+            return new Result(null, blocks.size(), 0, 0, 0, (int) Math.min(Integer.MAX_VALUE, shapeVolume - maxBlocks));
+        }
+
+        Collector collector = new Collector(palette, extent, (int) shapeVolume + blocks.size());
+        for (Shape shape : shapes) {
+            shape.expand(collector);
+        }
+
+        // Resolve each distinct material name once
+        List<String> names = blocks.materialNames();
+        int[] stateOf = new int[names.size()];
+        int[] invalidUses = new int[names.size()];
+        for (int i = 0; i < stateOf.length; i++) {
+            stateOf[i] = palette.resolve(names.get(i));
+        }
+
+        int n = blocks.size();
+        for (int i = 0; i < n; i++) {
+            int name = blocks.nameIndex(i);
+            int state = stateOf[name];
+            if (state == MaterialPalette.INVALID) {
+                invalidUses[name]++;
+                continue;
+            }
+            collector.add(blocks.x(i), blocks.y(i), blocks.z(i), state);
+        }
+        for (int i = 0; i < invalidUses.length; i++) {
+            if (invalidUses[i] > 0) {
+                palette.noteInvalid(names.get(i), invalidUses[i]);
+            }
+        }
+
+        long[] keys = collector.keys;
+        short[] states = collector.states;
+        int count = collector.count;
+        int clipped = collector.clipped;
+        n += collector.shapeBlocks;
+
+        radixSort(keys, states, count);
+        int unique = dedupe(keys, states, count);
+
+        int invalid = palette.invalidCount();
+        int duplicates = count - unique;
+        if (unique > maxBlocks) {
+            return new Result(null, n, duplicates, clipped, invalid, unique - maxBlocks);
+        }
+        return new Result(toPlan(palette, keys, states, unique), n, duplicates, clipped, invalid, 0);
+    }
+
+    /**
+     * Sort and dedupe a plan that was built up in arrival order, such as a finished streamed
+     * build, the same way {@link #compile} does: bottom-up, last write to a coordinate wins.
+     */
+    public static BuildPlan compact(BuildPlan source) {
+        int count = source.size();
+        long[] keys = new long[count];
+        short[] states = new short[count];
+        for (int i = 0; i < count; i++) {
+            long position = source.position(i);
+            keys[i] = sortKey(BuildPlan.unpackX(position), BuildPlan.unpackY(position), BuildPlan.unpackZ(position));
+            states[i] = (short) source.state(i);
+        }
+        radixSort(keys, states, count);
+        return toPlan(source.palette(), keys, states, dedupe(keys, states, count));
+    }
+
+    /**
+     * Keep only the last of each run of equal keys in sorted {@code keys[0..count)}, in place.
+     * Returns how many are left.
+     */
+    private static int dedupe(long[] keys, short[] states, int count) {
+        // Equal keys are adjacent and in input order (the sort is stable), so the last one wins
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (i + 1 < count && keys[i + 1] == keys[i]) {
+                continue;
+            }
+            keys[unique] = keys[i];
+            states[unique] = states[i];
+            unique++;
+        }
+        return unique;
+    }
+
+    private static BuildPlan toPlan(MaterialPalette palette, long[] keys, short[] states, int count) {
+        BuildPlan plan = new BuildPlan(palette, count);
+        for (int i = 0; i < count; i++) {
+            long key = keys[i];
+            int x = (int) (((key >>> XZ_BITS) & XZ_MASK) - XZ_OFFSET);
+            int y = (int) ((key >>> (2 * XZ_BITS)) - Y_OFFSET);
+            int z = (int) ((key & XZ_MASK) - XZ_OFFSET);
+            plan.add(BuildPlan.pack(x, y, z), states[i]);
+        }
+        return plan;
+    }
+
+    /**
+     * Gathers sort keys and palette indices for the blocks of shapes and the block list,
+     * clipping anything outside the extent.
+     */
+    private static final class Collector implements Shape.Sink {
+        private final MaterialPalette palette;
+        private final int extent;
+        long[] keys;
+        short[] states;
+        int count = 0;
+        int clipped = 0;
+        int shapeBlocks = 0;
+        private int shapeState = MaterialPalette.INVALID;
+
+        Collector(MaterialPalette palette, int extent, int capacity) {
+            this.palette = palette;
+            this.extent = extent;
+            this.keys = new long[capacity];
+            this.states = new short[capacity];
+        }
+
+        @Override
+        public boolean begin(String material) {
+            shapeState = palette.resolve(material);
+            if (shapeState == MaterialPalette.INVALID) {
+                palette.noteInvalid(material, 1);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void accept(int x, int y, int z) {
+            shapeBlocks++;
+            add(x, y, z, shapeState);
+        }
+
+        void add(int x, int y, int z, int state) {
+            if (Math.abs(x) > extent || Math.abs(y) > extent || Math.abs(z) > extent) {
+                clipped++;
+                return;
+            }
+            keys[count] = sortKey(x, y, z);
+            states[count] = (short) state;
+            count++;
+        }
+    }
+
+    private static long sortKey(int x, int y, int z) {
+        return ((y + Y_OFFSET) << (2 * XZ_BITS))
+                | ((x + XZ_OFFSET) << XZ_BITS)
+                | (z + XZ_OFFSET);
+    }
+
+    /**
+     * Stable LSD radix sort of {@code keys[0..n)} (unsigned, one byte per pass), carrying
+     * {@code states} along. Byte positions where every key is identical are skipped, which
+     * for a typical build leaves only three or four passes.
+     */
+    static void radixSort(long[] keys, short[] states, int n) {
+        if (n < 2) {
+            return;
+        }
+        long allOr = 0;
+        long allAnd = -1L;
+        for (int i = 0; i < n; i++) {
+            allOr |= keys[i];
+            allAnd &= keys[i];
+        }
+        long varying = allOr ^ allAnd;
+
+        long[] keyBuf = new long[n];
+        short[] stateBuf = new short[n];
+        int[] counts = new int[257];
+        long[] srcKeys = keys;
+        short[] srcStates = states;
+        long[] dstKeys = keyBuf;
+        short[] dstStates = stateBuf;
+
+        for (int shift = 0; shift < 64; shift += 8) {
+            if (((varying >>> shift) & 0xFF) == 0) {
+                continue;
+            }
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) {
+                counts[(int) ((srcKeys[i] >>> shift) & 0xFF) + 1]++;
+            }
+            for (int b = 0; b < 256; b++) {
+                counts[b + 1] += counts[b];
+            }
+            for (int i = 0; i < n; i++) {
+                int dst = counts[(int) ((srcKeys[i] >>> shift) & 0xFF)]++;
+                dstKeys[dst] = srcKeys[i];
+                dstStates[dst] = srcStates[i];
+            }
+            long[] tk = srcKeys; srcKeys = dstKeys; dstKeys = tk;
+            short[] ts = srcStates; srcStates = dstStates; dstStates = ts;
+        }
+
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, 0, keys, 0, n);
+            System.arraycopy(srcStates, 0, states, 0, n);
+        }
+    }
+}
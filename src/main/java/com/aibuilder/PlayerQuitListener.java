@@ -0,0 +1,26 @@
+package com.aibuilder;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * Drops a player's in-flight AI request when they log out, so nobody pays for a
+ * response there is no one left to receive, along with their unsaved last build and preview.
+ */
+public class PlayerQuitListener implements Listener {
+
+    private final AIBuilderPlugin plugin;
+
+    public PlayerQuitListener(AIBuilderPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler
+    public void onQuit(PlayerQuitEvent event) {
+        plugin.getRequestLimiter().cancel(event.getPlayer().getUniqueId());
+        plugin.getBuildEngine().forgetPlayer(event.getPlayer().getUniqueId());
+        plugin.getMetrics().forgetPlayer(event.getPlayer().getUniqueId());
+        plugin.getPreviewManager().forgetPlayer(event.getPlayer().getUniqueId());
+    }
+}
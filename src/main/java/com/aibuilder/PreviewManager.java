@@ -0,0 +1,384 @@
+package com.aibuilder;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.structure.Mirror;
+import org.bukkit.block.structure.StructureRotation;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Client-side previews of builds ({@code /ai preview}). With preview mode on, a compiled build
+ * is sent to its player as fake block changes instead of being placed, so a build in the wrong
+ * spot or facing the wrong way costs no world writes, lighting or undo journal. The player can
+ * then rotate and shift it, which re-sends only the blocks that changed, and confirm it, which
+ * hands it to the {@link BuildEngine} as a normal build.
+ *
+ * Blocks within {@code preview-detail-radius} of the player are all shown; further out only the
+ * plan's surface is (blocks with an empty neighbour), and at most {@code preview-max-blocks},
+ * nearest first. Changes go out one chunk section per multi-block packet,
+ * {@code preview-sections-per-tick} sections a tick. Hiding a preview sends the real blocks back,
+ * read on the threads that own their chunks.
+ *
+ * Previews are per player and live only on their client; everything touching one runs on the
+ * player's thread except picking the blocks to show, which runs async.
+ */
+public class PreviewManager {
+
+    private static final int[][] NEIGHBOURS = {{1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+
+    private final AIBuilderPlugin plugin;
+    // Players with preview mode on
+    private final Set<UUID> enabled = ConcurrentHashMap.newKeySet();
+    private final Map<UUID, Preview> previews = new ConcurrentHashMap<>();
+
+    public PreviewManager(AIBuilderPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /** True if this player's builds are previewed before they are placed. */
+    public boolean isEnabled(UUID playerId) {
+        return enabled.contains(playerId);
+    }
+
+    /** Switch preview mode; returns whether it is now on. */
+    public boolean toggle(UUID playerId) {
+        if (enabled.remove(playerId)) {
+            return false;
+        }
+        enabled.add(playerId);
+        return true;
+    }
+
+    public boolean hasPreview(UUID playerId) {
+        return previews.containsKey(playerId);
+    }
+
+    /**
+     * Show {@code plan} at {@code origin} to the player, replacing their current preview.
+     * Player's thread only.
+     */
+    public void show(Player player, Location origin, BuildPlan plan, String description) {
+        discard(player);
+        Preview preview = new Preview(origin, plan, description);
+        previews.put(player.getUniqueId(), preview);
+        render(player, preview);
+        player.sendMessage(Component.text("Previewing " + description + " (" + plan.size() + " blocks, only " +
+                "you can see it). /ai rotate [90|180|270] and /ai shift <x> <y> <z> move it, /ai confirm " +
+                "builds it, /ai cancel drops it.", NamedTextColor.AQUA));
+    }
+
+    /** Turn the preview a quarter turn (or more) clockwise about its origin. */
+    public boolean rotate(Player player, StructureRotation rotation) {
+        Preview preview = previews.get(player.getUniqueId());
+        if (preview == null) {
+            return false;
+        }
+        preview.turns = (preview.turns + quarterTurns(rotation)) & 3;
+        render(player, preview);
+        return true;
+    }
+
+    /** Move the preview by whole blocks. */
+    public boolean shift(Player player, int dx, int dy, int dz) {
+        Preview preview = previews.get(player.getUniqueId());
+        if (preview == null) {
+            return false;
+        }
+        preview.dx += dx;
+        preview.dy += dy;
+        preview.dz += dz;
+        render(player, preview);
+        return true;
+    }
+
+    /** Replace the preview with the real build, where it was last moved to. */
+    public boolean confirm(Player player) {
+        Preview preview = previews.remove(player.getUniqueId());
+        if (preview == null) {
+            return false;
+        }
+        hide(player, preview);
+        plugin.getBuildEngine().build(player, preview.origin(), preview.plan.transformed(preview.rotation(),
+                Mirror.NONE), preview.description);
+        return true;
+    }
+
+    /** Drop the player's preview, showing the real blocks again. Returns false if there was none. */
+    public boolean discard(Player player) {
+        Preview preview = previews.remove(player.getUniqueId());
+        if (preview == null) {
+            return false;
+        }
+        hide(player, preview);
+        return true;
+    }
+
+    /**
+     * Plugin disable or reload: take every preview down now, since no task runs after this.
+     * The real blocks are read here on the main thread; on Folia the server is stopping, and
+     * its clients with it, so the previews are only dropped.
+     */
+    public void shutdown() {
+        for (UUID playerId : List.copyOf(previews.keySet())) {
+            Preview preview = previews.remove(playerId);
+            Player player = plugin.getServer().getPlayer(playerId);
+            if (preview == null || player == null || !player.isOnline() || plugin.getScheduling().isFolia()) {
+                continue;
+            }
+            World world = preview.world;
+            Map<Long, BlockData> real = new HashMap<>();
+            for (long pos : preview.shown.keySet()) {
+                int x = BuildPlan.unpackX(pos);
+                int z = BuildPlan.unpackZ(pos);
+                if (world.isChunkLoaded(x >> 4, z >> 4)) {
+                    real.put(pos, world.getBlockAt(x, BuildPlan.unpackY(pos), z).getBlockData());
+                }
+            }
+            preview.shown = Map.of();
+            bySection(real).forEach(section -> sendSection(player, world, section));
+            player.sendMessage(Component.text("Your preview was discarded because AIBuilder is shutting down.",
+                    NamedTextColor.YELLOW));
+        }
+    }
+
+    /** The player left; their client has forgotten the preview already. */
+    public void forgetPlayer(UUID playerId) {
+        previews.remove(playerId);
+        enabled.remove(playerId);
+    }
+
+    /**
+     * Pick the blocks to show off the player's thread, then send what differs from what the
+     * client is showing now.
+     */
+    private void render(Player player, Preview preview) {
+        int generation = ++preview.generation;
+        Location eye = player.getLocation();
+        Location origin = preview.origin();
+        StructureRotation rotation = preview.rotation();
+        int radius = Math.max(0, plugin.getConfig().getInt("preview-detail-radius", 32));
+        int max = Math.max(1, plugin.getConfig().getInt("preview-max-blocks", 4096));
+        CompletableFuture.supplyAsync(() -> select(preview.plan.transformed(rotation, Mirror.NONE), origin, eye,
+                        radius, max), plugin.getScheduling().async())
+                .thenAccept(next -> plugin.getScheduling().forPlayer(player, () -> {
+                    if (previews.get(player.getUniqueId()) != preview || preview.generation != generation) {
+                        return; // Moved again, confirmed or dropped in the meantime
+                    }
+                    Map<Long, BlockData> changed = new LinkedHashMap<>();
+                    next.forEach((pos, data) -> {
+                        if (!data.equals(preview.shown.get(pos))) {
+                            changed.put(pos, data);
+                        }
+                    });
+                    List<Long> gone = new ArrayList<>();
+                    for (long pos : preview.shown.keySet()) {
+                        if (!next.containsKey(pos)) {
+                            gone.add(pos);
+                        }
+                    }
+                    preview.shown = next;
+                    send(player, preview, bySection(changed));
+                    restore(player, preview.world, gone);
+                }));
+    }
+
+    /**
+     * The blocks to show, by absolute packed position: everything near the player, the surface
+     * further out, nearest first up to {@code max}. Air is left out.
+     */
+    private static Map<Long, BlockData> select(BuildPlan plan, Location origin, Location eye, int radius, int max) {
+        MaterialPalette palette = plan.palette();
+        Set<Long> solid = new HashSet<>(plan.size() * 2);
+        for (int i = 0; i < plan.size(); i++) {
+            if (!palette.isAir(plan.state(i))) {
+                solid.add(plan.position(i));
+            }
+        }
+        int ox = origin.getBlockX();
+        int oy = origin.getBlockY();
+        int oz = origin.getBlockZ();
+        long radiusSq = (long) radius * radius;
+        // (distance squared << 32) | plan index, so sorting orders by distance
+        long[] picked = new long[plan.size()];
+        int n = 0;
+        for (int i = 0; i < plan.size(); i++) {
+            long pos = plan.position(i);
+            if (palette.isAir(plan.state(i))) {
+                continue;
+            }
+            int x = BuildPlan.unpackX(pos);
+            int y = BuildPlan.unpackY(pos);
+            int z = BuildPlan.unpackZ(pos);
+            long ddx = ox + x - eye.getBlockX();
+            long ddy = oy + y - eye.getBlockY();
+            long ddz = oz + z - eye.getBlockZ();
+            long distSq = ddx * ddx + ddy * ddy + ddz * ddz;
+            if (distSq > radiusSq && !isSurface(solid, x, y, z)) {
+                continue;
+            }
+            picked[n++] = (Math.min(distSq, Integer.MAX_VALUE) << 32) | i;
+        }
+        if (n > max) {
+            Arrays.sort(picked, 0, n);
+            n = max;
+        }
+        Map<Long, BlockData> blocks = new HashMap<>(n * 2);
+        for (int k = 0; k < n; k++) {
+            int i = (int) picked[k];
+            long pos = plan.position(i);
+            blocks.put(BuildPlan.pack(ox + BuildPlan.unpackX(pos), oy + BuildPlan.unpackY(pos),
+                    oz + BuildPlan.unpackZ(pos)), palette.blockData(plan.state(i)));
+        }
+        return blocks;
+    }
+
+    private static boolean isSurface(Set<Long> solid, int x, int y, int z) {
+        for (int[] d : NEIGHBOURS) {
+            if (!solid.contains(BuildPlan.pack(x + d[0], y + d[1], z + d[2]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Group block changes by chunk section, one multi-block packet each. */
+    private static List<Map<Long, BlockData>> bySection(Map<Long, BlockData> blocks) {
+        Map<Long, Map<Long, BlockData>> sections = new LinkedHashMap<>();
+        blocks.forEach((pos, data) -> sections.computeIfAbsent(BuildPlan.pack(BuildPlan.unpackX(pos) >> 4,
+                BuildPlan.unpackY(pos) >> 4, BuildPlan.unpackZ(pos) >> 4), k -> new HashMap<>()).put(pos, data));
+        return new ArrayList<>(sections.values());
+    }
+
+    private static void sendSection(Player player, World world, Map<Long, BlockData> section) {
+        if (section.isEmpty()) {
+            return;
+        }
+        Map<Location, BlockData> changes = new HashMap<>(section.size() * 2);
+        section.forEach((pos, data) -> changes.put(
+                new Location(world, BuildPlan.unpackX(pos), BuildPlan.unpackY(pos), BuildPlan.unpackZ(pos)), data));
+        player.sendMultiBlockChange(changes);
+    }
+
+    /**
+     * Send {@code sections} a few per tick. A re-render doesn't stop the ones still waiting, it
+     * only drops the blocks it no longer shows the same way, so the client ends up with exactly
+     * what the latest render picked.
+     */
+    private void send(Player player, Preview preview, List<Map<Long, BlockData>> sections) {
+        int perTick = Math.max(1, plugin.getConfig().getInt("preview-sections-per-tick", 8));
+        sendFrom(player, preview, sections, 0, perTick);
+    }
+
+    private void sendFrom(Player player, Preview preview, List<Map<Long, BlockData>> sections, int from,
+                          int perTick) {
+        if (previews.get(player.getUniqueId()) != preview) {
+            return;
+        }
+        int to = Math.min(sections.size(), from + perTick);
+        for (int i = from; i < to; i++) {
+            Map<Long, BlockData> section = sections.get(i);
+            section.entrySet().removeIf(e -> !e.getValue().equals(preview.shown.get(e.getKey())));
+            sendSection(player, preview.world, section);
+        }
+        if (to < sections.size()) {
+            plugin.getScheduling().forPlayer(player, () -> sendFrom(player, preview, sections, to, perTick));
+        }
+    }
+
+    private void hide(Player player, Preview preview) {
+        restore(player, preview.world, new ArrayList<>(preview.shown.keySet()));
+        preview.shown = Map.of();
+    }
+
+    /**
+     * Send the real blocks at {@code positions} back to the player, reading each chunk on the
+     * thread that owns it. Chunks that aren't loaded are skipped; the client doesn't have them
+     * either. Positions a newer preview shows again by then are left alone.
+     */
+    private void restore(Player player, World world, List<Long> positions) {
+        Map<Long, List<Long>> byChunk = new HashMap<>();
+        for (long pos : positions) {
+            byChunk.computeIfAbsent(ChunkLoader.chunkKey(BuildPlan.unpackX(pos) >> 4, BuildPlan.unpackZ(pos) >> 4),
+                    k -> new ArrayList<>()).add(pos);
+        }
+        byChunk.forEach((chunk, inChunk) -> {
+            int cx = (int) (chunk >> 32);
+            int cz = (int) (long) chunk;
+            plugin.getScheduling().at(world, cx, cz, () -> {
+                if (!world.isChunkLoaded(cx, cz)) {
+                    return;
+                }
+                Map<Long, BlockData> real = new HashMap<>();
+                for (long pos : inChunk) {
+                    real.put(pos, world.getBlockAt(BuildPlan.unpackX(pos), BuildPlan.unpackY(pos),
+                            BuildPlan.unpackZ(pos)).getBlockData());
+                }
+                plugin.getScheduling().forPlayer(player, () -> {
+                    Preview current = previews.get(player.getUniqueId());
+                    if (current != null && current.world == world) {
+                        real.keySet().removeIf(current.shown::containsKey);
+                    }
+                    bySection(real).forEach(section -> sendSection(player, world, section));
+                });
+            });
+        });
+    }
+
+    private static int quarterTurns(StructureRotation rotation) {
+        return switch (rotation) {
+            case CLOCKWISE_90 -> 1;
+            case CLOCKWISE_180 -> 2;
+            case COUNTERCLOCKWISE_90 -> 3;
+            default -> 0;
+        };
+    }
+
+    /**
+     * One player's preview: the plan as asked for, and how it has been turned and moved since.
+     */
+    private static final class Preview {
+        private static final StructureRotation[] TURNS = {StructureRotation.NONE, StructureRotation.CLOCKWISE_90,
+                StructureRotation.CLOCKWISE_180, StructureRotation.COUNTERCLOCKWISE_90};
+
+        private final World world;
+        private final Location base;
+        private final BuildPlan plan;
+        private final String description;
+        private int turns = 0;
+        private int dx = 0, dy = 0, dz = 0;
+        // What the client is shown now, by absolute packed position
+        private Map<Long, BlockData> shown = Map.of();
+        // Bumped by every re-render, so a slower earlier one can't overwrite it
+        private int generation = 0;
+
+        private Preview(Location base, BuildPlan plan, String description) {
+            this.world = base.getWorld();
+            this.base = base.clone();
+            this.plan = plan;
+            this.description = description;
+        }
+
+        Location origin() {
+            return base.clone().add(dx, dy, dz);
+        }
+
+        StructureRotation rotation() {
+            return TURNS[turns];
+        }
+    }
+}
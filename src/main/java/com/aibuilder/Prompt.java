@@ -0,0 +1,11 @@
+package com.aibuilder;
+
+import java.util.List;
+
+/**
+ * Everything sent to the model for one request, independent of any provider's wire format:
+ * the static system instructions, the conversation so far, and the per-request context
+ * (player position, biome, surroundings) that goes after it.
+ */
+public record Prompt(String system, List<ConversationMessage> history, String context) {
+}
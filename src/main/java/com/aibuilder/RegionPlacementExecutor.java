@@ -0,0 +1,102 @@
+package com.aibuilder;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Folia: splits each batch by chunk and writes every part on the region thread that owns the
+ * chunk, so builds (and parts of one large build) in different regions are written in
+ * parallel. A chunk that isn't loaded is loaded asynchronously first and written once it is
+ * in, on its region's thread. Each part gets its own backend and journal; the journals are
+ * joined in batch order on the global region thread once every part is written.
+ */
+public class RegionPlacementExecutor implements PlacementExecutor {
+
+    private final AIBuilderPlugin plugin;
+
+    public RegionPlacementExecutor(AIBuilderPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean isSynchronous() {
+        return false;
+    }
+
+    @Override
+    public void place(Location origin, BuildPlan plan, int from, int to, BuildPlan journal, IntConsumer done) {
+        World world = origin.getWorld();
+        int ox = origin.getBlockX();
+        int oz = origin.getBlockZ();
+
+        // Per chunk, in the order the batch first reaches each one; entries keep their order
+        Map<Long, BuildPlan> parts = new LinkedHashMap<>();
+        for (int i = from; i < to; i++) {
+            long pos = plan.position(i);
+            long chunk = ChunkLoader.chunkKey((ox + BuildPlan.unpackX(pos)) >> 4, (oz + BuildPlan.unpackZ(pos)) >> 4);
+            parts.computeIfAbsent(chunk, k -> new BuildPlan(plan.palette(), 64)).add(pos, plan.state(i));
+        }
+        if (parts.isEmpty()) {
+            done.accept(0);
+            return;
+        }
+
+        BuildPlan[] journals = new BuildPlan[parts.size()];
+        AtomicInteger left = new AtomicInteger(parts.size());
+        AtomicInteger failed = new AtomicInteger();
+        int index = 0;
+        for (Map.Entry<Long, BuildPlan> part : parts.entrySet()) {
+            int slot = index++;
+            int cx = (int) (part.getKey() >> 32);
+            int cz = (int) (long) part.getKey();
+            Runnable write = () -> {
+                journals[slot] = new BuildPlan();
+                failed.addAndGet(write(origin, part.getValue(), journals[slot]));
+                if (left.decrementAndGet() == 0) {
+                    plugin.getScheduling().global(() -> {
+                        for (BuildPlan written : journals) {
+                            append(journal, written);
+                        }
+                        done.accept(failed.get());
+                    });
+                }
+            };
+            plugin.getScheduling().at(world, cx, cz, () -> {
+                if (world.isChunkLoaded(cx, cz)) {
+                    write.run();
+                } else {
+                    // Completes on this region's thread once the chunk is in
+                    world.getChunkAtAsync(cx, cz, true).whenComplete((loaded, error) -> write.run());
+                }
+            });
+        }
+    }
+
+    private int write(Location origin, BuildPlan part, BuildPlan journal) {
+        try {
+            return PlacementBackend.fromConfig(plugin).place(origin, part, 0, part.size(), journal);
+        } catch (RuntimeException e) {
+            plugin.getLogger().warning("Failed to place " + part.size() + " blocks near " +
+                    (origin.getBlockX() + BuildPlan.unpackX(part.position(0))) + "," +
+                    (origin.getBlockZ() + BuildPlan.unpackZ(part.position(0))) + " - " + e.getMessage());
+            return part.size();
+        }
+    }
+
+    private static void append(BuildPlan journal, BuildPlan part) {
+        MaterialPalette palette = part.palette();
+        for (int i = 0; i < part.size(); i++) {
+            journal.add(part.position(i), journal.palette().capture(palette.blockData(part.state(i))));
+        }
+    }
+
+    @Override
+    public String name() {
+        return plugin.getConfig().getString("placement-backend", "chunk") + " per region";
+    }
+}
@@ -0,0 +1,165 @@
+package com.aibuilder;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Single-flight for AI requests. During an event dozens of players ask for the same thing
+ * ("AI, build me a house") within seconds; requests with the same key (the normalised
+ * conversation plus model, biome and site, as for {@link StructureCache}) that arrive while
+ * one is already in flight wait for it instead of sending their own.
+ *
+ * A flight runs under a shared {@link RequestLimiter.Ticket} of its own, so it takes one slot
+ * however many players wait on it. Each player keeps their own ticket for the duration, held
+ * with {@link RequestLimiter#follow}, so cancelling and the one-request-per-player rule work
+ * as before; the flight is cancelled only once everyone waiting on it has cancelled. Each
+ * player's build is placed at their own position.
+ *
+ * Controlled by {@code coalesce-requests}; off, every request gets a flight of its own.
+ */
+public class RequestCoalescer {
+
+    /**
+     * A streamed request as one subscriber sees it: their own reader of the blocks, the build
+     * description once the first block is in, and the final response.
+     */
+    public record Stream(PlacementQueue queue, CompletableFuture<String> buildStarted,
+                  CompletableFuture<AIResponse> response) {
+    }
+
+    /** Starts a streamed request; the arguments are those of {@link AIService#chatStreaming}. */
+    public interface StreamSender {
+        CompletableFuture<AIResponse> send(RequestLimiter.Ticket ticket, PlacementQueue queue,
+                                           Consumer<String> onBuildStart);
+    }
+
+    private final AIBuilderPlugin plugin;
+    private final Map<String, Flight<?>> flights = new ConcurrentHashMap<>();
+
+    public RequestCoalescer(AIBuilderPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    private boolean isEnabled() {
+        return plugin.getConfig().getBoolean("coalesce-requests", true);
+    }
+
+    /** True if a request for {@code key} is in flight, so a new one would share it. */
+    public boolean isInFlight(String key) {
+        return isEnabled() && (flights.containsKey("complete:" + key) || flights.containsKey("stream:" + key));
+    }
+
+    /**
+     * Wait on the non-streamed request for {@code key}, sending it with {@code send} (under the
+     * shared ticket it is given) if none is in flight.
+     */
+    public <T> CompletableFuture<T> request(String key, RequestLimiter.Ticket subscriber,
+                                            Function<RequestLimiter.Ticket, CompletableFuture<T>> send) {
+        Flight<T> flight = join("complete:" + key, subscriber, false, f -> send.apply(f.ticket));
+        return flight.result;
+    }
+
+    /**
+     * Wait on the streamed request for {@code key}, sending it with {@code send} if none is in
+     * flight. {@code send} gets the shared ticket and queue, and a callback for the build start.
+     */
+    public Stream stream(String key, RequestLimiter.Ticket subscriber, StreamSender send) {
+        Flight<AIResponse> flight = join("stream:" + key, subscriber, true,
+                f -> send.send(f.ticket, f.queue, f.buildStarted::complete));
+        PlacementQueue queue = flight.queue.follow();
+        // Whatever was received so far is still built, as when a player's own stream is cancelled
+        subscriber.onCancel(() -> {
+            queue.cancel();
+            queue.close();
+        });
+        return new Stream(queue, flight.buildStarted, flight.result);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Flight<T> join(String key, RequestLimiter.Ticket subscriber, boolean streamed,
+                               Function<Flight<T>, CompletableFuture<T>> send) {
+        RequestLimiter limiter = plugin.getRequestLimiter();
+        limiter.follow(subscriber);
+
+        Flight<T> flight;
+        boolean created;
+        if (!isEnabled()) {
+            flight = new Flight<>(key, limiter.openShared(), streamed);
+            flight.subscribe();
+            created = true;
+        } else {
+            Flight<?>[] fresh = {null};
+            flight = (Flight<T>) flights.compute(key, (k, current) -> {
+                if (current != null && current.subscribe()) {
+                    return current;
+                }
+                Flight<T> started = new Flight<>(key, limiter.openShared(), streamed);
+                started.subscribe();
+                fresh[0] = started;
+                return started;
+            });
+            created = fresh[0] == flight;
+        }
+
+        if (created) {
+            plugin.getMetrics().requestSent();
+            send.apply(flight).whenComplete((result, error) -> {
+                flights.remove(key, flight);
+                if (error != null) {
+                    flight.result.completeExceptionally(error);
+                } else {
+                    flight.result.complete(result);
+                }
+            });
+        } else {
+            plugin.getMetrics().requestCoalesced();
+        }
+        subscriber.onCancel(flight::leave);
+        flight.result.whenComplete((result, error) -> limiter.release(subscriber));
+        return flight;
+    }
+
+    /**
+     * One request in flight and the number of players still waiting on it.
+     */
+    private final class Flight<T> {
+        private final String key;
+        private final RequestLimiter.Ticket ticket;
+        // Streamed requests only
+        private final PlacementQueue queue;
+        private final CompletableFuture<String> buildStarted = new CompletableFuture<>();
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private int subscribers = 0; // guarded by this
+        private boolean abandoned = false;
+
+        private Flight(String key, RequestLimiter.Ticket ticket, boolean streamed) {
+            this.key = key;
+            this.ticket = ticket;
+            this.queue = streamed ? new PlacementQueue() : null;
+        }
+
+        /** Add a subscriber. False if the request is over or everyone has already left it. */
+        private synchronized boolean subscribe() {
+            if (abandoned || result.isDone() || (queue != null && queue.isCancelled())) {
+                return false;
+            }
+            subscribers++;
+            return true;
+        }
+
+        /** A subscriber cancelled; the last one to go cancels the request. */
+        private void leave() {
+            synchronized (this) {
+                if (--subscribers > 0 || result.isDone()) {
+                    return;
+                }
+                abandoned = true;
+            }
+            flights.remove(key, this);
+            ticket.cancel();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.aibuilder;
+
+import okhttp3.Call;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs AI requests on their own virtual threads instead of the common ForkJoinPool, so a few
+ * slow HTTP calls can't starve anything else in the JVM.
+ *
+ * At most {@code max-concurrent-requests} calls run at once; the rest wait in line, up to
+ * {@code max-queued-requests}. Each player has at most one request open at a time, tracked by a
+ * {@link Ticket} that can cancel the HTTP call whether it is still waiting or already running.
+ */
+public class RequestLimiter {
+
+    /**
+     * One player's open request. Created by {@link #open}, finished when its last task completes.
+     * A request may run several tasks at once (the regions of a large build); cancelling the
+     * ticket aborts all of them.
+     */
+    public static final class Ticket {
+        private final UUID playerId;
+        private final Set<Call> calls = ConcurrentHashMap.newKeySet();
+        private final Set<Thread> waiters = ConcurrentHashMap.newKeySet();
+        private final Queue<Runnable> cancelActions = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        // Waiting on a request shared with other players rather than running one of its own
+        private volatile boolean following = false;
+
+        Ticket(UUID playerId) {
+            this.playerId = playerId;
+        }
+
+        /**
+         * Register an HTTP call this request is about to make, so {@link #cancel} can abort it.
+         */
+        public Call attach(Call call) {
+            calls.add(call);
+            if (cancelled) {
+                call.cancel();
+            }
+            return call;
+        }
+
+        /** Abort the request: stop waiting for a slot, and cancel any HTTP call that is running. */
+        public void cancel() {
+            cancelled = true;
+            calls.forEach(Call::cancel);
+            waiters.forEach(Thread::interrupt);
+            Runnable action;
+            while ((action = cancelActions.poll()) != null) {
+                action.run();
+            }
+        }
+
+        /** Run {@code action} once if this ticket is cancelled; right away if it already is. */
+        public void onCancel(Runnable action) {
+            cancelActions.add(action);
+            if (cancelled && cancelActions.remove(action)) {
+                action.run();
+            }
+        }
+
+        public boolean isCancelled() { return cancelled; }
+        public UUID playerId() { return playerId; }
+    }
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("AIBuilder-request-", 0).factory());
+    private final Map<UUID, Ticket> open = new ConcurrentHashMap<>();
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger following = new AtomicInteger();
+    private final Metrics metrics;
+
+    public RequestLimiter(AIBuilderPlugin plugin) {
+        this.metrics = plugin.getMetrics();
+        this.maxConcurrent = Math.max(1, plugin.getConfig().getInt("max-concurrent-requests", 4));
+        this.maxQueued = Math.max(0, plugin.getConfig().getInt("max-queued-requests", 16));
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Open a request for a player. Returns null if they already have one open.
+     */
+    public Ticket open(UUID playerId) {
+        Ticket ticket = new Ticket(playerId);
+        return open.putIfAbsent(playerId, ticket) == null ? ticket : null;
+    }
+
+    /**
+     * Open a request that belongs to no player, for {@link RequestCoalescer} to run on behalf of
+     * everyone who asked for it. It closes like any other once its last task completes.
+     */
+    public Ticket openShared() {
+        Ticket ticket = new Ticket(UUID.randomUUID());
+        open.put(ticket.playerId, ticket);
+        return ticket;
+    }
+
+    /**
+     * Hold a player's open ticket while it waits on a shared request instead of running its own.
+     * Followers don't count as queued, since they take no slot. Needs a matching {@link #release}.
+     */
+    public void follow(Ticket ticket) {
+        if (!ticket.following) {
+            ticket.following = true;
+            following.incrementAndGet();
+        }
+        hold(ticket);
+    }
+
+    /**
+     * Run {@code task} for an open ticket once a slot is free. If the ticket is cancelled before
+     * then, the future completes with a {@link CancellationException} and the task never runs.
+     */
+    public <T> CompletableFuture<T> submit(Ticket ticket, Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        hold(ticket);
+        long submitted = System.nanoTime();
+        executor.execute(() -> {
+            Thread thread = Thread.currentThread();
+            try {
+                ticket.waiters.add(thread);
+                if (ticket.isCancelled()) {
+                    throw new InterruptedException();
+                }
+                permits.acquire();
+            } catch (InterruptedException e) {
+                release(ticket);
+                future.completeExceptionally(new CancellationException("Request cancelled while queued"));
+                return;
+            } finally {
+                ticket.waiters.remove(thread);
+                // Don't carry a cancel interrupt that arrived after the permit into the task
+                Thread.interrupted();
+            }
+
+            metrics.record(Metrics.Stage.SLOT_WAIT, System.nanoTime() - submitted);
+            running.incrementAndGet();
+            try {
+                if (ticket.isCancelled()) {
+                    future.completeExceptionally(new CancellationException("Request cancelled"));
+                } else {
+                    future.complete(task.get());
+                }
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                running.decrementAndGet();
+                permits.release();
+                release(ticket);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Cancel a player's open request, if any. Returns true if there was one.
+     */
+    public boolean cancel(UUID playerId) {
+        Ticket ticket = open.get(playerId);
+        if (ticket == null) {
+            return false;
+        }
+        ticket.cancel();
+        return true;
+    }
+
+    public boolean hasOpenRequest(UUID playerId) {
+        return open.containsKey(playerId);
+    }
+
+    /** Requests waiting for a slot. */
+    public int queued() {
+        return Math.max(0, open.size() - following.get() - running.get());
+    }
+
+    public int running() {
+        return running.get();
+    }
+
+    /** True if every slot is taken and the wait line is full. */
+    public boolean isFull() {
+        return queued() >= maxQueued && open.size() - following.get() >= maxConcurrent;
+    }
+
+    /** True if more requests are open than there are slots, so the newest has to wait. */
+    public boolean isBusy() {
+        return open.size() - following.get() > maxConcurrent;
+    }
+
+    /**
+     * Cancel everything and stop the executor (plugin disable).
+     */
+    public void shutdown() {
+        open.values().forEach(Ticket::cancel);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Keep a ticket open between tasks, e.g. while one task's result decides which ones to
+     * submit next. Every hold needs a matching {@link #release}.
+     */
+    public void hold(Ticket ticket) {
+        ticket.pending.incrementAndGet();
+    }
+
+    /**
+     * Undo a {@link #hold}. The ticket closes once nothing holds it and no task is left.
+     */
+    public void release(Ticket ticket) {
+        if (ticket.pending.decrementAndGet() == 0 && open.remove(ticket.playerId, ticket) && ticket.following) {
+            following.decrementAndGet();
+        }
+    }
+}
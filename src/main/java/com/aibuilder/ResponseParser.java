@@ -0,0 +1,241 @@
+package com.aibuilder;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Streaming parser for chat-completion responses, built on Gson's {@link JsonReader}.
+ * The HTTP body is read straight from the socket, the only string copied out of it is the
+ * message content, and the build's blocks go directly into a {@link BlockList} without a
+ * JSON tree or an object per block. Shape primitives are kept as {@link Shape}s for the
+ * compiler to expand.
+ */
+public final class ResponseParser {
+
+    private ResponseParser() {
+    }
+
+    /**
+     * Read a chat-completions response body and parse the first choice's message content.
+     * The {@code usage} block, if present, is handed to {@code onUsage}.
+     */
+    public static AIResponse parseCompletion(Reader body, Consumer<TokenUsage> onUsage) throws IOException {
+        String content = readContent(body, onUsage);
+        if (content == null) {
+            return new AIResponse(AIResponse.Type.ERROR, "Unexpected AI response. Try again.", null);
+        }
+        return parseContent(content);
+    }
+
+    /**
+     * Extract {@code choices[0].message.content} from a chat-completions body.
+     * Returns null if it is missing.
+     */
+    static String readContent(Reader body, Consumer<TokenUsage> onUsage) throws IOException {
+        JsonReader reader = new JsonReader(body);
+        String content = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (field.equals("usage") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                onUsage.accept(TokenUsage.read(reader));
+                continue;
+            }
+            if (!field.equals("choices")) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            if (reader.hasNext()) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (!reader.nextName().equals("message")) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("content") && reader.peek() == JsonToken.STRING) {
+                            content = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endObject();
+            }
+            while (reader.hasNext()) {
+                reader.skipValue();
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        return content;
+    }
+
+    /**
+     * Parse the model's answer: a build or clarify object, optionally wrapped in a markdown
+     * code fence, or plain text (treated as a clarification).
+     */
+    public static AIResponse parseContent(String content) {
+        // Anything before the first brace is a fence or chatter; JsonReader stops at the
+        // end of the object, so a closing fence is never read
+        int start = content.indexOf('{');
+        if (start < 0) {
+            return new AIResponse(AIResponse.Type.CLARIFY, content.trim(), null);
+        }
+
+        try {
+            StringReader source = new StringReader(content);
+            source.skip(start);
+            JsonReader reader = new JsonReader(source);
+            reader.setStrictness(Strictness.LENIENT);
+
+            String action = null;
+            String message = null;
+            String description = "Building structure";
+            BlockList blocks = null;
+            List<Shape> shapes = List.of();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "action" -> action = reader.nextString();
+                    case "message" -> message = reader.nextString();
+                    case "description" -> description = reader.nextString();
+                    case "blocks" -> blocks = readBlocks(reader);
+                    case "shapes" -> {
+                        // Shapes go under blocks; after them they are ignored, as when streaming
+                        if (blocks == null) {
+                            shapes = readShapes(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if ("clarify".equals(action) && message != null) {
+                return new AIResponse(AIResponse.Type.CLARIFY, message, null);
+            } else if ("build".equals(action) && (blocks != null || !shapes.isEmpty())) {
+                return new AIResponse(AIResponse.Type.BUILD, description,
+                        blocks != null ? blocks : new BlockList(), shapes);
+            } else {
+                return new AIResponse(AIResponse.Type.ERROR,
+                        "Unexpected AI response. Try again.", null);
+            }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // If AI returned plain text instead of JSON, treat it as a clarification
+            return new AIResponse(AIResponse.Type.CLARIFY, content.trim(), null);
+        }
+    }
+
+    /**
+     * Parse the answer to a layout request. Layouts are a handful of regions, so the answer is
+     * read as a tree; regions with missing corners are dropped.
+     */
+    public static BuildLayout parseLayout(String content) {
+        int start = content.indexOf('{');
+        if (start < 0) {
+            return new BuildLayout(AIResponse.Type.CLARIFY, content.trim(), List.of());
+        }
+        try {
+            JsonReader reader = new JsonReader(new StringReader(content.substring(start)));
+            reader.setStrictness(Strictness.LENIENT);
+            JsonObject json = JsonParser.parseReader(reader).getAsJsonObject();
+            String action = json.has("action") ? json.get("action").getAsString() : "";
+            if (action.equals("clarify") && json.has("message")) {
+                return new BuildLayout(AIResponse.Type.CLARIFY, json.get("message").getAsString(), List.of());
+            }
+
+            List<BuildLayout.Region> regions = new ArrayList<>();
+            if (json.has("regions") && json.get("regions").isJsonArray()) {
+                for (JsonElement element : json.getAsJsonArray("regions")) {
+                    try {
+                        JsonObject region = element.getAsJsonObject();
+                        String name = region.has("name") ? region.get("name").getAsString()
+                                : "part " + (regions.size() + 1);
+                        String brief = region.has("brief") ? region.get("brief").getAsString() : name;
+                        int priority = region.has("priority") ? region.get("priority").getAsInt() : 0;
+                        regions.add(BuildLayout.Region.of(name, brief, priority,
+                                corner(region, "from"), corner(region, "to")));
+                    } catch (RuntimeException e) {
+                        // Skip this region, keep the rest of the layout
+                    }
+                }
+            }
+            if (regions.isEmpty()) {
+                return new BuildLayout(AIResponse.Type.ERROR,
+                        "The AI didn't return a usable layout. Try again.", List.of());
+            }
+            String description = json.has("description") ? json.get("description").getAsString()
+                    : "Large build";
+            return new BuildLayout(AIResponse.Type.BUILD, description, regions);
+        } catch (RuntimeException e) {
+            return new BuildLayout(AIResponse.Type.CLARIFY, content.trim(), List.of());
+        }
+    }
+
+    private static int[] corner(JsonObject region, String key) {
+        var array = region.getAsJsonArray(key);
+        return new int[]{array.get(0).getAsInt(), array.get(1).getAsInt(), array.get(2).getAsInt()};
+    }
+
+    /**
+     * Shapes are small, so each one is read as a tree and validated; malformed ones are dropped.
+     */
+    private static List<Shape> readShapes(JsonReader reader) throws IOException {
+        List<Shape> shapes = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            JsonElement element = JsonParser.parseReader(reader);
+            try {
+                shapes.add(Shape.fromJson(element.getAsJsonObject()));
+            } catch (RuntimeException e) {
+                // Skip this shape, keep the rest of the build
+            }
+        }
+        reader.endArray();
+        return shapes;
+    }
+
+    private static BlockList readBlocks(JsonReader reader) throws IOException {
+        BlockList blocks = new BlockList();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int x = 0, y = 0, z = 0;
+            String material = null;
+            int seen = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "x" -> { x = reader.nextInt(); seen |= 1; }
+                    case "y" -> { y = reader.nextInt(); seen |= 2; }
+                    case "z" -> { z = reader.nextInt(); seen |= 4; }
+                    case "material" -> material = reader.nextString();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (seen == 7 && material != null) {
+                blocks.add(x, y, z, material);
+            }
+        }
+        reader.endArray();
+        return blocks;
+    }
+}
@@ -0,0 +1,97 @@
+package com.aibuilder;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every task the plugin schedules goes through here, on Paper's region-aware schedulers, so
+ * the same code runs on Paper and Folia. On Paper the global, region and player schedulers
+ * are all the main thread; on Folia they are the global region thread, the thread ticking a
+ * chunk's region, and the thread ticking a player's region.
+ */
+public class Scheduling {
+
+    private static final boolean FOLIA = classExists("io.papermc.paper.threadedregions.RegionizedServer");
+
+    private final AIBuilderPlugin plugin;
+    private final Executor async;
+
+    public Scheduling(AIBuilderPlugin plugin) {
+        this.plugin = plugin;
+        this.async = task -> plugin.getServer().getAsyncScheduler().runNow(plugin, t -> task.run());
+    }
+
+    /** True on Folia, where there is no single main thread. */
+    public boolean isFolia() {
+        return FOLIA;
+    }
+
+    /** Off any tick thread. */
+    public Executor async() {
+        return async;
+    }
+
+    /** On the global region thread (the main thread on Paper), which owns build bookkeeping. */
+    public void global(Runnable task) {
+        plugin.getServer().getGlobalRegionScheduler().execute(plugin, task);
+    }
+
+    /** Run now if already on the global region thread, otherwise schedule it there. */
+    public void onGlobal(Runnable task) {
+        if (plugin.getServer().isGlobalTickThread()) {
+            task.run();
+        } else {
+            global(task);
+        }
+    }
+
+    /** On the thread that owns {@code player}. Dropped if the player has left by then. */
+    public void forPlayer(Player player, Runnable task) {
+        forPlayer(player, task, null);
+    }
+
+    /** As {@link #forPlayer(Player, Runnable)}, running {@code retired} instead if the player has left. */
+    public void forPlayer(Player player, Runnable task, Runnable retired) {
+        if (!player.getScheduler().execute(plugin, task, retired, 1L) && retired != null) {
+            retired.run();
+        }
+    }
+
+    /** Run now if this thread owns {@code player}, otherwise schedule it on the one that does. */
+    public void onPlayer(Player player, Runnable task) {
+        if (plugin.getServer().isOwnedByCurrentRegion(player)) {
+            task.run();
+        } else {
+            forPlayer(player, task);
+        }
+    }
+
+    /** On the thread that owns chunk {@code cx, cz}. */
+    public void at(World world, int cx, int cz, Runnable task) {
+        plugin.getServer().getRegionScheduler().execute(plugin, world, cx, cz, task);
+    }
+
+    /** {@code task} on the global region thread every tick. */
+    public ScheduledTask everyTick(Runnable task) {
+        return plugin.getServer().getGlobalRegionScheduler().runAtFixedRate(plugin, t -> task.run(), 1L, 1L);
+    }
+
+    /** {@code task} off the tick threads every {@code periodMillis}. */
+    public ScheduledTask asyncTimer(Runnable task, long periodMillis) {
+        return plugin.getServer().getAsyncScheduler().runAtFixedRate(plugin, t -> task.run(), periodMillis,
+                periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean classExists(String name) {
+        try {
+            Class.forName(name);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.aibuilder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * A compressed build primitive from the AI protocol's "shapes" array. One shape stands in
+ * for anything from a handful to thousands of blocks; it is expanded on the server, block by
+ * block, straight into whatever is consuming it (a plan being compiled or a live build queue),
+ * without ever materialising a block list.
+ *
+ * Coordinates are relative to the player, like block placements, and ranges are inclusive.
+ */
+public sealed interface Shape {
+
+    /** Upper bound on repeat counts and radii, to keep a single shape from exploding. */
+    int MAX_REPEAT = 256;
+    int MAX_RADIUS = 64;
+    /**
+     * Upper bound on any coordinate, step or height, matching the y range a {@link BuildPlan}
+     * can hold. Keeps spans, loop bounds and repeat offsets far from int overflow, so
+     * {@link #volume} is exact and the limits checked against it hold.
+     */
+    int MAX_COORDINATE = 2048;
+
+    /**
+     * Receives the blocks of an expanding shape.
+     */
+    interface Sink {
+        /**
+         * Called before the blocks of each solid (non-repeat) shape.
+         * Return false to skip that shape, e.g. because its material is unknown.
+         */
+        boolean begin(String material);
+
+        void accept(int x, int y, int z);
+    }
+
+    /** Expand this shape, offset by (dx, dy, dz), into the sink. */
+    void expand(int dx, int dy, int dz, Sink sink);
+
+    /** Upper bound on the number of blocks {@link #expand} produces. */
+    long volume();
+
+    default void expand(Sink sink) {
+        expand(0, 0, 0, sink);
+    }
+
+    /** Solid cuboid between two corners. */
+    record Fill(int x1, int y1, int z1, int x2, int y2, int z2, String material) implements Shape {
+        @Override
+        public void expand(int dx, int dy, int dz, Sink sink) {
+            if (!sink.begin(material)) {
+                return;
+            }
+            int minX = Math.min(x1, x2), maxX = Math.max(x1, x2);
+            int minY = Math.min(y1, y2), maxY = Math.max(y1, y2);
+            int minZ = Math.min(z1, z2), maxZ = Math.max(z1, z2);
+            for (int y = minY; y <= maxY; y++) {
+                for (int x = minX; x <= maxX; x++) {
+                    for (int z = minZ; z <= maxZ; z++) {
+                        sink.accept(x + dx, y + dy, z + dz);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public long volume() {
+            return boxVolume(x1, y1, z1, x2, y2, z2);
+        }
+    }
+
+    /** The six faces of a cuboid: walls, floor and ceiling, with the inside left alone. */
+    record HollowBox(int x1, int y1, int z1, int x2, int y2, int z2, String material) implements Shape {
+        @Override
+        public void expand(int dx, int dy, int dz, Sink sink) {
+            if (!sink.begin(material)) {
+                return;
+            }
+            int minX = Math.min(x1, x2), maxX = Math.max(x1, x2);
+            int minY = Math.min(y1, y2), maxY = Math.max(y1, y2);
+            int minZ = Math.min(z1, z2), maxZ = Math.max(z1, z2);
+            for (int y = minY; y <= maxY; y++) {
+                boolean cap = y == minY || y == maxY;
+                for (int x = minX; x <= maxX; x++) {
+                    boolean side = cap || x == minX || x == maxX;
+                    if (side) {
+                        for (int z = minZ; z <= maxZ; z++) {
+                            sink.accept(x + dx, y + dy, z + dz);
+                        }
+                    } else {
+                        sink.accept(x + dx, y + dy, minZ + dz);
+                        if (maxZ != minZ) {
+                            sink.accept(x + dx, y + dy, maxZ + dz);
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public long volume() {
+            return boxVolume(x1, y1, z1, x2, y2, z2);
+        }
+    }
+
+    /** A straight line of blocks between two points. */
+    record Line(int x1, int y1, int z1, int x2, int y2, int z2, String material) implements Shape {
+        @Override
+        public void expand(int dx, int dy, int dz, Sink sink) {
+            if (!sink.begin(material)) {
+                return;
+            }
+            long steps = steps();
+            for (long i = 0; i <= steps; i++) {
+                double t = steps == 0 ? 0 : (double) i / steps;
+                sink.accept((int) Math.round(x1 + ((long) x2 - x1) * t) + dx,
+                        (int) Math.round(y1 + ((long) y2 - y1) * t) + dy,
+                        (int) Math.round(z1 + ((long) z2 - z1) * t) + dz);
+            }
+        }
+
+        private long steps() {
+            return Math.max(span(x1, x2), Math.max(span(y1, y2), span(z1, z2)));
+        }
+
+        @Override
+        public long volume() {
+            return steps() + 1L;
+        }
+    }
+
+    /** Vertical cylinder standing on (x, y, z); hollow leaves only the wall. */
+    record Cylinder(int x, int y, int z, int radius, int height, boolean hollow, String material) implements Shape {
+        @Override
+        public void expand(int dx, int dy, int dz, Sink sink) {
+            if (!sink.begin(material)) {
+                return;
+            }
+            double outer = (radius + 0.5) * (radius + 0.5);
+            double inner = (radius - 0.5) * (radius - 0.5);
+            for (int h = 0; h < height; h++) {
+                for (int ox = -radius; ox <= radius; ox++) {
+                    for (int oz = -radius; oz <= radius; oz++) {
+                        int d2 = ox * ox + oz * oz;
+                        if (d2 < outer && (!hollow || d2 >= inner)) {
+                            sink.accept(x + ox + dx, y + h + dy, z + oz + dz);
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public long volume() {
+            return (2L * radius + 1) * (2L * radius + 1) * Math.max(height, 0);
+        }
+    }
+
+    /** Ball centred on (x, y, z); hollow leaves only the shell. */
+    record Sphere(int x, int y, int z, int radius, boolean hollow, String material) implements Shape {
+        @Override
+        public void expand(int dx, int dy, int dz, Sink sink) {
+            if (!sink.begin(material)) {
+                return;
+            }
+            double outer = (radius + 0.5) * (radius + 0.5);
+            double inner = (radius - 0.5) * (radius - 0.5);
+            for (int oy = -radius; oy <= radius; oy++) {
+                for (int ox = -radius; ox <= radius; ox++) {
+                    for (int oz = -radius; oz <= radius; oz++) {
+                        int d2 = ox * ox + oy * oy + oz * oz;
+                        if (d2 < outer && (!hollow || d2 >= inner)) {
+                            sink.accept(x + ox + dx, y + oy + dy, z + oz + dz);
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public long volume() {
+            long side = 2L * radius + 1;
+            return side * side * side;
+        }
+    }
+
+    /** Another shape stamped {@code count} times, shifted by (sx, sy, sz) each time. */
+    record Repeat(Shape shape, int count, int sx, int sy, int sz) implements Shape {
+        @Override
+        public void expand(int dx, int dy, int dz, Sink sink) {
+            for (int i = 0; i < count; i++) {
+                shape.expand(dx + sx * i, dy + sy * i, dz + sz * i, sink);
+            }
+        }
+
+        @Override
+        public long volume() {
+            // Saturates rather than overflowing for deeply nested repeats
+            long each = shape.volume();
+            return count <= 0 ? 0 : each > Long.MAX_VALUE / count ? Long.MAX_VALUE : each * count;
+        }
+    }
+
+    private static long span(int a, int b) {
+        return Math.abs((long) b - a);
+    }
+
+    private static long boxVolume(int x1, int y1, int z1, int x2, int y2, int z2) {
+        return (span(x1, x2) + 1) * (span(y1, y2) + 1) * (span(z1, z2) + 1);
+    }
+
+    /**
+     * Parse one entry of the "shapes" array.
+     *
+     * @throws IllegalArgumentException if the entry is malformed or out of range
+     */
+    static Shape fromJson(JsonObject json) {
+        String type = string(json, "type");
+        return switch (type) {
+            case "fill" -> {
+                int[] a = point(json, "from"), b = point(json, "to");
+                yield new Fill(a[0], a[1], a[2], b[0], b[1], b[2], string(json, "material"));
+            }
+            case "hollow_box" -> {
+                int[] a = point(json, "from"), b = point(json, "to");
+                yield new HollowBox(a[0], a[1], a[2], b[0], b[1], b[2], string(json, "material"));
+            }
+            case "line" -> {
+                int[] a = point(json, "from"), b = point(json, "to");
+                yield new Line(a[0], a[1], a[2], b[0], b[1], b[2], string(json, "material"));
+            }
+            case "cylinder" -> {
+                int[] c = point(json, "center");
+                int height = integer(json, "height");
+                if (height < 1 || height > MAX_COORDINATE) {
+                    throw new IllegalArgumentException("height out of range: " + height);
+                }
+                yield new Cylinder(c[0], c[1], c[2], radius(json), height, bool(json, "hollow"),
+                        string(json, "material"));
+            }
+            case "sphere" -> {
+                int[] c = point(json, "center");
+                yield new Sphere(c[0], c[1], c[2], radius(json), bool(json, "hollow"), string(json, "material"));
+            }
+            case "repeat" -> {
+                if (!json.has("shape") || !json.get("shape").isJsonObject()) {
+                    throw new IllegalArgumentException("repeat needs a shape");
+                }
+                int count = integer(json, "count");
+                // At least one, so nested repeats can't loop over nothing
+                if (count < 1 || count > MAX_REPEAT) {
+                    throw new IllegalArgumentException("repeat count out of range: " + count);
+                }
+                int[] step = point(json, "step");
+                yield new Repeat(fromJson(json.getAsJsonObject("shape")), count, step[0], step[1], step[2]);
+            }
+            default -> throw new IllegalArgumentException("Unknown shape type: " + type);
+        };
+    }
+
+    private static int radius(JsonObject json) {
+        int radius = integer(json, "radius");
+        if (radius < 0 || radius > MAX_RADIUS) {
+            throw new IllegalArgumentException("radius out of range: " + radius);
+        }
+        return radius;
+    }
+
+    private static int[] point(JsonObject json, String key) {
+        if (!json.has(key) || !json.get(key).isJsonArray()) {
+            throw new IllegalArgumentException("Missing " + key);
+        }
+        JsonArray array = json.getAsJsonArray(key);
+        if (array.size() != 3) {
+            throw new IllegalArgumentException(key + " must be [x, y, z]");
+        }
+        int[] point = {array.get(0).getAsInt(), array.get(1).getAsInt(), array.get(2).getAsInt()};
+        for (int value : point) {
+            if (value < -MAX_COORDINATE || value > MAX_COORDINATE) {
+                throw new IllegalArgumentException(key + " out of range: " + value);
+            }
+        }
+        return point;
+    }
+
+    private static int integer(JsonObject json, String key) {
+        if (!json.has(key)) {
+            throw new IllegalArgumentException("Missing " + key);
+        }
+        return json.get(key).getAsInt();
+    }
+
+    private static String string(JsonObject json, String key) {
+        if (!json.has(key)) {
+            throw new IllegalArgumentException("Missing " + key);
+        }
+        return json.get(key).getAsString();
+    }
+
+    private static boolean bool(JsonObject json, String key) {
+        return json.has(key) && json.get(key).getAsBoolean();
+    }
+}
@@ -0,0 +1,434 @@
+package com.aibuilder;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.Tag;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A short description of the ground around a player for the prompt, so the model can fit a build
+ * to the site the first time: a height grid, water, lava, trees and existing structures.
+ *
+ * Each chunk within {@code site-context-radius} is snapshotted on the thread that owns it and
+ * reduced off the tick threads to one height and one kind per column. Those are cached per chunk
+ * until a block in the chunk changes (block events, and builds when they end) or for a few
+ * minutes at most, so repeated requests from one spot only redo the text. The text is kept under
+ * {@code site-context-tokens} (estimated) tokens by coarsening the grid, and then by dropping it.
+ */
+public class SiteSurvey {
+
+    // What the top of a column is; also indexes MARKS
+    private static final byte GROUND = 0;
+    private static final byte WATER = 1;
+    private static final byte LAVA = 2;
+    private static final byte TREES = 3;
+    private static final byte BUILT = 4;
+    private static final String[] MARKS = {"", "w", "l", "t", "b"};
+
+    private static final int MAX_CHUNKS = 4096;
+    private static final long MAX_AGE_NANOS = 5L * 60 * 1_000_000_000L;
+    // Deepest a column is searched below its highest block for something to stand on
+    private static final int MAX_DEPTH = 64;
+    // Cell sizes tried for the height grid, finest first
+    private static final int[] CELLS = {1, 2, 3, 4, 5, 6, 8, 11, 16};
+    private static final int CHARS_PER_TOKEN = 4;
+
+    /**
+     * A surveyed site: the text for the prompt, or null if there is none, and a coarse
+     * fingerprint (see {@link #features}) that is equal for sites a build fits about as well.
+     */
+    public record Site(String description, String fingerprint) {
+        public static final Site NONE = new Site(null, "");
+    }
+
+    /** One chunk's surface: per column ({@code x + z * 16}) the top block's y and kind. */
+    private record Columns(int[] height, byte[] kind, long surveyedAt) {
+    }
+
+    private record ChunkId(UUID world, long chunk) {
+    }
+
+    private final AIBuilderPlugin plugin;
+    private final Executor async;
+    // Access-ordered, so the least recently used chunk goes first
+    private final LinkedHashMap<ChunkId, Columns> chunks = new LinkedHashMap<>(64, 0.75f, true);
+    // When each chunk last changed, so a survey that started before the change isn't cached
+    private final Map<ChunkId, Long> changed = new HashMap<>();
+
+    public SiteSurvey(AIBuilderPlugin plugin, Executor async) {
+        this.plugin = plugin;
+        this.async = async;
+    }
+
+    public boolean isEnabled() {
+        return plugin.getConfig().getBoolean("site-context", true);
+    }
+
+    /**
+     * Survey the site around {@code location}; {@link Site#NONE} if surveys are off, nothing
+     * around is loaded, or the world has a ceiling (the Nether's roof would pass for the
+     * ground). Never completes exceptionally.
+     */
+    public CompletableFuture<Site> describe(Location location) {
+        World world = location.getWorld();
+        if (!isEnabled() || world.hasCeiling()) {
+            return CompletableFuture.completedFuture(Site.NONE);
+        }
+        long started = System.nanoTime();
+        int px = location.getBlockX();
+        int py = location.getBlockY();
+        int pz = location.getBlockZ();
+        int radius = Math.max(4, Math.min(64, plugin.getConfig().getInt("site-context-radius", 16)));
+        int budget = Math.max(50, plugin.getConfig().getInt("site-context-tokens", 300));
+
+        Map<Long, CompletableFuture<Columns>> pending = new HashMap<>();
+        for (int cx = (px - radius) >> 4; cx <= (px + radius) >> 4; cx++) {
+            for (int cz = (pz - radius) >> 4; cz <= (pz + radius) >> 4; cz++) {
+                pending.put(ChunkLoader.chunkKey(cx, cz), columns(world, cx, cz));
+            }
+        }
+        return CompletableFuture.allOf(pending.values().toArray(CompletableFuture[]::new))
+                .thenApplyAsync(v -> {
+                    Map<Long, Columns> surveyed = new HashMap<>();
+                    pending.forEach((key, future) -> {
+                        Columns columns = future.join();
+                        if (columns != null) {
+                            surveyed.put(key, columns);
+                        }
+                    });
+                    Site site = surveyed.isEmpty() ? Site.NONE : summarise(surveyed, px, py, pz, radius, budget);
+                    plugin.getMetrics().record(Metrics.Stage.SURVEY, System.nanoTime() - started);
+                    return site;
+                }, async)
+                .exceptionally(e -> {
+                    plugin.getLogger().warning("Failed to survey the site at " + px + "," + py + "," + pz + ": " +
+                            e.getMessage());
+                    return Site.NONE;
+                });
+    }
+
+    /** A block in column {@code x, z} changed: survey its chunk again next time. */
+    public void invalidate(World world, int x, int z) {
+        invalidateChunk(new ChunkId(world.getUID(), ChunkLoader.chunkKey(x >> 4, z >> 4)));
+    }
+
+    /** A build wrote the blocks of {@code placed} (its journal) at {@code origin}. */
+    public void invalidate(Location origin, BuildPlan placed) {
+        UUID world = origin.getWorld().getUID();
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < placed.size(); i++) {
+            long pos = placed.position(i);
+            long key = ChunkLoader.chunkKey((origin.getBlockX() + BuildPlan.unpackX(pos)) >> 4,
+                    (origin.getBlockZ() + BuildPlan.unpackZ(pos)) >> 4);
+            if (key != last) {
+                invalidateChunk(new ChunkId(world, key));
+                last = key;
+            }
+        }
+    }
+
+    private synchronized void invalidateChunk(ChunkId id) {
+        chunks.remove(id);
+        if (changed.size() >= MAX_CHUNKS) {
+            changed.clear(); // Only loses the guard for surveys in flight right now
+        }
+        changed.put(id, System.nanoTime());
+    }
+
+    /**
+     * A chunk's columns, cached or surveyed from a snapshot taken on its region's thread; null
+     * if the chunk isn't loaded (it is never loaded for this).
+     */
+    private CompletableFuture<Columns> columns(World world, int cx, int cz) {
+        ChunkId id = new ChunkId(world.getUID(), ChunkLoader.chunkKey(cx, cz));
+        synchronized (this) {
+            Columns cached = chunks.get(id);
+            if (cached != null && System.nanoTime() - cached.surveyedAt() < MAX_AGE_NANOS) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        CompletableFuture<ChunkSnapshot> snapshot = new CompletableFuture<>();
+        long[] takenAt = new long[1];
+        plugin.getScheduling().at(world, cx, cz, () -> {
+            try {
+                takenAt[0] = System.nanoTime();
+                // Height map on, biomes off
+                snapshot.complete(world.isChunkLoaded(cx, cz)
+                        ? world.getChunkAt(cx, cz).getChunkSnapshot(true, false, false) : null);
+            } catch (RuntimeException e) {
+                snapshot.completeExceptionally(e);
+            }
+        });
+        return snapshot.thenApplyAsync(taken -> {
+            if (taken == null) {
+                return null;
+            }
+            Columns columns = survey(taken, world.getMinHeight(), takenAt[0]);
+            synchronized (this) {
+                Long at = changed.get(id);
+                if (at == null || at < takenAt[0]) {
+                    chunks.put(id, columns);
+                    if (chunks.size() > MAX_CHUNKS) {
+                        chunks.remove(chunks.keySet().iterator().next());
+                    }
+                }
+            }
+            return columns;
+        }, async);
+    }
+
+    private static Columns survey(ChunkSnapshot snapshot, int minY, long takenAt) {
+        int[] height = new int[256];
+        byte[] kind = new byte[256];
+        for (int z = 0; z < 16; z++) {
+            for (int x = 0; x < 16; x++) {
+                int column = x + z * 16;
+                int top = snapshot.getHighestBlockYAt(x, z);
+                height[column] = Integer.MIN_VALUE;
+                byte found = GROUND;
+                for (int y = top; y >= Math.max(minY, top - MAX_DEPTH); y--) {
+                    Material type = snapshot.getBlockType(x, y, z);
+                    if (type == Material.WATER || type == Material.LAVA) {
+                        found = type == Material.WATER ? WATER : LAVA;
+                        height[column] = y;
+                        break;
+                    }
+                    if (!type.isSolid()) {
+                        continue; // Plants, snow layers, torches
+                    }
+                    if (Tag.LEAVES.isTagged(type) || Tag.LOGS.isTagged(type)) {
+                        found = TREES; // Keep going down to the ground under the tree
+                        continue;
+                    }
+                    if (found != TREES && !isNatural(type)) {
+                        found = BUILT;
+                    }
+                    height[column] = y;
+                    break;
+                }
+                kind[column] = found;
+            }
+        }
+        return new Columns(height, kind, takenAt);
+    }
+
+    private static boolean isNatural(Material type) {
+        return Tag.DIRT.isTagged(type) || Tag.SAND.isTagged(type) || Tag.BASE_STONE_OVERWORLD.isTagged(type)
+                || Tag.TERRACOTTA.isTagged(type) || Tag.ICE.isTagged(type)
+                || type == Material.GRAVEL || type == Material.CLAY || type == Material.SNOW_BLOCK
+                || type == Material.SANDSTONE || type == Material.RED_SANDSTONE || type == Material.BEDROCK;
+    }
+
+    /**
+     * The prompt text: what the grid means, the grid at the finest cell size that fits the
+     * budget, then a line per feature.
+     */
+    private static Site summarise(Map<Long, Columns> surveyed, int px, int py, int pz, int radius, int budget) {
+        int side = 2 * radius + 1;
+        // Relative height per column, row-major from (-radius, -radius); MIN_VALUE where unknown
+        int[] height = new int[side * side];
+        byte[] kind = new byte[side * side];
+        Arrays.fill(height, Integer.MIN_VALUE);
+        for (int dz = -radius; dz <= radius; dz++) {
+            for (int dx = -radius; dx <= radius; dx++) {
+                int x = px + dx;
+                int z = pz + dz;
+                Columns columns = surveyed.get(ChunkLoader.chunkKey(x >> 4, z >> 4));
+                if (columns == null) {
+                    continue;
+                }
+                int column = (x & 15) + (z & 15) * 16;
+                if (columns.height()[column] == Integer.MIN_VALUE) {
+                    continue;
+                }
+                int i = (dx + radius) + (dz + radius) * side;
+                height[i] = columns.height()[column] - py;
+                kind[i] = columns.kind()[column];
+            }
+        }
+
+        String header = "Site survey around the player (relative blocks: +x east, +z south, heights relative to " +
+                "the player's feet):";
+        StringBuilder fingerprint = new StringBuilder();
+        List<String> features = features(height, kind, side, radius, fingerprint);
+        int used = estimate(header) + features.stream().mapToInt(SiteSurvey::estimate).sum();
+
+        StringBuilder out = new StringBuilder(header);
+        for (int cell : CELLS) {
+            if (cell > side) {
+                break;
+            }
+            String grid = grid(height, kind, side, radius, cell);
+            if (used + estimate(grid) <= budget) {
+                out.append('\n').append(grid);
+                break;
+            }
+        }
+        int tokens = estimate(out.toString());
+        for (String line : features) {
+            if (tokens + estimate(line) > budget) {
+                break;
+            }
+            out.append('\n').append(line);
+            tokens += estimate(line);
+        }
+        return new Site(out.toString(), fingerprint.toString());
+    }
+
+    /**
+     * Heights on a grid of {@code cell}-block cells, north row first: each cell is the median
+     * height of its known columns, marked b (built) or l (lava) if any column is, w (water) or t
+     * (trees) if half of them are, ? if none is known.
+     */
+    private static String grid(int[] height, byte[] kind, int side, int radius, int cell) {
+        int cells = (side + cell - 1) / cell;
+        StringBuilder out = new StringBuilder("Ground height grid, " + cells + "x" + cells + " cells of " + cell +
+                "x" + cell + " blocks, rows from z=" + (-radius) + " (north) to z=" + radius + ", columns from x=" +
+                (-radius) + " (west) to x=" + radius + "; w water, l lava, t trees, b existing structure:");
+        int[] values = new int[cell * cell];
+        for (int row = 0; row < cells; row++) {
+            out.append('\n');
+            for (int col = 0; col < cells; col++) {
+                int n = 0;
+                int[] kinds = new int[MARKS.length];
+                for (int z = row * cell; z < Math.min(side, (row + 1) * cell); z++) {
+                    for (int x = col * cell; x < Math.min(side, (col + 1) * cell); x++) {
+                        int i = x + z * side;
+                        if (height[i] != Integer.MIN_VALUE) {
+                            values[n++] = height[i];
+                            kinds[kind[i]]++;
+                        }
+                    }
+                }
+                if (col > 0) {
+                    out.append(' ');
+                }
+                if (n == 0) {
+                    out.append('?');
+                    continue;
+                }
+                Arrays.sort(values, 0, n);
+                out.append(values[n / 2]);
+                if (kinds[BUILT] > 0) {
+                    out.append(MARKS[BUILT]);
+                } else if (kinds[LAVA] > 0) {
+                    out.append(MARKS[LAVA]);
+                } else if (kinds[WATER] * 2 >= n) {
+                    out.append(MARKS[WATER]);
+                } else if (kinds[TREES] * 2 >= n) {
+                    out.append(MARKS[TREES]);
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * One line for the ground's range and slope, and one per kind of obstacle present. The same
+     * facts go into {@code fingerprint} coarsely: heights and slopes in steps of four blocks,
+     * where each obstacle is in steps of eight, and only whether there are trees.
+     */
+    private static List<String> features(int[] height, byte[] kind, int side, int radius,
+                                         StringBuilder fingerprint) {
+        List<String> lines = new ArrayList<>();
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        long east = 0, west = 0, south = 0, north = 0;
+        int eastN = 0, westN = 0, southN = 0, northN = 0;
+        for (int i = 0; i < height.length; i++) {
+            if (height[i] == Integer.MIN_VALUE || kind[i] == WATER || kind[i] == LAVA || kind[i] == BUILT) {
+                continue;
+            }
+            int h = height[i];
+            min = Math.min(min, h);
+            max = Math.max(max, h);
+            int dx = i % side - radius;
+            int dz = i / side - radius;
+            if (dx > 0) { east += h; eastN++; }
+            if (dx < 0) { west += h; westN++; }
+            if (dz > 0) { south += h; southN++; }
+            if (dz < 0) { north += h; northN++; }
+        }
+        if (min <= max) {
+            long riseEast = rise(east, eastN, west, westN);
+            long riseSouth = rise(south, southN, north, northN);
+            StringBuilder ground = new StringBuilder("Ground: ");
+            if (max - min <= 1) {
+                ground.append("flat, at ").append(min).append(" to ").append(max);
+            } else {
+                ground.append("from ").append(min).append(" to ").append(max);
+                appendSlope(ground, riseEast, "east");
+                appendSlope(ground, riseSouth, "south");
+            }
+            lines.add(ground.append('.').toString());
+            fingerprint.append('g').append(Math.floorDiv(min, 4)).append(',').append(Math.floorDiv(max, 4))
+                    .append(',').append(Math.floorDiv(riseEast + 2, 4))
+                    .append(',').append(Math.floorDiv(riseSouth + 2, 4));
+        }
+
+        String[] names = {null, "Water", "Lava", "Trees", "Existing structures (keep clear of them)"};
+        for (byte k : new byte[]{BUILT, LAVA, WATER, TREES}) {
+            int n = 0;
+            int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, minZ = Integer.MAX_VALUE, maxZ = Integer.MIN_VALUE;
+            int top = Integer.MIN_VALUE;
+            long nearest = Long.MAX_VALUE;
+            for (int i = 0; i < height.length; i++) {
+                if (height[i] == Integer.MIN_VALUE || kind[i] != k) {
+                    continue;
+                }
+                int dx = i % side - radius;
+                int dz = i / side - radius;
+                n++;
+                minX = Math.min(minX, dx);
+                maxX = Math.max(maxX, dx);
+                minZ = Math.min(minZ, dz);
+                maxZ = Math.max(maxZ, dz);
+                top = Math.max(top, height[i]);
+                nearest = Math.min(nearest, (long) dx * dx + (long) dz * dz);
+            }
+            if (n == 0) {
+                continue;
+            }
+            long distance = Math.round(Math.sqrt(nearest));
+            String line = names[k] + ": " + n + " columns within x " + minX + ".." + maxX + ", z " + minZ + ".." +
+                    maxZ + ", nearest " + distance + (distance == 1 ? " block" : " blocks") + " away";
+            lines.add(k == BUILT ? line + ", up to height " + top + "." : line + ".");
+            fingerprint.append(' ').append(MARKS[k]);
+            if (k != TREES) {
+                fingerprint.append(Math.floorDiv(minX, 8)).append(',').append(Math.floorDiv(maxX, 8)).append(',')
+                        .append(Math.floorDiv(minZ, 8)).append(',').append(Math.floorDiv(maxZ, 8));
+            }
+        }
+        return lines;
+    }
+
+    /** How much higher the {@code high} side is on average, 0 if either side is unknown. */
+    private static long rise(long high, int highN, long low, int lowN) {
+        if (highN == 0 || lowN == 0) {
+            return 0;
+        }
+        return Math.round((double) high / highN - (double) low / lowN);
+    }
+
+    private static void appendSlope(StringBuilder out, long rise, String direction) {
+        if (Math.abs(rise) >= 2) {
+            out.append(", ").append(rise > 0 ? "rising " : "falling ").append(Math.abs(rise))
+                    .append(" blocks towards the ").append(direction);
+        }
+    }
+
+    private static int estimate(String text) {
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+}
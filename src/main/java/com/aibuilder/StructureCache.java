@@ -0,0 +1,274 @@
+package com.aibuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of compiled builds, keyed by the normalised conversation that produced them plus the
+ * model, biome and a coarse fingerprint of the site. A repeated request ("a small oak house")
+ * is served from here instead of another round trip to the AI.
+ *
+ * Builds live on disk in {@link PlanCodec} form, one file per key, and the most recently used
+ * ones are also kept in memory up to {@code cache-memory-blocks} blocks in total. Entries older
+ * than {@code cache-ttl-hours} are treated as misses and removed. Disk work runs on the
+ * executor passed in; memory hits complete immediately.
+ */
+public class StructureCache {
+
+    /**
+     * A cached build. The plan is shared between every build that uses it and is never modified.
+     */
+    public record Entry(String description, BuildPlan plan, long created) {
+    }
+
+    private static final String SUFFIX = ".plan";
+
+    private final AIBuilderPlugin plugin;
+    private final Executor executor;
+    private final Path dir;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBlocks = 0;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+
+    public StructureCache(AIBuilderPlugin plugin, Executor executor) {
+        this.plugin = plugin;
+        this.executor = executor;
+        this.dir = plugin.getDataFolder().toPath().resolve("cache");
+    }
+
+    public boolean isEnabled() {
+        return plugin.getConfig().getBoolean("cache-enabled", true);
+    }
+
+    /**
+     * Cache key for a conversation: the user's turns (and any summary of older ones), lowercased
+     * and with whitespace collapsed, plus the model, the biome the player is standing in and the
+     * {@link SiteSurvey.Site#fingerprint} of the site around them, hashed with SHA-256.
+     */
+    public static String key(List<ConversationMessage> history, String model, String biome, String site) {
+        StringBuilder normalised = new StringBuilder();
+        normalised.append(model).append('\n').append(biome).append('\n').append(site);
+        for (ConversationMessage message : history) {
+            if ("assistant".equals(message.role())) {
+                continue;
+            }
+            normalised.append('\n').append(
+                    message.content().toLowerCase(Locale.ROOT).trim().replaceAll("\\s+", " "));
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(normalised.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Look up a build. Completes with null on a miss.
+     */
+    public CompletableFuture<Entry> lookup(String key) {
+        synchronized (this) {
+            Entry entry = memory.get(key);
+            if (entry != null) {
+                if (!expired(entry)) {
+                    memoryHits.incrementAndGet();
+                    return CompletableFuture.completedFuture(entry);
+                }
+                forget(key);
+            }
+        }
+        return CompletableFuture.supplyAsync(() -> readFromDisk(key), executor);
+    }
+
+    /**
+     * Remember a finished build, in memory now and on disk in the background.
+     */
+    public void store(String key, String description, BuildPlan plan) {
+        if (plan.size() == 0) {
+            return;
+        }
+        Entry entry = new Entry(description, plan, System.currentTimeMillis());
+        remember(key, entry);
+        stores.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                Files.createDirectories(dir);
+                PlanCodec.write(file(key), entry);
+            } catch (IOException e) {
+                plugin.getLogger().warning("Failed to write cached build: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Drop every entry, in memory and on disk. Completes with the number of files deleted.
+     */
+    public CompletableFuture<Integer> clear() {
+        synchronized (this) {
+            memory.clear();
+            memoryBlocks = 0;
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            int deleted = 0;
+            for (Path file : files()) {
+                try {
+                    Files.deleteIfExists(file);
+                    deleted++;
+                } catch (IOException e) {
+                    plugin.getLogger().warning("Failed to delete cached build " + file.getFileName());
+                }
+            }
+            return deleted;
+        }, executor);
+    }
+
+    /**
+     * Delete expired files left over from earlier runs.
+     */
+    public void pruneAsync() {
+        executor.execute(() -> {
+            long ttl = ttlMillis();
+            long now = System.currentTimeMillis();
+            for (Path file : files()) {
+                try {
+                    if (now - Files.getLastModifiedTime(file).toMillis() > ttl) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (IOException e) {
+                    // Gone already, or unreadable; the next lookup will deal with it
+                }
+            }
+        });
+    }
+
+    /**
+     * Counters plus what is currently held in memory and on disk.
+     */
+    public record Stats(long memoryHits, long diskHits, long misses, long stores,
+                        int memoryEntries, long memoryBlocks, int diskEntries, long diskBytes) {
+        public double hitRate() {
+            long lookups = memoryHits + diskHits + misses;
+            return lookups == 0 ? 0 : (double) (memoryHits + diskHits) / lookups;
+        }
+    }
+
+    /**
+     * Gather stats; lists the cache directory, so runs on the executor.
+     */
+    public CompletableFuture<Stats> stats() {
+        return CompletableFuture.supplyAsync(() -> {
+            int diskEntries = 0;
+            long diskBytes = 0;
+            for (Path file : files()) {
+                try {
+                    diskBytes += Files.size(file);
+                    diskEntries++;
+                } catch (IOException e) {
+                    // Deleted while listing
+                }
+            }
+            int entries;
+            long blocks;
+            synchronized (this) {
+                entries = memory.size();
+                blocks = memoryBlocks;
+            }
+            return new Stats(memoryHits.get(), diskHits.get(), misses.get(), stores.get(),
+                    entries, blocks, diskEntries, diskBytes);
+        }, executor);
+    }
+
+    private Entry readFromDisk(String key) {
+        Path file = file(key);
+        if (!Files.exists(file)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            Entry entry = PlanCodec.read(file);
+            if (expired(entry)) {
+                Files.deleteIfExists(file);
+                misses.incrementAndGet();
+                return null;
+            }
+            remember(key, entry);
+            diskHits.incrementAndGet();
+            return entry;
+        } catch (IOException e) {
+            plugin.getLogger().warning(e.getMessage() + ", discarding it");
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // Leave it for the next prune
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    private synchronized void remember(String key, Entry entry) {
+        forget(key);
+        memory.put(key, entry);
+        memoryBlocks += entry.plan().size();
+
+        long cap = plugin.getConfig().getLong("cache-memory-blocks", 500_000);
+        Iterator<Map.Entry<String, Entry>> eldest = memory.entrySet().iterator();
+        while (memoryBlocks > cap && eldest.hasNext()) {
+            Map.Entry<String, Entry> e = eldest.next();
+            if (e.getKey().equals(key)) {
+                break; // keep at least the entry just added
+            }
+            memoryBlocks -= e.getValue().plan().size();
+            eldest.remove();
+        }
+    }
+
+    private synchronized void forget(String key) {
+        Entry old = memory.remove(key);
+        if (old != null) {
+            memoryBlocks -= old.plan().size();
+        }
+    }
+
+    private boolean expired(Entry entry) {
+        return System.currentTimeMillis() - entry.created() > ttlMillis();
+    }
+
+    private long ttlMillis() {
+        return TimeUnit.HOURS.toMillis(plugin.getConfig().getLong("cache-ttl-hours", 72));
+    }
+
+    private Path file(String key) {
+        return dir.resolve(key + SUFFIX);
+    }
+
+    private List<Path> files() {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to list build cache: " + e.getMessage());
+        }
+        return files;
+    }
+}
@@ -0,0 +1,306 @@
+package com.aibuilder;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+
+/**
+ * Named builds players saved with {@code /ai save}, placed again with {@code /ai place} without
+ * asking the AI.
+ *
+ * Each template is one file in the compact {@link PlanCodec} layout under {@code templates/}.
+ * A small index ({@code index.json}: name, description, block count, owner) is read once at
+ * startup and kept in a sorted map, so listing and tab completion never touch the template
+ * files. Templates themselves are only read (memory-mapped) when placed, and the most
+ * recently placed ones stay in memory. Disk work runs on the executor passed in.
+ */
+public class TemplateStore {
+
+    /**
+     * Index entry for a template. {@code owner} is null if it isn't known (index rebuilt).
+     */
+    public record Info(String name, String description, int blocks, long created, UUID owner) {
+    }
+
+    private static final Pattern NAME = Pattern.compile("[a-z0-9_-]{1,32}");
+    private static final String SUFFIX = ".plan";
+    private static final String INDEX = "index.json";
+    // Blocks of recently placed templates kept in memory
+    private static final long MEMORY_BLOCKS = 250_000;
+    // Most names offered in one tab completion
+    private static final int MAX_COMPLETIONS = 50;
+
+    private final AIBuilderPlugin plugin;
+    private final Executor executor;
+    private final Path dir;
+    private final ConcurrentSkipListMap<String, Info> index = new ConcurrentSkipListMap<>();
+    private final Object indexFileLock = new Object();
+
+    // Access-ordered, so iteration starts at the least recently placed template
+    private final LinkedHashMap<String, StructureCache.Entry> loaded = new LinkedHashMap<>(16, 0.75f, true);
+    private long loadedBlocks = 0;
+
+    public TemplateStore(AIBuilderPlugin plugin, Executor executor) {
+        this.plugin = plugin;
+        this.executor = executor;
+        this.dir = plugin.getDataFolder().toPath().resolve("templates");
+        executor.execute(this::loadIndex);
+    }
+
+    public static boolean isValidName(String name) {
+        return NAME.matcher(name).matches();
+    }
+
+    public Info info(String name) {
+        return index.get(name);
+    }
+
+    /** Every template, sorted by name. */
+    public Collection<Info> list() {
+        return index.values();
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Template names starting with {@code prefix}, in order; served from the index.
+     */
+    public List<String> complete(String prefix) {
+        String from = prefix.toLowerCase(Locale.ROOT);
+        List<String> names = new ArrayList<>();
+        for (String name : index.tailMap(from).keySet()) {
+            if (!name.startsWith(from) || names.size() == MAX_COMPLETIONS) {
+                break;
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * Save a build under {@code name}, replacing any template of that name.
+     * Completes with its index entry once it is on disk.
+     */
+    public CompletableFuture<Info> save(String name, UUID owner, String description, BuildPlan plan) {
+        StructureCache.Entry entry = new StructureCache.Entry(description, plan, System.currentTimeMillis());
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Files.createDirectories(dir);
+                PlanCodec.writeCompact(file(name), entry);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to save template " + name + ": " + e.getMessage(), e);
+            }
+            Info info = new Info(name, description, plan.size(), entry.created(), owner);
+            index.put(name, info);
+            synchronized (this) {
+                forget(name);
+            }
+            writeIndex();
+            return info;
+        }, executor);
+    }
+
+    /**
+     * Load a template for placing. Completes with null if there is no such template (or its
+     * file has gone missing, in which case it is dropped from the index).
+     */
+    public CompletableFuture<StructureCache.Entry> load(String name) {
+        synchronized (this) {
+            StructureCache.Entry entry = loaded.get(name);
+            if (entry != null) {
+                return CompletableFuture.completedFuture(entry);
+            }
+        }
+        if (!index.containsKey(name)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                StructureCache.Entry entry = PlanCodec.read(file(name));
+                remember(name, entry);
+                return entry;
+            } catch (NoSuchFileException e) {
+                plugin.getLogger().warning("Template " + name + " is missing its file, removing it");
+            } catch (IOException e) {
+                plugin.getLogger().warning(e.getMessage());
+                return null;
+            }
+            index.remove(name);
+            writeIndex();
+            return null;
+        }, executor);
+    }
+
+    /**
+     * Read the index, then reconcile it with the files actually there: templates written
+     * without an index update (crash, copied in by hand) are added from their headers, and
+     * entries whose file is gone are dropped.
+     */
+    private void loadIndex() {
+        Map<String, Info> known = readIndex();
+        Map<String, Info> found = new TreeMap<>();
+        boolean changed = false;
+        for (Path file : files()) {
+            String fileName = file.getFileName().toString();
+            String name = fileName.substring(0, fileName.length() - SUFFIX.length());
+            if (!isValidName(name)) {
+                continue;
+            }
+            Info info = known.get(name);
+            if (info == null) {
+                try {
+                    PlanCodec.Header header = PlanCodec.readHeader(file);
+                    info = new Info(name, header.description(), header.blocks(), header.created(), null);
+                    changed = true;
+                } catch (IOException e) {
+                    plugin.getLogger().warning(e.getMessage());
+                    continue;
+                }
+            }
+            found.put(name, info);
+        }
+        changed |= found.size() != known.size();
+        // Saves that finished while we were reading win over what was on disk
+        found.forEach(index::putIfAbsent);
+        if (changed) {
+            writeIndex();
+        }
+        plugin.getLogger().info("Loaded " + index.size() + " build templates");
+    }
+
+    private Map<String, Info> readIndex() {
+        Map<String, Info> known = new HashMap<>();
+        Path file = dir.resolve(INDEX);
+        if (!Files.exists(file)) {
+            return known;
+        }
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JsonReader reader = new JsonReader(in);
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String name = null;
+                String description = "";
+                int blocks = 0;
+                long created = 0;
+                UUID owner = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "name" -> name = reader.nextString();
+                        case "description" -> description = reader.nextString();
+                        case "blocks" -> blocks = reader.nextInt();
+                        case "created" -> created = reader.nextLong();
+                        case "owner" -> {
+                            if (reader.peek() == JsonToken.NULL) {
+                                reader.nextNull();
+                            } else {
+                                owner = UUID.fromString(reader.nextString());
+                            }
+                        }
+                        default -> reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (name != null && isValidName(name)) {
+                    known.put(name, new Info(name, description, blocks, created, owner));
+                }
+            }
+            reader.endArray();
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().warning("Template index unreadable, rebuilding it: " + e.getMessage());
+            known.clear();
+        }
+        return known;
+    }
+
+    /**
+     * Write the current index, replacing the file atomically. Serialised so concurrent saves
+     * can't interleave.
+     */
+    private void writeIndex() {
+        synchronized (indexFileLock) {
+            writeIndexFile();
+        }
+    }
+
+    private void writeIndexFile() {
+        try {
+            StringWriter out = new StringWriter();
+            JsonWriter json = new JsonWriter(out);
+            json.setIndent(" ");
+            json.beginArray();
+            for (Info info : index.values()) {
+                json.beginObject()
+                        .name("name").value(info.name())
+                        .name("description").value(info.description())
+                        .name("blocks").value(info.blocks())
+                        .name("created").value(info.created())
+                        .name("owner").value(info.owner() == null ? null : info.owner().toString())
+                        .endObject();
+            }
+            json.endArray();
+            json.close();
+
+            Files.createDirectories(dir);
+            Path tmp = dir.resolve(INDEX + ".tmp");
+            Files.writeString(tmp, out.toString(), StandardCharsets.UTF_8);
+            Files.move(tmp, dir.resolve(INDEX), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to write template index: " + e.getMessage());
+        }
+    }
+
+    private synchronized void remember(String name, StructureCache.Entry entry) {
+        forget(name);
+        loaded.put(name, entry);
+        loadedBlocks += entry.plan().size();
+
+        Iterator<Map.Entry<String, StructureCache.Entry>> eldest = loaded.entrySet().iterator();
+        while (loadedBlocks > MEMORY_BLOCKS && eldest.hasNext()) {
+            Map.Entry<String, StructureCache.Entry> e = eldest.next();
+            if (e.getKey().equals(name)) {
+                break; // keep at least the template just loaded
+            }
+            loadedBlocks -= e.getValue().plan().size();
+            eldest.remove();
+        }
+    }
+
+    private void forget(String name) {
+        StructureCache.Entry old = loaded.remove(name);
+        if (old != null) {
+            loadedBlocks -= old.plan().size();
+        }
+    }
+
+    private Path file(String name) {
+        return dir.resolve(name + SUFFIX);
+    }
+
+    private List<Path> files() {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to list templates: " + e.getMessage());
+        }
+        return files;
+    }
+}
@@ -0,0 +1,277 @@
+package com.aibuilder;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.Tag;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Pre-pass for a compiled build, run before its first block is placed. The loaded chunks under
+ * the build are snapshotted on the threads that own them; everything else happens off the
+ * tick threads:
+ *
+ * - Terrain fit ({@code terrain-fit}): floor columns left hanging above the ground get a
+ *   foundation of {@code foundation-material} down to it (at most {@code max-foundation-depth}
+ *   blocks), and terrain inside the footprint that the build would be buried in is cleared to
+ *   air, so builds on slopes stand on the ground with empty rooms.
+ * - Diff ({@code skip-unchanged-blocks}): entries the world already holds exactly are dropped,
+ *   so they cost no tick time at all.
+ *
+ * Snapshots are as old as the start of the build, so a block changed in between can be
+ * skipped. Chunks that aren't loaded are left as they are: their blocks are all written and
+ * get no foundation.
+ */
+final class TerrainFit {
+
+    /**
+     * The plan to place, with its own palette, and what the pre-pass did to it.
+     */
+    record Result(BuildPlan plan, int unchanged, int foundation, int cleared) {
+    }
+
+    private final BuildPlan plan;
+    private final Map<Long, ChunkSnapshot> snapshots;
+    private final int ox, oy, oz, minY, maxY;
+    private final boolean fit, diff;
+    private final int maxDepth;
+    private final String foundationMaterial;
+
+    private final MaterialPalette palette = new MaterialPalette();
+    private BuildPlan out;
+    private int unchanged = 0;
+
+    private TerrainFit(AIBuilderPlugin plugin, Location origin, BuildPlan plan, Map<Long, ChunkSnapshot> snapshots) {
+        this.plan = plan;
+        this.snapshots = snapshots;
+        this.ox = origin.getBlockX();
+        this.oy = origin.getBlockY();
+        this.oz = origin.getBlockZ();
+        this.minY = origin.getWorld().getMinHeight();
+        this.maxY = origin.getWorld().getMaxHeight();
+        this.fit = plugin.getConfig().getBoolean("terrain-fit", true);
+        this.diff = plugin.getConfig().getBoolean("skip-unchanged-blocks", true);
+        this.maxDepth = Math.max(0, plugin.getConfig().getInt("max-foundation-depth", 16));
+        this.foundationMaterial = plugin.getConfig().getString("foundation-material", "cobblestone");
+    }
+
+    static boolean isEnabled(AIBuilderPlugin plugin) {
+        return plugin.getConfig().getBoolean("terrain-fit", true)
+                || plugin.getConfig().getBoolean("skip-unchanged-blocks", true);
+    }
+
+    /**
+     * Run the pre-pass for {@code plan} placed at {@code origin}. Completes off the tick threads.
+     */
+    static CompletableFuture<Result> prepare(AIBuilderPlugin plugin, Location origin, BuildPlan plan) {
+        Executor async = plugin.getScheduling().async();
+        return CompletableFuture.supplyAsync(() -> bounds(plan), async)
+                .thenCompose(bounds -> snapshot(plugin, origin, bounds))
+                .thenApplyAsync(snapshots -> new TerrainFit(plugin, origin, plan, snapshots).run(), async);
+    }
+
+    /** Relative {minX, maxX, minZ, maxZ} of a non-empty plan. */
+    private static int[] bounds(BuildPlan plan) {
+        int[] b = {Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int i = 0; i < plan.size(); i++) {
+            long pos = plan.position(i);
+            int x = BuildPlan.unpackX(pos);
+            int z = BuildPlan.unpackZ(pos);
+            b[0] = Math.min(b[0], x);
+            b[1] = Math.max(b[1], x);
+            b[2] = Math.min(b[2], z);
+            b[3] = Math.max(b[3], z);
+        }
+        return b;
+    }
+
+    /** Each loaded chunk is snapshotted on the thread that owns it (all the main thread on Paper). */
+    private static CompletableFuture<Map<Long, ChunkSnapshot>> snapshot(AIBuilderPlugin plugin, Location origin,
+                                                                        int[] bounds) {
+        Map<Long, ChunkSnapshot> snapshots = new ConcurrentHashMap<>();
+        if (bounds[0] > bounds[1]) {
+            return CompletableFuture.completedFuture(snapshots);
+        }
+        World world = origin.getWorld();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        for (int cx = (origin.getBlockX() + bounds[0]) >> 4; cx <= (origin.getBlockX() + bounds[1]) >> 4; cx++) {
+            for (int cz = (origin.getBlockZ() + bounds[2]) >> 4; cz <= (origin.getBlockZ() + bounds[3]) >> 4; cz++) {
+                int chunkX = cx;
+                int chunkZ = cz;
+                CompletableFuture<Void> taken = new CompletableFuture<>();
+                pending.add(taken);
+                plugin.getScheduling().at(world, chunkX, chunkZ, () -> {
+                    try {
+                        if (world.isChunkLoaded(chunkX, chunkZ)) {
+                            // Height map on, biomes off
+                            snapshots.put(ChunkLoader.chunkKey(chunkX, chunkZ),
+                                    world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(true, false, false));
+                        }
+                        taken.complete(null);
+                    } catch (RuntimeException e) {
+                        taken.completeExceptionally(e);
+                    }
+                });
+            }
+        }
+        return CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).thenApply(v -> snapshots);
+    }
+
+    private Result run() {
+        // Same indices as the plan's palette, plus whatever the foundation needs. The plan's own
+        // palette may be shared (cache, templates), so it is never added to
+        MaterialPalette source = plan.palette();
+        for (int i = 0; i < source.size(); i++) {
+            palette.add(source.blockData(i));
+        }
+        out = new BuildPlan(palette, plan.size() + plan.size() / 8);
+
+        int foundation = 0;
+        int cleared = 0;
+        if (fit) {
+            int[] counts = fitTerrain();
+            foundation = counts[0];
+            cleared = counts[1];
+        }
+        for (int i = 0; i < plan.size(); i++) {
+            add(plan.position(i), plan.state(i));
+        }
+        return new Result(out, unchanged, foundation, cleared);
+    }
+
+    /**
+     * Add foundations and clearance, ahead of the build's own blocks. Returns {foundation, cleared}.
+     */
+    private int[] fitTerrain() {
+        // Per column (packed x, 0, z): index into bottom/top/bottom state
+        Map<Long, Integer> columnIndex = new HashMap<>();
+        int n = plan.size();
+        int[] columnX = new int[n];
+        int[] columnZ = new int[n];
+        int[] bottom = new int[n];
+        int[] top = new int[n];
+        int[] bottomState = new int[n];
+        int columns = 0;
+        int planBottom = Integer.MAX_VALUE;
+        long[] occupied = new long[n];
+
+        for (int i = 0; i < n; i++) {
+            long pos = plan.position(i);
+            occupied[i] = pos;
+            int x = BuildPlan.unpackX(pos);
+            int y = BuildPlan.unpackY(pos);
+            int z = BuildPlan.unpackZ(pos);
+            planBottom = Math.min(planBottom, y);
+            Integer c = columnIndex.get(BuildPlan.pack(x, 0, z));
+            if (c == null) {
+                c = columns++;
+                columnIndex.put(BuildPlan.pack(x, 0, z), c);
+                columnX[c] = x;
+                columnZ[c] = z;
+                bottom[c] = y;
+                top[c] = y;
+                bottomState[c] = plan.state(i);
+            } else if (y < bottom[c]) {
+                bottom[c] = y;
+                bottomState[c] = plan.state(i);
+            } else {
+                top[c] = Math.max(top[c], y);
+            }
+        }
+        Arrays.sort(occupied);
+
+        int foundationState = MaterialPalette.INVALID;
+        Material foundationType = Material.matchMaterial(foundationMaterial);
+        if (foundationType != null && foundationType.isBlock()) {
+            foundationState = palette.add(foundationType.createBlockData());
+        }
+        int air = palette.add(Material.AIR.createBlockData());
+
+        int foundation = 0;
+        int cleared = 0;
+        for (int c = 0; c < columns; c++) {
+            int wx = ox + columnX[c];
+            int wz = oz + columnZ[c];
+            ChunkSnapshot snapshot = snapshots.get(ChunkLoader.chunkKey(wx >> 4, wz >> 4));
+            if (snapshot == null) {
+                continue;
+            }
+            int floor = oy + bottom[c];
+            int ground = ground(snapshot, wx & 15, wz & 15, floor - maxDepth - 1);
+            if (ground < floor - 1) {
+                // Only floor columns that would hang in the air, not overhangs and eaves
+                boolean floorColumn = bottom[c] <= planBottom + 1 && palette.isOccluding(bottomState[c]);
+                if (floorColumn && foundationState != MaterialPalette.INVALID && ground >= floor - 1 - maxDepth) {
+                    for (int y = ground + 1; y < floor; y++) {
+                        foundation += add(BuildPlan.pack(columnX[c], y - oy, columnZ[c]), foundationState);
+                    }
+                }
+            } else if (ground >= floor) {
+                // Buried: hollow out the terrain the build's own blocks don't replace
+                int to = Math.min(ground, oy + top[c]);
+                for (int y = floor; y <= to; y++) {
+                    long pos = BuildPlan.pack(columnX[c], y - oy, columnZ[c]);
+                    if (Arrays.binarySearch(occupied, pos) < 0) {
+                        cleared += add(pos, air);
+                    }
+                }
+            }
+        }
+        return new int[]{foundation, cleared};
+    }
+
+    /**
+     * The highest block a build can stand on in a snapshot column (leaves and trees don't
+     * count), or {@link Integer#MIN_VALUE} if there is none above {@code below}.
+     */
+    private int ground(ChunkSnapshot snapshot, int x, int z, int below) {
+        int from = Math.max(minY, below + 1);
+        for (int y = Math.min(maxY - 1, snapshot.getHighestBlockYAt(x, z)); y >= from; y--) {
+            Material type = snapshot.getBlockType(x, y, z);
+            if (type.isSolid() && !Tag.LEAVES.isTagged(type) && !Tag.LOGS.isTagged(type)) {
+                return y;
+            }
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Append an entry unless the world already holds it. Returns 1 if it was appended.
+     */
+    private int add(long pos, int state) {
+        if (diff && isUnchanged(pos, state)) {
+            unchanged++;
+            return 0;
+        }
+        out.add(pos, state);
+        return 1;
+    }
+
+    private boolean isUnchanged(long pos, int state) {
+        int y = oy + BuildPlan.unpackY(pos);
+        if (y < minY || y >= maxY) {
+            return false;
+        }
+        int x = ox + BuildPlan.unpackX(pos);
+        int z = oz + BuildPlan.unpackZ(pos);
+        ChunkSnapshot snapshot = snapshots.get(ChunkLoader.chunkKey(x >> 4, z >> 4));
+        if (snapshot == null) {
+            return false;
+        }
+        if (palette.isAir(state)) {
+            return snapshot.getBlockType(x & 15, y, z & 15).isAir();
+        }
+        BlockData current = snapshot.getBlockData(x & 15, y, z & 15);
+        return current.equals(palette.blockData(state));
+    }
+}
@@ -0,0 +1,33 @@
+package com.aibuilder;
+
+import org.bukkit.Location;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Writes on the calling thread, the main thread on Paper, where the build loop meters every
+ * batch against the shared tick budget.
+ */
+public class TickPlacementExecutor implements PlacementExecutor {
+
+    private final PlacementBackend backend;
+
+    public TickPlacementExecutor(PlacementBackend backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    public boolean isSynchronous() {
+        return true;
+    }
+
+    @Override
+    public void place(Location origin, BuildPlan plan, int from, int to, BuildPlan journal, IntConsumer done) {
+        done.accept(backend.place(origin, plan, from, to, journal));
+    }
+
+    @Override
+    public String name() {
+        return backend.name();
+    }
+}
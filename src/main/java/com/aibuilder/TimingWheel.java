@@ -0,0 +1,60 @@
+package com.aibuilder;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel for coarse expiry. Keys are dropped into the slot their deadline falls
+ * in, and each {@link #advance} only looks at the slots whose time has come, instead of
+ * scanning every key.
+ *
+ * Scheduling is lazy: a key re-scheduled with a later deadline stays in its old slot too, so
+ * the callback must check whether the key is really due. Deadlines further out than one turn
+ * of the wheel fire early, at the last slot, for the same reason.
+ *
+ * {@link #schedule} may be called from any thread; {@link #advance} from one thread at a time.
+ */
+final class TimingWheel<K> {
+
+    private final long tickMillis;
+    private final Set<K>[] slots;
+    private long processedTick;
+
+    @SuppressWarnings("unchecked")
+    TimingWheel(long tickMillis, int slotCount, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.slots = new Set[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = ConcurrentHashMap.newKeySet();
+        }
+        this.processedTick = nowMillis / tickMillis;
+    }
+
+    void schedule(K key, long deadlineMillis) {
+        // Round up so a key never fires before its deadline, and stay within one turn
+        long tick = (deadlineMillis + tickMillis - 1) / tickMillis;
+        tick = Math.min(tick, processedTick + slots.length);
+        tick = Math.max(tick, processedTick + 1);
+        slots[(int) (tick % slots.length)].add(key);
+    }
+
+    /**
+     * Hand every key in the slots up to {@code nowMillis} to {@code onDue}.
+     */
+    void advance(long nowMillis, Consumer<K> onDue) {
+        long nowTick = nowMillis / tickMillis;
+        // After a long stall, one full turn covers every slot
+        long from = Math.max(processedTick + 1, nowTick - slots.length + 1);
+        for (long tick = from; tick <= nowTick; tick++) {
+            Iterator<K> it = slots[(int) (tick % slots.length)].iterator();
+            while (it.hasNext()) {
+                K key = it.next();
+                it.remove();
+                onDue.accept(key);
+            }
+        }
+        processedTick = Math.max(processedTick, nowTick);
+    }
+}
@@ -0,0 +1,80 @@
+package com.aibuilder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Client-side rate limit: {@code perMinute} permits refill continuously, up to a minute's worth.
+ * A request bigger than the whole bucket waits for a full bucket and then takes it into debt,
+ * so it still goes through without starving smaller ones forever.
+ *
+ * {@link #acquire} blocks (request threads are virtual, so that is cheap) and gives up if the
+ * ticket is cancelled. A {@code perMinute} of 0 or less disables the limit.
+ */
+final class TokenBucket {
+
+    private static final long SLEEP_SLICE_MS = 100;
+
+    private final double capacity;
+    private final double perNano;
+    private double available;
+    private long refilledAt = System.nanoTime();
+
+    TokenBucket(long perMinute) {
+        this.capacity = Math.max(0, perMinute);
+        this.perNano = capacity / 60e9;
+        this.available = capacity;
+    }
+
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Take {@code permits}, waiting for them if needed. Returns how long it waited, in millis.
+     */
+    long acquire(long permits, RequestLimiter.Ticket ticket) throws IOException {
+        if (!isEnabled() || permits <= 0) {
+            return 0;
+        }
+        long started = System.nanoTime();
+        double wanted = Math.min(permits, capacity);
+        try {
+            while (true) {
+                long waitMillis;
+                synchronized (this) {
+                    refill();
+                    if (available >= wanted) {
+                        available -= permits;
+                        return (System.nanoTime() - started) / 1_000_000;
+                    }
+                    waitMillis = (long) Math.ceil((wanted - available) / perNano / 1_000_000);
+                }
+                if (ticket.isCancelled()) {
+                    throw new InterruptedIOException("Request cancelled");
+                }
+                Thread.sleep(Math.max(1, Math.min(waitMillis, SLEEP_SLICE_MS)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Request cancelled");
+        }
+    }
+
+    /**
+     * Correct an earlier {@link #acquire} once the real cost is known; negative gives permits back.
+     */
+    synchronized void adjust(long permits) {
+        if (!isEnabled()) {
+            return;
+        }
+        refill();
+        available = Math.min(capacity, available - permits);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - refilledAt) * perNano);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,73 @@
+package com.aibuilder;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * The {@code usage} block of a chat-completions response. {@code cachedTokens} is the part of
+ * the prompt the provider served from its prefix cache ({@code prompt_tokens_details.cached_tokens}).
+ */
+public record TokenUsage(int promptTokens, int cachedTokens, int completionTokens) {
+
+    /**
+     * Read a usage object positioned at its opening brace.
+     */
+    static TokenUsage read(JsonReader reader) throws IOException {
+        int prompt = 0;
+        int cached = 0;
+        int completion = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "prompt_tokens" -> prompt = reader.nextInt();
+                case "completion_tokens" -> completion = reader.nextInt();
+                case "prompt_tokens_details" -> {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("cached_tokens") && reader.peek() == JsonToken.NUMBER) {
+                            cached = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new TokenUsage(prompt, cached, completion);
+    }
+
+    /**
+     * Usage from a parsed stream chunk, or null if the chunk has none.
+     */
+    static TokenUsage of(JsonObject chunk) {
+        JsonElement usage = chunk.get("usage");
+        if (usage == null || !usage.isJsonObject()) {
+            return null;
+        }
+        JsonObject u = usage.getAsJsonObject();
+        int cached = 0;
+        if (u.has("prompt_tokens_details") && u.get("prompt_tokens_details").isJsonObject()) {
+            JsonObject details = u.getAsJsonObject("prompt_tokens_details");
+            if (details.has("cached_tokens") && !details.get("cached_tokens").isJsonNull()) {
+                cached = details.get("cached_tokens").getAsInt();
+            }
+        }
+        return new TokenUsage(intOrZero(u, "prompt_tokens"), cached, intOrZero(u, "completion_tokens"));
+    }
+
+    private static int intOrZero(JsonObject o, String key) {
+        return o.has(key) && !o.get(key).isJsonNull() ? o.get(key).getAsInt() : 0;
+    }
+}
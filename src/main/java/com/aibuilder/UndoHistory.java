@@ -0,0 +1,247 @@
+package com.aibuilder;
+
+import org.bukkit.Location;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Per-player undo and redo stacks of build journals. A journal is a {@link BuildPlan} of the
+ * block states a build overwrote, captured by the placement backend during the write itself,
+ * so it is palette-compressed and costs ten bytes per block.
+ *
+ * Each player may keep {@code undo-memory-mb} of journals in memory; beyond that the oldest
+ * are spilled to disk in {@link PlanCodec} form and memory-mapped back when needed. At most
+ * {@code undo-history} entries are kept per stack.
+ */
+public class UndoHistory {
+
+    public enum Action {
+        /** A new build: undoable, and clears the redo stack. */
+        BUILD,
+        /** An undo: its journal is what redo puts back. */
+        UNDO,
+        /** A redo: undoable again. */
+        REDO
+    }
+
+    /** A journal ready to be replayed, newest write first. */
+    public record Replay(Location origin, String description, BuildPlan journal) {
+    }
+
+    private static final int BYTES_PER_BLOCK = Long.BYTES + Short.BYTES;
+
+    private static final class Entry {
+        final Location origin;
+        final String description;
+        final int size;
+        volatile BuildPlan journal; // null once spilled
+        volatile Path file;
+        boolean spilling = false;
+        // Taken off its stack; guarded by the history's lock, like the stacks
+        boolean removed = false;
+
+        Entry(Location origin, String description, BuildPlan journal) {
+            this.origin = origin;
+            this.description = description;
+            this.size = journal.size();
+            this.journal = journal;
+        }
+    }
+
+    private final AIBuilderPlugin plugin;
+    private final Executor executor;
+    private final Path dir;
+    private final Map<UUID, Deque<Entry>> undo = new HashMap<>();
+    private final Map<UUID, Deque<Entry>> redo = new HashMap<>();
+    private long spillCounter = 0;
+
+    public UndoHistory(AIBuilderPlugin plugin, Executor executor) {
+        this.plugin = plugin;
+        this.executor = executor;
+        this.dir = plugin.getDataFolder().toPath().resolve("undo");
+        deleteSpilled(); // Stacks do not survive a restart, so neither do their files
+    }
+
+    /**
+     * Store the journal of a finished or stopped build job.
+     */
+    public synchronized void record(UUID playerId, Action action, Location origin, String description,
+                                    BuildPlan journal) {
+        if (journal.size() == 0) {
+            return;
+        }
+        Entry entry = new Entry(origin, description, journal);
+        switch (action) {
+            case BUILD -> {
+                push(undo, playerId, entry);
+                drop(redo.remove(playerId));
+            }
+            case UNDO -> push(redo, playerId, entry);
+            case REDO -> push(undo, playerId, entry);
+        }
+        spillOverCap(playerId);
+    }
+
+    /**
+     * Take the newest undo (or redo) entry, reading it back from disk if it was spilled.
+     * Completes with null if there is nothing to take.
+     */
+    public CompletableFuture<Replay> pop(UUID playerId, boolean redoStack) {
+        Entry entry;
+        synchronized (this) {
+            Deque<Entry> stack = (redoStack ? redo : undo).get(playerId);
+            entry = stack == null ? null : stack.pollFirst();
+            if (entry != null) {
+                entry.removed = true;
+            }
+        }
+        if (entry == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        BuildPlan journal = entry.journal;
+        if (journal != null) {
+            return CompletableFuture.completedFuture(new Replay(entry.origin, entry.description, journal));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            Path file = entry.file;
+            try {
+                BuildPlan loaded = PlanCodec.read(file).plan();
+                return new Replay(entry.origin, entry.description, loaded);
+            } catch (IOException e) {
+                plugin.getLogger().warning("Failed to read undo journal: " + e.getMessage());
+                return null;
+            } finally {
+                deleteQuietly(file);
+            }
+        }, executor);
+    }
+
+    public synchronized int undoDepth(UUID playerId) {
+        return undo.getOrDefault(playerId, new ArrayDeque<>()).size();
+    }
+
+    public synchronized int redoDepth(UUID playerId) {
+        return redo.getOrDefault(playerId, new ArrayDeque<>()).size();
+    }
+
+    private void push(Map<UUID, Deque<Entry>> stacks, UUID playerId, Entry entry) {
+        Deque<Entry> stack = stacks.computeIfAbsent(playerId, k -> new ArrayDeque<>());
+        stack.addFirst(entry);
+        int depth = Math.max(1, plugin.getConfig().getInt("undo-history", 10));
+        while (stack.size() > depth) {
+            drop(stack.pollLast());
+        }
+    }
+
+    /**
+     * Spill this player's oldest in-memory journals until what is left fits the cap.
+     * The newest journal always stays in memory.
+     */
+    private void spillOverCap(UUID playerId) {
+        long cap = plugin.getConfig().getLong("undo-memory-mb", 16) * 1024 * 1024;
+        List<Entry> inMemory = new ArrayList<>();
+        for (Deque<Entry> stack : List.of(
+                undo.getOrDefault(playerId, new ArrayDeque<>()), redo.getOrDefault(playerId, new ArrayDeque<>()))) {
+            for (Entry entry : stack) {
+                if (entry.journal != null && !entry.spilling) {
+                    inMemory.add(entry);
+                }
+            }
+        }
+        long bytes = 0;
+        for (Entry entry : inMemory) {
+            bytes += (long) entry.size * BYTES_PER_BLOCK;
+        }
+        // Both stacks are newest first; spill from the back of the combined list
+        inMemory.sort(Comparator.comparingInt(e -> -indexOf(playerId, e)));
+        for (int i = 0; i < inMemory.size() - 1 && bytes > cap; i++) {
+            Entry entry = inMemory.get(i);
+            bytes -= (long) entry.size * BYTES_PER_BLOCK;
+            spill(playerId, entry);
+        }
+    }
+
+    private int indexOf(UUID playerId, Entry entry) {
+        int i = 0;
+        for (Entry e : undo.getOrDefault(playerId, new ArrayDeque<>())) {
+            if (e == entry) {
+                return i;
+            }
+            i++;
+        }
+        for (Entry e : redo.getOrDefault(playerId, new ArrayDeque<>())) {
+            if (e == entry) {
+                return i;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private void spill(UUID playerId, Entry entry) {
+        if (!plugin.isEnabled()) {
+            return; // Shutting down; the journal is about to be discarded anyway
+        }
+        entry.spilling = true;
+        Path file = dir.resolve(playerId + "-" + (spillCounter++) + ".plan");
+        BuildPlan journal = entry.journal;
+        executor.execute(() -> {
+            try {
+                Files.createDirectories(dir);
+                PlanCodec.write(file, new StructureCache.Entry(entry.description, journal, System.currentTimeMillis()));
+                // Popped or dropped while writing: it already has what it needs, nobody needs the file
+                synchronized (this) {
+                    if (entry.removed) {
+                        deleteQuietly(file);
+                        return;
+                    }
+                    entry.file = file;
+                    entry.journal = null;
+                }
+            } catch (IOException e) {
+                plugin.getLogger().warning("Failed to spill undo journal, keeping it in memory: " + e.getMessage());
+            }
+        });
+    }
+
+    private void drop(Entry entry) {
+        if (entry != null) {
+            entry.removed = true;
+        }
+        if (entry != null && entry.file != null) {
+            Path file = entry.file;
+            executor.execute(() -> deleteQuietly(file));
+        }
+    }
+
+    private void drop(Deque<Entry> stack) {
+        if (stack != null) {
+            stack.forEach(this::drop);
+        }
+    }
+
+    private void deleteSpilled() {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.plan")) {
+            stream.forEach(this::deleteQuietly);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to clean up undo journals: " + e.getMessage());
+        }
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Removed on next start
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.aibuilder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of what AI requests cost and how quickly they started answering: prompt,
+ * cached and completion tokens from the API's {@code usage} block, plus time to first token
+ * for streamed requests. Updated from request threads, read by {@code /aiconfig usage}.
+ */
+public class UsageStats {
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong promptTokens = new AtomicLong();
+    private final AtomicLong cachedTokens = new AtomicLong();
+    private final AtomicLong completionTokens = new AtomicLong();
+    private final AtomicLong firstTokenSamples = new AtomicLong();
+    private final AtomicLong firstTokenNanos = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    /**
+     * Record one finished request. {@code usage} may be null if the API sent none, and
+     * {@code firstToken} is negative for non-streamed requests.
+     */
+    public void record(TokenUsage usage, long firstToken, long total) {
+        requests.incrementAndGet();
+        totalNanos.addAndGet(total);
+        if (firstToken >= 0) {
+            firstTokenSamples.incrementAndGet();
+            firstTokenNanos.addAndGet(firstToken);
+        }
+        if (usage != null) {
+            promptTokens.addAndGet(usage.promptTokens());
+            cachedTokens.addAndGet(usage.cachedTokens());
+            completionTokens.addAndGet(usage.completionTokens());
+        }
+    }
+
+    public long requests() { return requests.get(); }
+    public long promptTokens() { return promptTokens.get(); }
+    public long cachedTokens() { return cachedTokens.get(); }
+    public long completionTokens() { return completionTokens.get(); }
+
+    /** Share of prompt tokens served from the provider's prefix cache. */
+    public double cachedFraction() {
+        long prompt = promptTokens.get();
+        return prompt == 0 ? 0 : (double) cachedTokens.get() / prompt;
+    }
+
+    public double averageFirstTokenMillis() {
+        long samples = firstTokenSamples.get();
+        return samples == 0 ? 0 : firstTokenNanos.get() / 1_000_000.0 / samples;
+    }
+
+    public double averageTotalMillis() {
+        long n = requests.get();
+        return n == 0 ? 0 : totalNanos.get() / 1_000_000.0 / n;
+    }
+}
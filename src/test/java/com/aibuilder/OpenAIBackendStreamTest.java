@@ -0,0 +1,172 @@
+package com.aibuilder;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Streams canned server-sent events from a local server through {@link OpenAIBackend} into a
+ * {@link BlockStreamParser}, the way {@link AIService#chatStreaming} does.
+ */
+class OpenAIBackendStreamTest {
+
+    private MockWebServer server;
+    private OpenAIBackend backend;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        MemoryConfiguration config = new MemoryConfiguration();
+        // A dropped stream must come back as a failure, not be retried
+        config.set("retry-max-attempts", 0);
+        backend = new OpenAIBackend(() -> config, Logger.getLogger("test"),
+                server.url("/v1/chat/completions").toString(), true);
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void completeStreamEndsAtDone() throws IOException {
+        server.enqueue(events(List.of(
+                delta("{\"action\":\"build\",\"description\":\"A hut\",\"blocks\":["),
+                delta(block(0, 0, 0) + "," + block(1, 0, 0)),
+                delta("]}"),
+                finish("stop"),
+                usage()), true));
+        Listener listener = new Listener();
+
+        backend.stream(prompt(), ticket(), listener);
+
+        assertEquals(List.of(new BlockPlacement(0, 0, 0, "stone"), new BlockPlacement(1, 0, 0, "stone")),
+                listener.blocks);
+        assertTrue(listener.parser.isComplete());
+        assertEquals("stop", listener.finishReason);
+        assertEquals(12, listener.usage.completionTokens());
+        assertFalse(AIService.isCutOff(false, listener.finishReason, listener.parser));
+    }
+
+    @Test
+    void droppedConnectionKeepsBlocksAndReportsTruncation() {
+        List<String> events = new ArrayList<>();
+        events.add(delta("{\"action\":\"build\",\"description\":\"A wall\",\"blocks\":["));
+        for (int i = 0; i < 40; i++) {
+            events.add(delta((i == 0 ? "" : ",") + block(i, 0, 0)));
+        }
+        events.add(delta("]}"));
+        events.add(finish("stop"));
+        // The server sends half of the body, so the connection drops in the middle of the array
+        server.enqueue(events(events, true).setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY));
+        Listener listener = new Listener();
+
+        assertThrows(IOException.class, () -> backend.stream(prompt(), ticket(), listener));
+
+        assertFalse(listener.blocks.isEmpty());
+        assertTrue(listener.blocks.size() < 40);
+        assertFalse(listener.parser.isComplete());
+        assertNull(listener.finishReason);
+        assertTrue(AIService.isCutOff(true, listener.finishReason, listener.parser));
+    }
+
+    @Test
+    void lengthFinishReportsTruncation() throws IOException {
+        // The model ran out of tokens mid-array; the server still ends the stream properly
+        server.enqueue(events(List.of(
+                delta("{\"action\":\"build\",\"description\":\"A tower\",\"blocks\":["),
+                delta(block(0, 0, 0) + "," + block(0, 1, 0) + ",{\"x\":0,\"y\":2"),
+                finish("length")), true));
+        Listener listener = new Listener();
+
+        backend.stream(prompt(), ticket(), listener);
+
+        assertEquals(2, listener.blocks.size());
+        assertEquals("length", listener.finishReason);
+        assertFalse(listener.parser.isComplete());
+        assertTrue(AIService.isCutOff(false, listener.finishReason, listener.parser));
+    }
+
+    /** Feeds content into a parser and keeps what the backend reported. */
+    private static final class Listener implements AIBackend.StreamListener {
+        final List<BlockPlacement> blocks = new ArrayList<>();
+        final BlockStreamParser parser = new BlockStreamParser(
+                (x, y, z, material) -> blocks.add(new BlockPlacement(x, y, z, material)), shape -> { });
+        String finishReason;
+        TokenUsage usage;
+
+        @Override
+        public void onContent(String delta) {
+            parser.feed(delta);
+        }
+
+        @Override
+        public void onFinish(String finishReason) {
+            this.finishReason = finishReason;
+        }
+
+        @Override
+        public void onUsage(TokenUsage usage) {
+            this.usage = usage;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+
+    private static MockResponse events(List<String> events, boolean done) {
+        StringBuilder body = new StringBuilder();
+        for (String event : events) {
+            body.append("data: ").append(event).append("\n\n");
+        }
+        if (done) {
+            body.append("data: [DONE]\n\n");
+        }
+        return new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody(body.toString());
+    }
+
+    private static String delta(String content) {
+        return "{\"choices\":[{\"index\":0,\"delta\":{\"content\":" + quote(content) + "},\"finish_reason\":null}]}";
+    }
+
+    private static String finish(String reason) {
+        return "{\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"" + reason + "\"}]}";
+    }
+
+    private static String usage() {
+        return "{\"choices\":[],\"usage\":{\"prompt_tokens\":100,\"completion_tokens\":12,\"total_tokens\":112}}";
+    }
+
+    private static String block(int x, int y, int z) {
+        return "{\"x\":" + x + ",\"y\":" + y + ",\"z\":" + z + ",\"material\":\"stone\"}";
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static Prompt prompt() {
+        return new Prompt("Build things.", List.of(), "Player at 0, 64, 0");
+    }
+
+    private static RequestLimiter.Ticket ticket() {
+        return new RequestLimiter.Ticket(UUID.randomUUID());
+    }
+}